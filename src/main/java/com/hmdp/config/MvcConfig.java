@@ -1,5 +1,6 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
 import org.springframework.context.annotation.Bean;
@@ -17,6 +18,8 @@ public class MvcConfig implements WebMvcConfigurer {
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private LoginInterceptor loginInterceptor;
+    @Resource
+    private AdminInterceptor adminInterceptor;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -28,8 +31,14 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/shop/**",
                         "/shop-type/**",
                         "/upload/**",
-                        "/voucher/**"
+                        "/voucher/**",
+                        "/admin/cache/metrics"
                 ).order(1);
+        // 缓存重建、预热等运维接口只允许管理员调用，指标接口供监控系统抓取
+        registry.addInterceptor(adminInterceptor)
+                .addPathPatterns("/admin/**")
+                .excludePathPatterns("/admin/cache/metrics")
+                .order(2);
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
                 .addPathPatterns("/**")
                 .excludePathPatterns("/user/code", "/user/login")
@@ -3,15 +3,29 @@ package com.hmdp.config;
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+/**
+ * 分页插件。是否执行COUNT(*)由每个查询的Page决定，不需要总数的列表接口使用new Page&lt;&gt;(current, size, false)，
+ * 每次分页只执行一条LIMIT查询
+ */
 @Configuration
 public class MybatisConfig {
+
+    /**
+     * 单页最大行数，防止传入过大的size
+     */
+    @Value("${hmdp.mybatis.page.max-limit:500}")
+    private long maxLimit;
+
     @Bean
     public MybatisPlusInterceptor mybatisPlusInterceptor() {
         MybatisPlusInterceptor interceptor = new MybatisPlusInterceptor();
-        interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.MYSQL));
+        PaginationInnerInterceptor pagination = new PaginationInnerInterceptor(DbType.MYSQL);
+        pagination.setMaxLimit(maxLimit);
+        interceptor.addInnerInterceptor(pagination);
         return interceptor;
     }
 }
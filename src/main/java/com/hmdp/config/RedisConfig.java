@@ -0,0 +1,54 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CompressingCacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+@Configuration
+public class RedisConfig {
+
+    /**
+     * Redis发布订阅的监听容器，用于接收跨节点的缓存失效等广播消息
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    /**
+     * 缓存数据使用的模板：key为字符串，value为编解码器输出的原始字节
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> cacheRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    /**
+     * 缓存编解码器，json（默认，与原有格式兼容）或binary（紧凑的二进制格式），
+     * 开启压缩时超过阈值的数据再经过压缩
+     */
+    @Bean
+    public CacheCodec cacheCodec(@Value("${hmdp.cache.codec:json}") String codec,
+                                 @Value("${hmdp.cache.compression.enabled:false}") boolean compressionEnabled,
+                                 @Value("${hmdp.cache.compression.threshold-bytes:1024}") int compressionThreshold) {
+        CacheCodec cacheCodec = "binary".equalsIgnoreCase(codec) ? new BinaryCacheCodec() : new JsonCacheCodec();
+        if (compressionEnabled) {
+            return new CompressingCacheCodec(cacheCodec, compressionThreshold);
+        }
+        return cacheCodec;
+    }
+}
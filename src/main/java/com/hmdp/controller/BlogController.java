@@ -2,18 +2,27 @@ package com.hmdp.controller;
 
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.KeysetPager;
+import com.hmdp.utils.ResponseCache;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_TTL;
 
 /**
  * <p>
@@ -30,6 +39,9 @@ public class BlogController {
     @Resource
     private IBlogService blogService;
 
+    @Resource
+    private ResponseCache responseCache;
+
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -47,20 +59,44 @@ public class BlogController {
         UserDTO user = UserHolder.getUser();
         // 根据用户查询
         Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
     }
 
+    /**
+     * 游标分页查询我的博客，按发布时间倒序
+     * @param cursor 上一页返回的游标，第一页不传
+     */
+    @GetMapping("/of/me/scroll")
+    public Result queryMyBlogScroll(@RequestParam(value = "cursor", required = false) String cursor) {
+        UserDTO user = UserHolder.getUser();
+        return queryBlogScroll(user.getId(), cursor);
+    }
+
     @GetMapping("/hot")
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
         return blogService.queryHotBlog(current);
     }
 
+    /**
+     * 按点赞数游标分页查询热门博客
+     * @param cursor 上一页返回的游标，第一页不传
+     */
+    @GetMapping("/hot/scroll")
+    public Result queryHotBlogScroll(@RequestParam(value = "cursor", required = false) String cursor) {
+        return blogService.queryHotBlogScroll(cursor);
+    }
+
+    /**
+     * 查询博客详情，响应按当前用户是否点赞分成不同的变体缓存，作者修改昵称或头像时删除
+     */
     @GetMapping("/{id}")
-    public Result queryBlogById(@PathVariable("id") Long id) {
-        return blogService.queryBlogById(id);
+    public ResponseEntity<byte[]> queryBlogById(@PathVariable("id") Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return responseCache.query(CACHE_BLOG_KEY, id, () -> String.valueOf(blogService.isBlogLiked(id)), ifNoneMatch, CACHE_BLOG_TTL, TimeUnit.MINUTES,
+                () -> blogService.queryBlogById(id));
     }
 
     @GetMapping("/likes/{id}")
@@ -73,12 +109,32 @@ public class BlogController {
                                     @RequestParam("id") Long id) {
         // 根据用户查询
         Page<Blog> page = blogService.query()
-                .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
     }
 
+    /**
+     * 游标分页查询用户的博客，按发布时间倒序
+     * @param cursor 上一页返回的游标，第一页不传
+     */
+    @GetMapping("/of/user/scroll")
+    public Result queryBlogByUserIdScroll(@RequestParam("id") Long id,
+                                          @RequestParam(value = "cursor", required = false) String cursor) {
+        return queryBlogScroll(id, cursor);
+    }
+
+    private Result queryBlogScroll(Long userId, String cursor) {
+        try {
+            CursorResult result = KeysetPager.page(blogService.query().eq("user_id", userId),
+                    Blog::getId, cursor, SystemConstants.MAX_PAGE_SIZE);
+            return Result.ok(result);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+    }
+
     @GetMapping("/of/follow")
     public Result queryBlogOfFollow(@RequestParam("max") Long max, @RequestParam(value = "offset", defaultValue = "0") Integer offset) {
         return blogService.queryBlogOfFollow(max, offset);
@@ -0,0 +1,109 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存运维相关接口
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    /**
+     * 查询店铺布隆过滤器的统计信息，包括理论误判率和实际观测到的误判率
+     */
+    @GetMapping("/bloom/shop")
+    public Result queryShopBloomFilter() {
+        return shopService.queryBloomFilterStats();
+    }
+
+    /**
+     * 从tb_shop全量重建店铺布隆过滤器
+     */
+    @PostMapping("/bloom/shop/rebuild")
+    public Result rebuildShopBloomFilter() {
+        return shopService.rebuildBloomFilter();
+    }
+
+    /**
+     * 从tb_shop全量重建店铺地理位置（Redis及本节点的进程内索引），重建期间查询继续使用旧数据
+     */
+    @PostMapping("/geo/shop/rebuild")
+    public Result rebuildShopGeo() {
+        return shopService.rebuildGeoIndex();
+    }
+
+    /**
+     * 从tb_shop全量重建本节点的店铺全文检索索引和名称联想索引
+     */
+    @PostMapping("/search/shop/rebuild")
+    public Result rebuildShopSearch() {
+        return shopService.rebuildSearchIndex();
+    }
+
+    /**
+     * 重新预热店铺缓存（逻辑过期模式），例如Redis被清空之后
+     */
+    @PostMapping("/warm-up/shop")
+    public Result warmUpShopCache() {
+        return shopService.warmUpShopCache();
+    }
+
+    /**
+     * 店铺类型修改后刷新快照，所有节点的ETag随之变化
+     */
+    @PostMapping("/shop-type/refresh")
+    public Result refreshShopType() {
+        return shopTypeService.refreshTypeList();
+    }
+
+    /**
+     * 查询缓存重建线程池的队列深度、拒绝次数、重建耗时等指标
+     */
+    @GetMapping("/rebuild")
+    public Result queryRebuildStats() {
+        return Result.ok(cacheRebuildExecutor.stats());
+    }
+
+    /**
+     * 查询当前探测到的热点key，包括估计的访问频率和是否已固定到本地副本
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * Prometheus抓取接口，按key前缀输出命中率、数据库查询和重建耗时等指标，不需要登录
+     */
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String scrapeMetrics() {
+        return cacheMetrics.scrape();
+    }
+}
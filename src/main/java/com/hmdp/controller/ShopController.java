@@ -1,15 +1,19 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ResponseCache;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
 
 /**
  * <p>
@@ -26,14 +30,19 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private ResponseCache responseCache;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) throws InterruptedException {
-        return shopService.queryById(id);
+    public ResponseEntity<byte[]> queryShopById(@PathVariable("id") Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return responseCache.query(CACHE_SHOP_KEY, id, ifNoneMatch, CACHE_SHOP_TTL, TimeUnit.MINUTES,
+                () -> shopService.queryById(id));
     }
 
     /**
@@ -43,10 +52,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，并加入布隆过滤器
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -65,6 +72,9 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param sortBy 排序方式，默认distance按距离；best为综合排序，Redis GEO时只对最近的一批店铺排序，之后的页为空
+     * @param area 商圈，可以为空
+     * @param priceBand 价格区间下标，可以为空
      * @return 商铺列表
      */
     @GetMapping("/of/type")
@@ -72,9 +82,12 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current,
             @RequestParam("x") Double x,
-            @RequestParam("y") Double y
+            @RequestParam("y") Double y,
+            @RequestParam(value = "sortBy", required = false) String sortBy,
+            @RequestParam(value = "area", required = false) String area,
+            @RequestParam(value = "priceBand", required = false) Integer priceBand
     ) {
-        return shopService.queryShopByType(typeId, current, x, y);
+        return shopService.queryShopByType(typeId, current, x, y, sortBy, area, priceBand);
 //        // 根据类型分页查询
 //        Page<Shop> page = shopService.query()
 //                .eq("type_id", typeId)
@@ -83,6 +96,52 @@ public class ShopController {
 //        return Result.ok(page.getRecords());
     }
 
+    /**
+     * 查询一个商铺类型下各商圈、各价格区间的商铺数量
+     * @param typeId 商铺类型
+     * @param area 已选的商圈，可以为空
+     * @param priceBand 已选的价格区间下标，可以为空
+     * @return 总数、各商圈数量、各价格区间的范围和数量
+     */
+    @GetMapping("/facets")
+    public Result queryShopFacets(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "area", required = false) String area,
+            @RequestParam(value = "priceBand", required = false) Integer priceBand
+    ) {
+        return shopService.queryShopFacets(typeId, area, priceBand);
+    }
+
+    /**
+     * 根据商铺类型按距离游标分页查询附近商铺，不传坐标时按评分游标分页
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表及下一页的游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result queryShopByTypeScroll(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopByTypeScroll(typeId, x, y, cursor);
+    }
+
+    /**
+     * 店铺名称联想，输入框每次按键调用，前缀可以是名称、全拼或拼音首字母
+     * @param prefix 前缀
+     * @param limit 最多返回的数量
+     * @return 店铺id和名称
+     */
+    @GetMapping("/suggest")
+    public Result suggestShop(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "limit", defaultValue = "10") Integer limit
+    ) {
+        return shopService.suggestShop(prefix, limit);
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
@@ -94,11 +153,6 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current);
     }
 }
@@ -1,15 +1,17 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
-import com.hmdp.entity.ShopType;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.ETagUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -25,8 +27,13 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
+    /**
+     * 查询店铺类型列表，直接返回内存快照中序列化好的字节，客户端带上匹配的If-None-Match时返回304
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
-        return typeService.queryTypeList();
+    public ResponseEntity<byte[]> queryTypeList(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        ShopTypeSnapshot snapshot = typeService.queryTypeSnapshot();
+        return ETagUtils.response(snapshot.getBody(), snapshot.getEtag(), ifNoneMatch);
     }
 }
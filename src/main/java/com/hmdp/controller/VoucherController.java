@@ -4,9 +4,16 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.ResponseCache;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_TTL;
 
 /**
  * <p>
@@ -23,6 +30,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private ResponseCache responseCache;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -30,7 +40,7 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
@@ -51,7 +61,10 @@ public class VoucherController {
      * @return 优惠券列表
      */
     @GetMapping("/list/{shopId}")
-    public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
-       return voucherService.queryVoucherOfShop(shopId);
+    public ResponseEntity<byte[]> queryVoucherOfShop(@PathVariable("shopId") Long shopId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // 列表中包含秒杀库存，只缓存很短的时间
+        return responseCache.query(CACHE_VOUCHER_LIST_KEY, shopId, ifNoneMatch,
+                CACHE_VOUCHER_LIST_TTL, TimeUnit.SECONDS, () -> voucherService.queryVoucherOfShop(shopId));
     }
 }
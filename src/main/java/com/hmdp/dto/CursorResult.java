@@ -0,0 +1,14 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class CursorResult {
+    private List<?> list;
+    /**
+     * 下一页的游标，没有下一页时为null
+     */
+    private String cursor;
+}
@@ -0,0 +1,44 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个店铺类型的分面数量
+ */
+@Data
+public class ShopFacets {
+    /**
+     * 同时满足已选商圈和价格区间的店铺数量
+     */
+    private Long total;
+    /**
+     * 商圈及店铺数量（按已选价格区间过滤），按数量降序
+     */
+    private Map<String, Integer> areas;
+    /**
+     * 价格区间及店铺数量（按已选商圈过滤）
+     */
+    private List<PriceBand> priceBands;
+
+    @Data
+    @AllArgsConstructor
+    public static class PriceBand {
+        /**
+         * 区间下标，过滤时作为priceBand参数
+         */
+        private Integer band;
+        /**
+         * 人均价格下限（含），第一个区间为null
+         */
+        private Long min;
+        /**
+         * 人均价格上限（不含），最后一个区间为null
+         */
+        private Long max;
+        private Integer count;
+    }
+}
@@ -0,0 +1,14 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 店铺名称的联想结果
+ */
+@Data
+@AllArgsConstructor
+public class ShopSuggestion {
+    private Long id;
+    private String name;
+}
@@ -0,0 +1,31 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照，包含预先序列化好的响应体，整体替换，不会被修改
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    /**
+     * 店铺类型列表，只读
+     */
+    private final List<ShopType> types;
+    /**
+     * 序列化好的Result响应体
+     */
+    private final byte[] body;
+    /**
+     * 版本号，内容变化时递增
+     */
+    private final long version;
+    /**
+     * 强ETag，由响应体的摘要计算，各节点相同内容的ETag相同
+     */
+    private final String etag;
+}
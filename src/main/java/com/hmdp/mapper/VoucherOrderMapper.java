@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.hmdp.entity.VoucherOrder;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,8 @@ import com.hmdp.entity.VoucherOrder;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 一条多行INSERT写入一批订单
+     */
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
 }
@@ -16,8 +16,12 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryHotBlog(Integer current);
 
+    Result queryHotBlogScroll(String cursor);
+
     Result queryBlogById(Long id);
 
+    Boolean isBlogLiked(Long id);
+
     Result likeBlog(Long id);
 
     Result queryBlogLikes(Long id);
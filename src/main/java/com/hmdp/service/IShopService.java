@@ -14,9 +14,30 @@ import com.hmdp.entity.Shop;
  */
 public interface IShopService extends IService<Shop> {
 
-    Result queryById(Long id) throws InterruptedException;
+    Result queryById(Long id);
+
+    Result saveShop(Shop shop);
 
     Result update(Shop shop);
 
-    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+    Result rebuildBloomFilter();
+
+    Result queryBloomFilterStats();
+
+    Result warmUpShopCache();
+
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String sortBy,
+                           String area, Integer priceBand);
+
+    Result queryShopFacets(Integer typeId, String area, Integer priceBand);
+
+    Result queryShopByTypeScroll(Integer typeId, Double x, Double y, String cursor);
+
+    Result rebuildGeoIndex();
+
+    Result queryShopByName(String name, Integer current);
+
+    Result rebuildSearchIndex();
+
+    Result suggestShop(String prefix, Integer limit);
 }
@@ -2,6 +2,7 @@ package com.hmdp.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 
 /**
@@ -15,4 +16,8 @@ import com.hmdp.entity.ShopType;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryTypeList();
+
+    ShopTypeSnapshot queryTypeSnapshot();
+
+    Result refreshTypeList();
 }
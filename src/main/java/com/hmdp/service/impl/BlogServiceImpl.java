@@ -4,6 +4,7 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
@@ -13,22 +14,30 @@ import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.KeysetPager;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -50,23 +59,48 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private FollowServiceImpl followService;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
         Page<Blog> page = query()
                 .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->  {
-            queryBlogUser(blog);
-            isBlogLiked(blog);
-        });
+        // 批量查询用户和点赞状态
+        queryBlogUsers(records);
+        isBlogLiked(records);
         return Result.ok(records);
 
     }
 
+    /**
+     * 按点赞数游标分页查询热门博客，深分页与第一页耗时相同
+     * @param cursor 上一页返回的游标，第一页为空
+     * @return 博客列表及下一页的游标
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Result queryHotBlogScroll(String cursor) {
+        CursorResult result;
+        try {
+            result = KeysetPager.page(query(), "liked", Blog::getLiked, Blog::getId, cursor, SystemConstants.MAX_PAGE_SIZE);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        List<Blog> records = (List<Blog>) result.getList();
+        // 批量查询用户和点赞状态
+        queryBlogUsers(records);
+        isBlogLiked(records);
+        return Result.ok(result);
+    }
+
     @Override
     public Result queryBlogById(Long id) {
         // 查询博客
@@ -81,6 +115,18 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(blog);
     }
 
+    /**
+     * 当前用户是否点赞了博客，未登录返回null
+     */
+    @Override
+    public Boolean isBlogLiked(Long id) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return null;
+        }
+        return likedScore(id, user.getId()) != null;
+    }
+
     private void isBlogLiked(Blog blog) {
         //获取用户
         UserDTO user = UserHolder.getUser();
@@ -89,7 +135,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         Long userId = user.getId();
         //判断当前用户是否已经点赞
-        Double score = stringRedisTemplate.opsForZSet().score(BLOG_LIKED_KEY + blog.getId(), userId.toString());
+        Double score = likedScore(blog.getId(), userId);
         blog.setIsLike(score!= null);
     }
 
@@ -103,7 +149,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         //获取用户
         Long userId = UserHolder.getUser().getId();
         //判断当前用户是否已经点赞
-        Double score = stringRedisTemplate.opsForZSet().score(BLOG_LIKED_KEY + id, userId.toString());
+        Double score = likedScore(id, userId);
         if (score!= null) {
             //如果已经点赞，取消点赞
             //数据库中点赞数-1
@@ -111,6 +157,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             //把用户从缓存中删除
             if (isSuccess){
                 stringRedisTemplate.opsForZSet().remove(BLOG_LIKED_KEY + id, userId.toString());
+                cacheClient.delete(CACHE_BLOG_KEY + id);
             }
         } else {
             //否则，点赞
@@ -119,6 +166,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
             if (isSuccess){
                 stringRedisTemplate.opsForZSet().add(BLOG_LIKED_KEY + id, userId.toString(),System.currentTimeMillis());
+                cacheClient.delete(CACHE_BLOG_KEY + id);
             }
 
         }
@@ -129,7 +177,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Override
     public Result queryBlogLikes(Long id) {
         // 查询top5
+        long begin = System.nanoTime();
         Set<String> top5 = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, 4);
+        cacheMetrics.recordRedis(BLOG_LIKED_KEY, System.nanoTime() - begin);
         // 解析出id
         if (top5 == null || top5.isEmpty()) {
             return Result.fail("暂无点赞用户");
@@ -212,23 +262,13 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             }
         }
 
-        // 根据 ID 列表查询博客，并保持与 Redis 中相同的顺序
-        /**
-         * 不使用 listByIds() 而使用 query().in().last() 的主要原因是需要保持结果的顺序
-         * 从 Redis ZSet 中获取的 ID 列表是按时间戳排序的，需要在查询数据库时保持这个顺序
-         * listByIds() 的限制：
-         * listByIds() 方法不保证返回结果的顺序与输入 ID 列表的顺序一致
-         * 数据库默认按主键顺序返回记录，无法控制排序
-         * 这会导致前端显示的博客顺序与时间顺序不一致
-         */
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("order by field(id," + idStr + ")").list();
-        for (Blog blog : blogs) {
-            // 查询博客相关的用户信息
-            queryBlogUser(blog);
-            // 查询当前用户是否点赞该博客
-            isBlogLiked(blog);
-        }
+        // 根据 ID 列表批量查询博客，结果与 Redis 中的顺序一致
+        // 一次 MGET 查询缓存，未命中的博客合并为一次 IN 查询
+        List<Blog> blogs = cacheClient.queryBatchWithPassThrough(
+                CACHE_BLOG_KEY, ids, Blog.class, this::queryBlogMapByIds, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        // 批量查询博客相关的用户信息，以及当前用户是否点赞
+        queryBlogUsers(blogs);
+        isBlogLiked(blogs);
 
         // 封装滚动分页结果并返回
         ScrollResult scrollResult = new ScrollResult();
@@ -240,6 +280,71 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
 
 
+    /**
+     * 通过管道批量查询当前用户是否点赞了这些博客，一次网络往返
+     */
+    private void isBlogLiked(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || blogs.isEmpty()) {
+            return;
+        }
+        String userId = user.getId().toString();
+        long begin = System.nanoTime();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+            }
+            return null;
+        });
+        cacheMetrics.recordRedis(BLOG_LIKED_KEY, System.nanoTime() - begin);
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
+    /**
+     * 查询用户在点赞ZSET中的分数，并记录Redis耗时
+     * <p>
+     * 点赞ZSET是数据而不是缓存，有没有分数只表示是否点赞，不计入命中率
+     * </p>
+     */
+    private Double likedScore(Long blogId, Long userId) {
+        long begin = System.nanoTime();
+        Double score = stringRedisTemplate.opsForZSet().score(BLOG_LIKED_KEY + blogId, userId.toString());
+        cacheMetrics.recordRedis(BLOG_LIKED_KEY, System.nanoTime() - begin);
+        return score;
+    }
+
+    /**
+     * 批量查询博客作者信息，一次 MGET，未命中的用户合并为一次 IN 查询
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = cacheClient.queryBatchWithPassThrough(
+                        CACHE_USER_KEY, userIds, UserDTO.class, this::queryUserMapByIds, CACHE_USER_TTL, TimeUnit.MINUTES)
+                .stream().collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
+    private Map<Long, UserDTO> queryUserMapByIds(Collection<Long> ids) {
+        return userService.listByIds(ids).stream()
+                .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class)));
+    }
+
+    private Map<Long, Blog> queryBlogMapByIds(Collection<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, Function.identity()));
+    }
+
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
         User user = userService.getById(userId);
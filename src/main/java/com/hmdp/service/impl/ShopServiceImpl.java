@@ -1,38 +1,66 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.BloomFilter;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.KeysetPager;
+import com.hmdp.utils.ShopFacetIndex;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.RankCandidates;
+import com.hmdp.utils.ShopGeoRedisIndex;
+import com.hmdp.utils.ShopGeoResultCache;
+import com.hmdp.utils.ShopRanker;
+import com.hmdp.utils.ShopSearchIndex;
+import com.hmdp.utils.ShopSuggestIndex;
 import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -44,6 +72,7 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -53,19 +82,175 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopGeoRedisIndex shopGeoRedisIndex;
+
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    /**
+     * 名称搜索是否使用进程内的全文检索索引，未开启或索引未构建完成时使用数据库LIKE查询
+     */
+    @Value("${hmdp.search.shop-index.enabled:false}")
+    private boolean searchIndexEnabled;
+
+    /**
+     * 构建全文检索索引时每批读取的店铺数量
+     */
+    @Value("${hmdp.search.shop-index.batch-size:5000}")
+    private int searchIndexBatchSize;
+
+    @Resource
+    private ShopSuggestIndex shopSuggestIndex;
+
+    @Resource
+    private ShopFacetIndex shopFacetIndex;
+
+    /**
+     * 是否构建商圈、价格区间的分面索引
+     */
+    @Value("${hmdp.search.facet.enabled:false}")
+    private boolean facetIndexEnabled;
+
+    /**
+     * 是否构建店铺名称的联想索引
+     */
+    @Value("${hmdp.search.suggest.enabled:false}")
+    private boolean suggestIndexEnabled;
+
+    /**
+     * 联想最多返回的数量
+     */
+    private static final int MAX_SUGGEST_SIZE = 20;
+
+    /**
+     * 启动时Redis中没有店铺地理位置则从tb_shop重建
+     */
+    @Value("${hmdp.geo.rebuild.if-missing:true}")
+    private boolean geoRebuildIfMissing;
+
+    /**
+     * 附近店铺查询是否使用进程内的地理位置索引，未开启或索引未构建完成时查询Redis GEO
+     */
+    @Value("${hmdp.geo.local-index.enabled:false}")
+    private boolean geoLocalIndexEnabled;
+
+    /**
+     * 构建地理位置索引（Redis及进程内）时每批读取的店铺数量
+     */
+    @Value("${hmdp.geo.rebuild.batch-size:5000}")
+    private int geoIndexBatchSize;
+
+    /**
+     * 附近店铺的查询半径，米
+     */
+    private static final double NEARBY_RADIUS_METERS = 5000;
+
+    @Resource
+    private ShopRanker shopRanker;
+
+    /**
+     * 按类型查询店铺时默认的排序方式：distance（按距离，与原接口一致）或best（综合排序），综合排序一般由sortBy参数指定
+     */
+    @Value("${hmdp.rank.default-sort:distance}")
+    private String defaultSort;
+
+    /**
+     * 综合排序使用进程内地理位置索引时最多参与排序的候选店铺数量
+     */
+    @Value("${hmdp.rank.local-candidates:10000}")
+    private int rankLocalCandidates;
+
+    /**
+     * 综合排序或按分面过滤时，使用Redis GEO最多取的候选店铺数量（距离最近的），综合排序时候选店铺需要逐个读取缓存；
+     * 只有这些候选参与排序，超过 redis-candidates / 每页数量 的页返回空列表
+     */
+    @Value("${hmdp.rank.redis-candidates:200}")
+    private int rankRedisCandidates;
+
+    private static final String SORT_BY_DISTANCE = "distance";
+    private static final String SORT_BY_BEST = "best";
+
+    @Resource
+    private ShopGeoResultCache geoResultCache;
+
+    /**
+     * 游标分页时Redis快照的有效期，秒
+     */
+    @Value("${hmdp.geo.scroll.snapshot-ttl-seconds:300}")
+    private long geoSnapshotTtlSeconds;
+
+    /**
+     * 游标分页时Redis快照最多保存的店铺数量
+     */
+    @Value("${hmdp.geo.scroll.max-results:1000}")
+    private int geoSnapshotMaxResults;
+
+    /**
+     * 游标分页共用Redis快照的geohash位数
+     */
+    @Value("${hmdp.geo.scroll.precision:7}")
+    private int geoSnapshotPrecision;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    /**
+     * 布隆过滤器的期望误判率
+     */
+    @Value("${hmdp.cache.bloom.fpp:0.01}")
+    private double bloomFpp;
+
+    /**
+     * 构建布隆过滤器时每批查询的店铺id数量
+     */
+    private static final int BLOOM_BUILD_BATCH_SIZE = 1000;
+
+    /**
+     * 店铺缓存的模式：pass-through（缓存穿透）、mutex（互斥锁）、logical-expire（逻辑过期）
+     */
+    @Value("${hmdp.cache.shop-mode:pass-through}")
+    private String shopCacheMode;
+
+    /**
+     * 逻辑过期模式下，启动后是否预热全部店铺
+     */
+    @Value("${hmdp.cache.warm-up.enabled:true}")
+    private boolean warmUpEnabled;
+
+    /**
+     * 预热时每批写入的店铺数量
+     */
+    @Value("${hmdp.cache.warm-up.batch-size:500}")
+    private int warmUpBatchSize;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @Override
-    public Result queryById(Long id) throws InterruptedException {
-        // 解决缓存穿透
-        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        // 互斥锁解决缓存击穿
-        //Shop shop = queryWithMutex(id);
-        // 逻辑过期解决缓存击穿
-        //Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    public Result queryById(Long id) {
+        Shop shop;
+        if ("logical-expire".equals(shopCacheMode)) {
+            // 逻辑过期解决缓存击穿
+            shop = queryWithLogicalExpire(id);
+        } else if ("mutex".equals(shopCacheMode)) {
+            // 互斥锁解决缓存击穿
+            shop = queryWithMutex(id);
+        } else {
+            // 解决缓存穿透
+            shop = queryWithPassThrough(id);
+        }
 
         if (shop == null) {
             return Result.fail("店铺不存在！");
@@ -74,175 +259,452 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
-    public static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
-
-        /**
+    /**
      * 通过逻辑过期方式查询商铺信息（带缓存重建机制）
      * <p>
-     * 该方法首先从Redis缓存中查询指定ID的商铺数据。如果缓存未命中或已过期，
-     * 则尝试获取分布式锁并异步重建缓存，同时立即返回当前过期数据以保证响应性能。
+     * 该方法首先从Redis缓存中查询指定ID的商铺数据。如果缓存已过期，
+     * 则尝试获取分布式锁并异步重建缓存，同时立即返回当前过期数据以保证响应性能；
+     * 如果缓存不存在，则在本节点合并并发请求，加载一次后写入。
      * </p>
      *
      * @param id 商铺ID，用于标识要查询的商铺
-     * @return 商铺信息对象；若缓存中不存在则返回null
+     * @return 商铺信息对象；若店铺不存在则返回null
      */
     public Shop queryWithLogicalExpire(Long id){
-        // 1.从Redis中查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        // 2.判断是否存在
-        if (StrUtil.isBlank(shopJson)){
-            // 3.不存在，直接返回
-            return null;
+        return cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+
+    /**
+     * 使用互斥锁查询商铺信息
+     * <p>
+     * 本节点内同一店铺的并发未命中只有一个线程去抢锁并查询数据库，其余线程等待它的结果。
+     * </p>
+     *
+     * @param id 商铺ID
+     * @return 商铺信息，如果不存在则返回null
+     */
+    public Shop queryWithMutex(Long id) {
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+
+    /**
+     * 根据ID查询商铺信息，使用Redis缓存穿透解决方案
+     *
+     * @param id 商铺ID
+     * @return 商铺信息，如果不存在则返回null
+     */
+    public Shop queryWithPassThrough(Long id){
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 应用启动后，逻辑过期模式下在后台预热店铺缓存
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initShopCache() {
+        if (!"logical-expire".equals(shopCacheMode) || !warmUpEnabled) {
+            return;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 5.判断Redis中的数据是否过期
-        if (expireTime.isAfter(LocalDateTime.now())){
-            // 5.2.未过期，直接返回数据
-            return shop;
+        CompletableFuture.runAsync(() -> {
+            try {
+                warmUpShopCache();
+            } catch (Exception e) {
+                // 预热失败不影响服务，未预热的店铺会在第一次查询时加载
+                log.error("店铺缓存预热失败", e);
+            }
+        });
+    }
+
+    /**
+     * 预热店铺缓存：按id分批流式读取tb_shop，每批通过管道写入逻辑过期数据
+     */
+    @Override
+    public Result warmUpShopCache() {
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            List<Shop> shops = query().gt("id", lastId).orderByAsc("id").last("LIMIT " + warmUpBatchSize).list();
+            if (shops.isEmpty()) {
+                break;
+            }
+            Map<String, Shop> values = new HashMap<>(shops.size());
+            for (Shop shop : shops) {
+                values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+            }
+            cacheClient.setWithLogicalExpireBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            total += shops.size();
+            lastId = shops.get(shops.size() - 1).getId();
+            if (shops.size() < warmUpBatchSize) {
+                break;
+            }
         }
+        log.info("店铺缓存预热完成，店铺数量：{}", total);
+        return Result.ok(total);
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 写入Redis中的地理位置
+        syncRedisGeo(shop.getId(), null);
+        // 加入本节点的布隆过滤器，并通知其它节点
+        addToBloomFilter(shop.getId());
+        stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL, shop.getId().toString());
+        return Result.ok(shop.getId());
+    }
 
-        // 5.1.过期，需要缓存重建
+    @PostConstruct
+    private void subscribeShopChanged() {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            Long id = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+            addToBloomFilter(id);
+            refreshLocalIndexes(id);
+        }, new ChannelTopic(SHOP_CHANGED_CHANNEL));
+    }
 
-        // 6.缓存重建
-        // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2.判断是否获取成功
-        if (isLock){
-            // 6.3.成功，执行缓存重建
-            if (expireTime.isAfter(LocalDateTime.now())){//再次检测redis缓存是否过期
-                // 5.2.未过期，直接返回数据
-                return shop;
+    /**
+     * 应用启动后，在后台构建进程内的地理位置索引；Redis中还没有店铺地理位置时一并重建
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initGeoIndex() {
+        CompletableFuture.runAsync(() -> {
+            try {
+                boolean redis = geoRebuildIfMissing && shopGeoRedisIndex.isEmpty();
+                if (redis || geoLocalIndexEnabled) {
+                    rebuildGeoIndex(redis, geoLocalIndexEnabled);
+                }
+            } catch (Exception e) {
+                // 构建失败时附近店铺继续查询Redis GEO，可以通过管理接口重试
+                log.error("构建店铺地理位置索引失败", e);
             }
-            // 2. 提交异步任务到线程池
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                // 重建缓存
-                this.saveShop2Redis(id, 20L);
-                // 释放锁
-                unLock(lockKey);
+        });
+    }
 
-            });
+    @Override
+    public Result rebuildGeoIndex() {
+        try {
+            return Result.ok(rebuildGeoIndex(true, geoLocalIndexEnabled));
+        } catch (IllegalStateException e) {
+            return Result.fail(e.getMessage());
+        }
+    }
 
+    /**
+     * 全量重建地理位置索引：按id分批流式读取tb_shop的类型和坐标，同时写入Redis的临时key和进程内索引
+     * @return 店铺数量
+     */
+    private long rebuildGeoIndex(boolean redis, boolean local) {
+        ShopGeoRedisIndex.Rebuild redisRebuild = redis ? shopGeoRedisIndex.beginRebuild() : null;
+        long[] total = {0};
+        try {
+            if (local) {
+                shopGeoIndex.rebuild(builder -> total[0] = forEachShopLocation(shop -> {
+                    builder.add(shop.getTypeId(), shop.getId(), shop.getX(), shop.getY(), intValue(shop.getScore()),
+                            intValue(shop.getSold()), intValue(shop.getComments()), intValue(shop.getAvgPrice()));
+                    if (redisRebuild != null) {
+                        redisRebuild.add(shop.getTypeId(), shop.getId(), shop.getX(), shop.getY());
+                    }
+                }));
+            } else if (redisRebuild != null) {
+                total[0] = forEachShopLocation(shop ->
+                        redisRebuild.add(shop.getTypeId(), shop.getId(), shop.getX(), shop.getY()));
+            }
+            if (redisRebuild != null) {
+                redisRebuild.commit();
+            }
+        } catch (RuntimeException e) {
+            if (redisRebuild != null) {
+                redisRebuild.abort();
+            }
+            throw e;
         }
+        log.info("店铺地理位置索引构建完成，店铺数量：{}，Redis：{}，本地：{}", total[0], redis, local);
+        return total[0];
+    }
 
+    /**
+     * 按id分批读取有类型和坐标的店铺
+     * @return 店铺数量
+     */
+    private long forEachShopLocation(Consumer<Shop> consumer) {
+        long[] total = {0};
+        forEachShop(geoIndexBatchSize, shop -> {
+            if (hasLocation(shop)) {
+                consumer.accept(shop);
+                total[0]++;
+            }
+        }, "id", "type_id", "x", "y", "score", "sold", "comments", "avg_price");
+        return total[0];
+    }
+
+    /**
+     * 按id分批流式读取tb_shop的指定列
+     * @return 店铺数量
+     */
+    private long forEachShop(int batchSize, Consumer<Shop> consumer, String... columns) {
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            List<Shop> shops = query().select(columns)
+                    .gt("id", lastId).orderByAsc("id").last("LIMIT " + batchSize).list();
+            shops.forEach(consumer);
+            total += shops.size();
+            if (shops.size() < batchSize) {
+                return total;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+    }
 
-        // 6.4.返回过期商铺信息
-        return shop;
+    private static boolean hasLocation(Shop shop) {
+        return shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
     }
 
+    private static int intValue(Number value) {
+        return value == null ? 0 : (int) Math.min(Integer.MAX_VALUE, Math.max(0, value.longValue()));
+    }
 
-        /**
-     * 使用互斥锁查询商铺信息
-     *
-     * @param id 商铺ID
-     * @return 商铺信息，如果不存在则返回null
-     * @throws InterruptedException 线程中断异常
+    /**
+     * 店铺新增或修改后更新Redis中的地理位置，类型变化时从原类型中移除
+     * @param oldTypeId 修改前的类型，新增时为null
+     */
+    private void syncRedisGeo(Long id, Long oldTypeId) {
+        try {
+            Shop shop = query().select("id", "type_id", "x", "y").eq("id", id).one();
+            if (hasLocation(shop)) {
+                shopGeoRedisIndex.upsert(oldTypeId, shop.getTypeId(), id, shop.getX(), shop.getY());
+            } else if (oldTypeId != null) {
+                shopGeoRedisIndex.remove(oldTypeId, id);
+            }
+        } catch (Exception e) {
+            // 数据库已经提交，这里失败只影响附近店铺查询，由全量重建修复
+            log.error("更新店铺{}的地理位置失败", id, e);
+        }
+    }
+
+    /**
+     * 店铺新增或修改后，从数据库重新读取店铺更新本节点的地理位置索引、全文检索索引、联想索引和分面索引
      */
-    public Shop queryWithMutex(Long id) throws InterruptedException {
-        // 1.从Redis中查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)){
-            // 3.存在，直接返回
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return shop;
+    private void refreshLocalIndexes(Long id) {
+        if (!geoLocalIndexEnabled && !searchIndexEnabled && !suggestIndexEnabled && !facetIndexEnabled) {
+            return;
+        }
+        Shop shop = query().select("id", "type_id", "x", "y", "name", "area", "address", "sold", "score", "comments", "avg_price")
+                .eq("id", id).one();
+        if (geoLocalIndexEnabled) {
+            if (!hasLocation(shop)) {
+                shopGeoIndex.remove(id);
+            } else {
+                shopGeoIndex.upsert(shop.getTypeId(), id, shop.getX(), shop.getY(), intValue(shop.getScore()),
+                        intValue(shop.getSold()), intValue(shop.getComments()), intValue(shop.getAvgPrice()));
+            }
+        }
+        if (searchIndexEnabled) {
+            if (shop == null) {
+                shopSearchIndex.remove(id);
+            } else {
+                shopSearchIndex.upsert(id, shop.getName(), shop.getArea(), shop.getAddress());
+            }
+        }
+        if (suggestIndexEnabled) {
+            if (shop == null) {
+                shopSuggestIndex.remove(id);
+            } else {
+                shopSuggestIndex.upsert(id, shop.getName(), shop.getSold(), shop.getScore());
+            }
         }
-        //判断命中的是否是空值
-        if (shopJson != null){              //如果是空值
-            return null;
+        if (facetIndexEnabled) {
+            if (shop == null || shop.getTypeId() == null) {
+                shopFacetIndex.remove(id);
+            } else {
+                shopFacetIndex.upsert(id, shop.getTypeId(), shop.getArea(), shop.getAvgPrice());
+            }
         }
+    }
 
-        // 获取互斥锁，防止缓存击穿
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 4.判断是否获取成功
-        if (!isLock){
-            //获取锁失败，等待后重试
-            Thread.sleep(50);
-            return queryWithMutex( id);
+    /**
+     * 应用启动后，在后台构建店铺名称的全文检索索引、联想索引和分面索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initSearchIndex() {
+        if (!searchIndexEnabled && !suggestIndexEnabled && !facetIndexEnabled) {
+            return;
         }
+        CompletableFuture.runAsync(() -> {
+            try {
+                rebuildSearchIndex();
+            } catch (Exception e) {
+                // 构建失败时名称搜索继续使用数据库LIKE查询，联想返回空
+                log.error("构建店铺全文检索索引失败", e);
+            }
+        });
+    }
 
-        // 3.不存在，查询数据库
-        Shop shop = getById(id);
-        // 5.数据库不存在，返回错误
-        if (shop == null){
-            //将空值写入Redis，防止缓存穿透
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+    /**
+     * 全量重建全文检索索引、名称联想索引和分面索引：按id分批流式读取tb_shop
+     */
+    @Override
+    public Result rebuildSearchIndex() {
+        Map<String, Object> stats = new HashMap<>(4);
+        if (searchIndexEnabled) {
+            long[] total = {0};
+            shopSearchIndex.rebuild(builder -> total[0] = forEachShop(searchIndexBatchSize,
+                    shop -> builder.add(shop.getId(), shop.getName(), shop.getArea(), shop.getAddress()),
+                    "id", "name", "area", "address"));
+            log.info("店铺全文检索索引构建完成，店铺数量：{}", total[0]);
+            stats.put("search", shopSearchIndex.stats());
+        }
+        if (suggestIndexEnabled) {
+            long[] total = {0};
+            shopSuggestIndex.rebuild(builder -> total[0] = forEachShop(searchIndexBatchSize,
+                    shop -> builder.add(shop.getId(), shop.getName(), shop.getSold(), shop.getScore()),
+                    "id", "name", "sold", "score"));
+            log.info("店铺名称联想索引构建完成，店铺数量：{}", total[0]);
+            stats.put("suggest", shopSuggestIndex.stats());
         }
-        // 6.存在，写入Redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        // 释放互斥锁
-        unLock(lockKey);
+        if (facetIndexEnabled) {
+            long[] total = {0};
+            shopFacetIndex.rebuild(builder -> total[0] = forEachShop(searchIndexBatchSize, shop -> {
+                if (shop.getTypeId() != null) {
+                    builder.add(shop.getId(), shop.getTypeId(), shop.getArea(), shop.getAvgPrice());
+                }
+            }, "id", "type_id", "area", "avg_price"));
+            log.info("店铺分面索引构建完成，店铺数量：{}", total[0]);
+            stats.put("facet", shopFacetIndex.stats());
+        }
+        return Result.ok(stats);
+    }
 
-        return shop;
+    /**
+     * 查询一个类型下各商圈、各价格区间的店铺数量，只查询内存中预先统计好的计数器
+     * @param typeId 店铺类型
+     * @param area 已选的商圈，商圈数量在已选价格区间内统计，可以为空
+     * @param priceBand 已选的价格区间下标，价格区间数量在已选商圈内统计，可以为空
+     * @return 分面数量，索引构建完成前返回失败
+     */
+    @Override
+    public Result queryShopFacets(Integer typeId, String area, Integer priceBand) {
+        if (!facetIndexEnabled || !shopFacetIndex.isReady()) {
+            return Result.fail("分面索引未就绪");
+        }
+        return Result.ok(shopFacetIndex.facets(typeId, area, priceBand));
     }
 
+    /**
+     * 按前缀联想店铺名称，前缀可以是名称、全拼或拼音首字母，按销量和评分排序，只查询内存
+     * @param prefix 前缀
+     * @param limit 最多返回的数量
+     * @return 店铺id和名称，索引构建完成前为空
+     */
+    @Override
+    public Result suggestShop(String prefix, Integer limit) {
+        if (!suggestIndexEnabled || !shopSuggestIndex.isReady()) {
+            return Result.ok(Collections.emptyList());
+        }
+        int size = Math.max(1, Math.min(limit, MAX_SUGGEST_SIZE));
+        return Result.ok(shopSuggestIndex.suggest(prefix, size));
+    }
 
     /**
-     * 根据ID查询商铺信息，使用Redis缓存穿透解决方案
-     *
-     * @param id 商铺ID
-     * @return 商铺信息，如果不存在则返回null
+     * 根据名称关键字分页搜索店铺，同时匹配商圈和地址，按相关度排序
+     * <p>
+     * 全文检索索引未开启或构建完成前使用数据库LIKE查询，与索引一样按片段切分关键字，
+     * 每个片段都要出现在名称、商圈或地址中，结果按id排序。
+     * </p>
+     * @param name 关键字
+     * @param current 页码
+     * @return 店铺列表及匹配的总数
      */
-    public Shop queryWithPassThrough(Long id){
-        // 1.从Redis中查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)){
-            // 3.存在，直接返回
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return shop;
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        if (StrUtil.isBlank(name) || !searchIndexEnabled || !shopSearchIndex.isReady()) {
+            QueryChainWrapper<Shop> query = query();
+            for (String segment : ShopSearchIndex.segments(name)) {
+                query.and(w -> w.like("name", segment).or().like("area", segment).or().like("address", segment));
+            }
+            Page<Shop> page = query.orderByAsc("id").page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords(), page.getTotal());
         }
-        //判断命中的是否是空值
-        if (shopJson != null){              //如果是空值
-            return null;
+        int offset = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        ShopSearchIndex.SearchHits hits = shopSearchIndex.search(name, offset, SystemConstants.MAX_PAGE_SIZE);
+        if (hits.getIds().isEmpty()) {
+            return Result.ok(Collections.emptyList(), hits.getTotal());
         }
+        List<Shop> shops = cacheClient.queryBatchWithPassThrough(
+                CACHE_SHOP_KEY, hits.getIds(), Shop.class, this::queryShopMapByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        return Result.ok(shops, hits.getTotal());
+    }
 
-        // 3.不存在，查询数据库
-        Shop shop = getById(id);
-        // 5.数据库不存在，返回错误
-        if (shop == null){
-            //将空值写入Redis
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+    private void addToBloomFilter(Long id) {
+        BloomFilter bloomFilter = cacheClient.getBloomFilter(CACHE_SHOP_KEY);
+        if (bloomFilter != null) {
+            bloomFilter.put(id);
         }
-        // 6.存在，写入Redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
 
-        return shop;
+    /**
+     * 应用启动后，从tb_shop构建店铺id的布隆过滤器
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initBloomFilter() {
+        try {
+            rebuildBloomFilter();
+        } catch (Exception e) {
+            // 构建失败时不注册过滤器，查询照常访问Redis和数据库
+            log.error("构建店铺布隆过滤器失败", e);
+        }
     }
 
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    /**
+     * 全量重建店铺id的布隆过滤器
+     * <p>
+     * 按id分批扫描tb_shop装载新过滤器，装载完成后再替换旧过滤器；
+     * 替换后补扫一次扫描期间新增的id，保证新增店铺不会被误拦截。
+     * </p>
+     */
+    @Override
+    public Result rebuildBloomFilter() {
+        long count = count();
+        BloomFilter bloomFilter = new BloomFilter(Math.max(count * 2, 1 << 16), bloomFpp);
+        long lastId = loadIdsInto(bloomFilter, 0L);
+        cacheClient.registerBloomFilter(CACHE_SHOP_KEY, bloomFilter);
+        // 补扫替换前新增的店铺
+        loadIdsInto(bloomFilter, lastId);
+        log.info("店铺布隆过滤器构建完成，店铺数量：{}", count);
+        return Result.ok(bloomFilter.stats());
     }
 
-    private void unLock(String key){
-        stringRedisTemplate.delete(key);
+    @Override
+    public Result queryBloomFilterStats() {
+        BloomFilter bloomFilter = cacheClient.getBloomFilter(CACHE_SHOP_KEY);
+        if (bloomFilter == null) {
+            return Result.fail("布隆过滤器尚未构建");
+        }
+        return Result.ok(bloomFilter.stats());
     }
 
     /**
-     * 逻辑过期
-     * @param id
-     * @param expireSeconds
+     * 按id升序分批把大于lastId的店铺id装载到过滤器
+     * @return 装载到的最大id
      */
-    private void saveShop2Redis(Long id, Long expireSeconds){
-        // 查询
-        Shop shop = getById(id);
-        //封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        //写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+    private long loadIdsInto(BloomFilter bloomFilter, long lastId) {
+        while (true) {
+            List<Object> ids = listObjs(new QueryWrapper<Shop>()
+                    .select("id").gt("id", lastId).orderByAsc("id")
+                    .last("LIMIT " + BLOOM_BUILD_BATCH_SIZE));
+            for (Object id : ids) {
+                bloomFilter.put(id);
+            }
+            if (ids.size() < BLOOM_BUILD_BATCH_SIZE) {
+                return ids.isEmpty() ? lastId : Long.parseLong(ids.get(ids.size() - 1).toString());
+            }
+            lastId = Long.parseLong(ids.get(ids.size() - 1).toString());
+        }
     }
 
-
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -250,31 +712,52 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null){
             return Result.fail("店铺id不能为空");
         }
+        //记录修改前的类型，类型变化时需要从原类型的地理位置中移除
+        Shop old = query().select("id", "type_id").eq("id", id).one();
+        if (old == null) {
+            return Result.fail("店铺不存在！");
+        }
         //更新数据库
         updateById(shop);
-        //删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        //事务提交后删除缓存并延迟双删，同时通知各节点清理本地缓存
+        cacheInvalidator.invalidate(CACHE_SHOP_KEY + shop.getId());
+        //事务提交后更新Redis中的地理位置，并通知各节点更新布隆过滤器和地理位置索引
+        afterShopCommitted(id, old.getTypeId());
         return Result.ok();
     }
 
+    private void afterShopCommitted(Long id, Long oldTypeId) {
+        Runnable task = () -> {
+            syncRedisGeo(id, oldTypeId);
+            stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL, id.toString());
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
+
         /**
-     * 根据商铺类型查询商铺信息，支持按距离排序
+     * 根据商铺类型查询商铺信息，支持按距离排序和综合排序
      * @param typeId 商铺类型ID
      * @param current 当前页码
      * @param x 经度坐标
      * @param y 纬度坐标
+     * @param sortBy 排序方式：best（距离、评分、销量、评论数、人均价格综合排序）或distance（按距离），为空时使用默认配置
+     * @param area 商圈过滤，可以为空
+     * @param priceBand 价格区间过滤（{@link #queryShopFacets}返回的区间下标），可以为空
      * @return 查询结果封装在Result对象中
      */
     @Override
-    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
-        //判断是否需要根据坐标查询
-        if (x == null || y == null){
-            //不按坐标查询，直接分页查询指定类型的商铺
-            Page<Shop> page = query()
-                    .eq("type_id", typeId)
-                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-            return Result.ok(page.getRecords());
-        }
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String sortBy,
+                                  String area, Integer priceBand) {
+        boolean byDistance = SORT_BY_DISTANCE.equals(StrUtil.blankToDefault(sortBy, defaultSort));
         //计算分页参数
         /**
          * 第1页（current=1）：from=0, end=5（查询第1-5条记录）
@@ -282,42 +765,441 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
          */
         int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
         int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        if (StrUtil.isNotBlank(area) || priceBand != null) {
+            return Result.ok(queryShopByFacets(typeId, current, x, y, byDistance, area, priceBand, from, end));
+        }
+        //判断是否需要根据坐标查询
+        if (x == null || y == null){
+            if (!byDistance) {
+                return Result.ok(rankShopsByType(typeId, current, from, end));
+            }
+            //不按坐标查询，直接分页查询指定类型的商铺
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        if (!byDistance) {
+            return Result.ok(rankNearbyShops(typeId, x, y, current, from, end));
+        }
+
+        if (!geoLocalIndexEnabled || !shopGeoIndex.isReady()) {
+            //查询redis 按照距离排序 分页，同一geohash格子内的查询共用一份结果
+            List<ShopGeoResultCache.Hit> hits = geoResultCache.isEnabled()
+                    ? geoResultCache.get(typeId, x, y, SORT_BY_DISTANCE, current,
+                            (cx, cy) -> searchRedisNearby(typeId, cx, cy, from, end, null))
+                    : searchRedisNearby(typeId, x, y, from, end, null);
+            return Result.ok(loadNearbyHits(hits, x, y, true));
+        }
+
+        //查询进程内的地理位置索引 按照距离排序 分页
+        return Result.ok(loadGeoHits(shopGeoIndex.search(typeId, x, y, NEARBY_RADIUS_METERS, end), from));
+    }
+
+    /**
+     * 按商圈、价格区间过滤后查询店铺：分面位图的交集作为过滤条件，在地理位置扫描或候选店铺中过滤
+     * <p>
+     * 分面索引未就绪时查询数据库，按评分排序。
+     * </p>
+     */
+    private List<Shop> queryShopByFacets(long typeId, int current, Double x, Double y, boolean byDistance,
+                                         String area, Integer priceBand, int from, int end) {
+        if (!facetIndexEnabled || !shopFacetIndex.isReady()) {
+            long[] range = priceBand == null ? null : shopFacetIndex.priceRange(priceBand);
+            return query()
+                    .eq("type_id", typeId)
+                    .eq(StrUtil.isNotBlank(area), "area", StrUtil.trim(area))
+                    .ge(range != null && range[0] > 0, "avg_price", range == null ? 0 : range[0])
+                    .lt(range != null && range[1] > 0, "avg_price", range == null ? 0 : range[1])
+                    .orderByDesc("score").orderByDesc("id")
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false)).getRecords();
+        }
+        ShopFacetIndex.Filter filter = shopFacetIndex.filter(typeId, area, priceBand);
+        if (filter.size() == 0) {
+            return Collections.emptyList();
+        }
+        boolean local = geoLocalIndexEnabled && shopGeoIndex.isReady();
+        if (x == null || y == null) {
+            if (!byDistance && local) {
+                RankCandidates candidates = new RankCandidates(Math.min(filter.size(), 1024));
+                shopGeoIndex.collectAll(typeId, candidates, filter::contains);
+                return loadRankedPage(candidates, shopRanker.rank(candidates, shopRanker.weights(typeId), end), from, false);
+            }
+            //按位图顺序分页
+            return cacheClient.queryBatchWithPassThrough(CACHE_SHOP_KEY, filter.page(from, SystemConstants.DEFAULT_PAGE_SIZE),
+                    Shop.class, this::queryShopMapByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+        if (local) {
+            if (byDistance) {
+                return loadGeoHits(shopGeoIndex.search(typeId, x, y, NEARBY_RADIUS_METERS, end, filter::contains), from);
+            }
+            RankCandidates candidates = new RankCandidates(Math.min(rankLocalCandidates, 1024));
+            shopGeoIndex.collect(typeId, x, y, NEARBY_RADIUS_METERS, rankLocalCandidates, candidates, filter::contains);
+            return loadRankedPage(candidates, shopRanker.rank(candidates, shopRanker.weights(typeId), end), from, true);
+        }
+        //Redis GEO不能按分面过滤，取距离最近的一批候选后按位图过滤
+        List<ShopGeoResultCache.Hit> hits = byDistance
+                ? searchRedisNearby(typeId, x, y, from, end, filter::contains)
+                : rankRedisNearby(typeId, x, y, from, end, filter::contains);
+        return loadNearbyHits(hits, x, y, byDistance);
+    }
+
+    /**
+     * 批量读取进程内地理位置索引查询结果中[from, hits.size())的店铺
+     */
+    private List<Shop> loadGeoHits(ShopGeoIndex.GeoHits hits, int from) {
+        if (hits.size() <= from) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(SystemConstants.DEFAULT_PAGE_SIZE);
+        Map<Long, Double> distanceMap = new HashMap<>(SystemConstants.DEFAULT_PAGE_SIZE * 2);
+        for (int i = from; i < hits.size(); i++) {
+            ids.add(hits.id(i));
+            distanceMap.put(hits.id(i), hits.distance(i));
+        }
 
-        //查询redis 按照距离排序 分页
+        //根据id批量查询shop，一次MGET，未命中的一次IN查询
+        List<Shop> shops = cacheClient.queryBatchWithPassThrough(
+                CACHE_SHOP_KEY, ids, Shop.class, this::queryShopMapByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        for (Shop shop : shops){
+            shop.setDistance(distanceMap.get(shop.getId()));
+        }
+        return shops;
+    }
+
+    /**
+     * 查询redis 按照距离排序，取[from, end)
+     * @param filter 店铺id过滤条件，不为null时取最近的一批候选过滤后再分页
+     */
+    private List<ShopGeoResultCache.Hit> searchRedisNearby(long typeId, double x, double y, int from, int end,
+                                                           LongPredicate filter) {
         String key = SHOP_GEO_KEY + typeId;
         GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
-                .search(key, GeoReference.fromCoordinate(x, y), new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end));
-        //解析id
-        if (results == null){
-            return Result.ok();
-        }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        //防止skip跳过list所有元素
-        if (list.size() <= from){
-            //没有下一页了，结束
-            return Result.ok();
+                .search(key, GeoReference.fromCoordinate(x, y), new Distance(NEARBY_RADIUS_METERS),
+                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeCoordinates().sortAscending()
+                                .limit(filter == null ? end : Math.max(end, rankRedisCandidates)));
+        if (results == null) {
+            return Collections.emptyList();
         }
         //截取从from到end的部分
-        List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result->{
-            //获取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            //获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
-        });
+        return results.getContent().stream()
+                .filter(result -> filter == null || filter.test(Long.parseLong(result.getContent().getName())))
+                .skip(from).limit(end - from).map(result -> {
+                    RedisGeoCommands.GeoLocation<String> location = result.getContent();
+                    return new ShopGeoResultCache.Hit(Long.parseLong(location.getName()),
+                            location.getPoint().getX(), location.getPoint().getY());
+                }).collect(Collectors.toList());
+    }
 
-        //根据id查询shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops){
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+    /**
+     * 批量读取一页店铺，按用户的坐标计算距离
+     * @param sortByDistance 是否按重新计算的距离排序：缓存的页按格子中心排序，与用户的实际坐标可能不一致
+     */
+    private List<Shop> loadNearbyHits(List<ShopGeoResultCache.Hit> hits, double x, double y, boolean sortByDistance) {
+        if (hits.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(hits.size());
+        Map<Long, Double> distanceMap = new HashMap<>(hits.size() * 2);
+        for (ShopGeoResultCache.Hit hit : hits) {
+            ids.add(hit.getId());
+            distanceMap.put(hit.getId(), ShopGeoIndex.distance(x, y, hit.getX(), hit.getY()));
+        }
+        List<Shop> shops = cacheClient.queryBatchWithPassThrough(
+                CACHE_SHOP_KEY, ids, Shop.class, this::queryShopMapByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        for (Shop shop : shops) {
+            shop.setDistance(distanceMap.get(shop.getId()));
+        }
+        if (sortByDistance) {
+            shops.sort(Comparator.comparingDouble(Shop::getDistance).thenComparing(Shop::getId));
+        }
+        return shops;
+    }
+
+    /**
+     * 附近店铺综合排序：从半径内取候选店铺，按类型的权重打分，选出前end个后取[from, end)
+     */
+    private List<Shop> rankNearbyShops(long typeId, double x, double y, int current, int from, int end) {
+        if (geoLocalIndexEnabled && shopGeoIndex.isReady()) {
+            //进程内索引中保存了排序属性，打分选出一页后再批量读取这一页的店铺
+            RankCandidates candidates = new RankCandidates(Math.min(rankLocalCandidates, 1024));
+            shopGeoIndex.collect(typeId, x, y, NEARBY_RADIUS_METERS, rankLocalCandidates, candidates);
+            return loadRankedPage(candidates, shopRanker.rank(candidates, shopRanker.weights(typeId), end), from, true);
+        }
+        List<ShopGeoResultCache.Hit> hits = geoResultCache.isEnabled()
+                ? geoResultCache.get(typeId, x, y, SORT_BY_BEST, current,
+                        (cx, cy) -> rankRedisNearby(typeId, cx, cy, from, end, null))
+                : rankRedisNearby(typeId, x, y, from, end, null);
+        return loadNearbyHits(hits, x, y, false);
+    }
+
+    /**
+     * Redis中只有坐标，取距离最近的一批候选，读取店铺后打分
+     * <p>
+     * 结果最多rankRedisCandidates个，之后的页为空，表示没有更多结果
+     * </p>
+     * @param filter 店铺id过滤条件，可以为null
+     */
+    private List<ShopGeoResultCache.Hit> rankRedisNearby(long typeId, double x, double y, int from, int end,
+                                                         LongPredicate filter) {
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId, GeoReference.fromCoordinate(x, y), new Distance(NEARBY_RADIUS_METERS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
+                        .includeDistance().sortAscending().limit(rankRedisCandidates));
+        if (results == null || results.getContent().isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Double> distances = new HashMap<>(results.getContent().size() * 2);
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results.getContent()) {
+            long id = Long.parseLong(result.getContent().getName());
+            if (filter == null || filter.test(id)) {
+                distances.put(id, result.getDistance().getValue());
+            }
+        }
+        if (distances.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Shop> shops = cacheClient.queryBatchWithPassThrough(
+                CACHE_SHOP_KEY, distances.keySet(), Shop.class, this::queryShopMapByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        RankCandidates candidates = new RankCandidates(shops.size());
+        Map<Long, Shop> shopMap = new HashMap<>(shops.size() * 2);
+        for (Shop shop : shops) {
+            shopMap.put(shop.getId(), shop);
+            candidates.add(shop.getId(), distances.get(shop.getId()), intValue(shop.getScore()),
+                    intValue(shop.getSold()), intValue(shop.getComments()), intValue(shop.getAvgPrice()));
         }
+        int[] ranked = shopRanker.rank(candidates, shopRanker.weights(typeId), end);
+        List<ShopGeoResultCache.Hit> page = new ArrayList<>(SystemConstants.DEFAULT_PAGE_SIZE);
+        for (int i = from; i < ranked.length; i++) {
+            Shop shop = shopMap.get(candidates.id(ranked[i]));
+            page.add(new ShopGeoResultCache.Hit(shop.getId(), shop.getX(), shop.getY()));
+        }
+        return page;
+    }
+
+    /**
+     * 不按坐标查询时的综合排序（不含距离），进程内索引未就绪时按评分、销量排序
+     */
+    private List<Shop> rankShopsByType(long typeId, int current, int from, int end) {
+        if (geoLocalIndexEnabled && shopGeoIndex.isReady()) {
+            RankCandidates candidates = new RankCandidates(1024);
+            shopGeoIndex.collectAll(typeId, candidates);
+            return loadRankedPage(candidates, shopRanker.rank(candidates, shopRanker.weights(typeId), end), from, false);
+        }
+        return query()
+                .eq("type_id", typeId)
+                .orderByDesc("score", "sold").orderByAsc("id")
+                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false)).getRecords();
+    }
+
+    /**
+     * 批量读取排好序的候选中[from, ranked.length)的店铺
+     */
+    private List<Shop> loadRankedPage(RankCandidates candidates, int[] ranked, int from, boolean withDistance) {
+        if (ranked.length <= from) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(ranked.length - from);
+        Map<Long, Double> distances = new HashMap<>((ranked.length - from) * 2);
+        for (int i = from; i < ranked.length; i++) {
+            ids.add(candidates.id(ranked[i]));
+            distances.put(candidates.id(ranked[i]), candidates.distance(ranked[i]));
+        }
+        List<Shop> shops = cacheClient.queryBatchWithPassThrough(
+                CACHE_SHOP_KEY, ids, Shop.class, this::queryShopMapByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (withDistance) {
+            for (Shop shop : shops) {
+                shop.setDistance(distances.get(shop.getId()));
+            }
+        }
+        return shops;
+    }
+
+    /**
+     * 根据商铺类型按距离游标分页查询附近商铺
+     * <p>
+     * 游标记录上一页最后一个店铺的距离和id，每一页只查询游标之后的一页：
+     * 使用进程内索引时直接从游标位置继续查询；使用Redis时按(类型, geohash格子)共用一个短期的快照ZSet，
+     * 快照以格子中心为圆心按距离保存半径内的店铺，同一格子内的查询都读这一份，快照数量只与不同的查询位置有关。
+     * 游标中的距离是到格子中心的距离，每一页按上一页最后一个店铺的排名读取，快照重建后按距离重新定位；
+     * 返回的距离按用户的实际坐标重新计算，每一页内再按这个距离排序，误差与附近店铺结果缓存相同。
+     * 不传坐标时按(评分, id)降序键集分页，游标记录上一页最后一个店铺的评分和id。
+     * </p>
+     * @param typeId 商铺类型ID
+     * @param x 经度坐标，可以为空
+     * @param y 纬度坐标，可以为空
+     * @param cursor 上一页返回的游标，第一页为空
+     * @return 店铺列表及下一页的游标
+     */
+    @Override
+    public Result queryShopByTypeScroll(Integer typeId, Double x, Double y, String cursor) {
+        if (x == null || y == null) {
+            try {
+                return Result.ok(KeysetPager.page(query().eq("type_id", typeId),
+                        "score", Shop::getScore, Shop::getId, cursor, SystemConstants.DEFAULT_PAGE_SIZE));
+            } catch (IllegalArgumentException e) {
+                return Result.fail("无效的游标");
+            }
+        }
+        GeoCursor after;
+        try {
+            after = GeoCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        List<Long> ids = new ArrayList<>(size);
+        Map<Long, Double> distances = new HashMap<>(size * 2);
+        boolean local = geoLocalIndexEnabled && shopGeoIndex.isReady();
+        if (local) {
+            ShopGeoIndex.GeoHits hits = shopGeoIndex.search(
+                    typeId, x, y, NEARBY_RADIUS_METERS, size, after.distance, after.id);
+            for (int i = 0; i < hits.size(); i++) {
+                ids.add(hits.id(i));
+                distances.put(hits.id(i), hits.distance(i));
+            }
+        } else {
+            for (ZSetOperations.TypedTuple<String> tuple : scrollGeoSnapshot(typeId, x, y, after, size)) {
+                Long id = Long.valueOf(tuple.getValue());
+                ids.add(id);
+                distances.put(id, tuple.getScore());
+            }
+        }
+
+        CursorResult result = new CursorResult();
+        if (ids.isEmpty()) {
+            result.setList(Collections.emptyList());
+            return Result.ok(result);
+        }
+        List<Shop> shops = cacheClient.queryBatchWithPassThrough(
+                CACHE_SHOP_KEY, ids, Shop.class, this::queryShopMapByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        for (Shop shop : shops) {
+            if (local || shop.getX() == null || shop.getY() == null) {
+                shop.setDistance(distances.get(shop.getId()));
+            } else {
+                shop.setDistance(ShopGeoIndex.distance(x, y, shop.getX(), shop.getY()));
+            }
+        }
+        if (!local) {
+            shops.sort(Comparator.comparingDouble(Shop::getDistance).thenComparing(Shop::getId));
+        }
+        result.setList(shops);
+        if (ids.size() == size) {
+            // 游标按快照（或进程内索引）中的顺序记录，与重新计算的距离无关
+            Long lastId = ids.get(size - 1);
+            result.setCursor(new GeoCursor(distances.get(lastId), lastId).encode());
+        }
+        return Result.ok(result);
+    }
+
+    /**
+     * 从所在geohash格子的Redis快照中读取游标之后的一页，快照不存在时以格子中心重新生成
+     */
+    private List<ZSetOperations.TypedTuple<String>> scrollGeoSnapshot(
+            Integer typeId, Double x, Double y, GeoCursor after, int size) {
+        String cell = ShopGeoResultCache.geohash(x, y, geoSnapshotPrecision);
+        String key = SHOP_GEO_SNAPSHOT_KEY + typeId + ":" + cell;
+        List<ZSetOperations.TypedTuple<String>> page = readGeoSnapshot(key, after, size);
+        if (!page.isEmpty() || Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            cacheMetrics.hit(SHOP_GEO_SNAPSHOT_KEY);
+            return page;
+        }
+        // 快照不存在或已过期：以格子中心按距离升序保存半径内的店铺，同一格子的并发请求写入的内容相同
+        cacheMetrics.miss(SHOP_GEO_SNAPSHOT_KEY);
+        double[] center = ShopGeoResultCache.center(cell);
+        long begin = System.nanoTime();
+        stringRedisTemplate.opsForGeo().searchAndStore(SHOP_GEO_KEY + typeId, key,
+                GeoReference.fromCoordinate(center[0], center[1]), new Distance(NEARBY_RADIUS_METERS),
+                RedisGeoCommands.GeoSearchStoreCommandArgs.newGeoSearchStoreArgs()
+                        .storeDistance().sortAscending().limit(geoSnapshotMaxResults));
+        stringRedisTemplate.expire(key, geoSnapshotTtlSeconds, TimeUnit.SECONDS);
+        cacheMetrics.recordRedis(SHOP_GEO_SNAPSHOT_KEY, System.nanoTime() - begin);
+        return readGeoSnapshot(key, after, size);
+    }
+
+    /**
+     * 读取快照中游标之后的一页：上一页最后一个店铺还在快照中时按排名读取，否则按游标中的距离重新定位
+     */
+    private List<ZSetOperations.TypedTuple<String>> readGeoSnapshot(String key, GeoCursor after, int size) {
+        ZSetOperations<String, String> zSet = stringRedisTemplate.opsForZSet();
+        if (after.distance < 0) {
+            return toList(zSet.rangeWithScores(key, 0, size - 1));
+        }
+        String afterMember = String.valueOf(after.id);
+        Long rank = zSet.rank(key, afterMember);
+        if (rank != null) {
+            return toList(zSet.rangeWithScores(key, rank + 1, rank + size));
+        }
+        // 跳过与上一页最后一个店铺距离相同、已经返回过的店铺：
+        // 距离相同的成员在ZSet中按字节序排列，这里用同样的顺序比较
+        List<ZSetOperations.TypedTuple<String>> page = new ArrayList<>(size);
+        int batch = size * 2;
+        for (long offset = 0; page.size() < size; offset += batch) {
+            List<ZSetOperations.TypedTuple<String>> tuples =
+                    toList(zSet.rangeByScoreWithScores(key, after.distance, Double.MAX_VALUE, offset, batch));
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                double distance = tuple.getScore();
+                if (distance > after.distance || tuple.getValue().compareTo(afterMember) > 0) {
+                    page.add(tuple);
+                    if (page.size() == size) {
+                        break;
+                    }
+                }
+            }
+            if (tuples.size() < batch) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    private static List<ZSetOperations.TypedTuple<String>> toList(Set<ZSetOperations.TypedTuple<String>> tuples) {
+        return tuples == null ? Collections.emptyList() : new ArrayList<>(tuples);
+    }
+
+    /**
+     * 附近店铺的分页游标：上一页最后一个店铺的距离（使用Redis时为到格子中心的距离）和id
+     */
+    static class GeoCursor {
+        private static final GeoCursor FIRST = new GeoCursor(-1, Long.MIN_VALUE);
+
+        final double distance;
+        final long id;
+
+        GeoCursor(double distance, long id) {
+            this.distance = distance;
+            this.id = id;
+        }
+
+        String encode() {
+            String raw = distance + "," + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static GeoCursor decode(String cursor) {
+            if (StrUtil.isBlank(cursor)) {
+                return FIRST;
+            }
+            String raw;
+            try {
+                raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("无效的游标", e);
+            }
+            String[] parts = raw.split(",", -1);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("无效的游标");
+            }
+            try {
+                return new GeoCursor(Double.parseDouble(parts[0]), Long.parseLong(parts[1]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("无效的游标", e);
+            }
+        }
+    }
 
-        return Result.ok(shops);
+    private Map<Long, Shop> queryShopMapByIds(Collection<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
     }
 
 }
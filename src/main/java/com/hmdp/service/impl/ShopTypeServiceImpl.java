@@ -3,19 +3,33 @@ package com.hmdp.service.impl;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.ETagUtils;
+import com.hmdp.utils.RedisCircuitBreaker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_CHANGED_CHANNEL;
 
 /**
  * <p>
@@ -25,33 +39,170 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Resource
+    private RedisCircuitBreaker redisBreaker;
+
+    /**
+     * 当前的店铺类型快照，每次变化整体替换
+     */
+    private volatile ShopTypeSnapshot snapshot;
+
+    /**
+     * 订阅店铺类型变更通知，其它节点刷新后本节点从Redis重新加载快照
+     */
+    @PostConstruct
+    private void subscribeShopTypeChanged() {
+        listenerContainer.addMessageListener((message, pattern) -> reloadSnapshot(),
+                new ChannelTopic(SHOP_TYPE_CHANGED_CHANNEL));
+    }
+
     /**
      * 查询所有商铺类型
      * @return 商铺类型列表
      */
     @Override
     public Result queryTypeList() {
+        return Result.ok(queryTypeSnapshot().getTypes());
+    }
+
+    /**
+     * 查询店铺类型快照，首次访问时加载，之后直接返回内存中的快照
+     */
+    @Override
+    public ShopTypeSnapshot queryTypeSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = buildSnapshot(loadTypeList(), null);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 定期从Redis重新加载快照，兜底丢失的变更通知；内容没变时保留原快照和版本号
+     * <p>
+     * Redis熔断期间跳过，继续使用内存中的快照
+     * </p>
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.shop-type.reload-millis:60000}")
+    public void reloadSnapshot() {
+        if (snapshot == null || !redisBreaker.allowRequest()) {
+            return;
+        }
+        try {
+            swap(loadTypeList());
+        } catch (Exception e) {
+            log.error("重新加载店铺类型快照失败", e);
+        }
+    }
+
+    /**
+     * 店铺类型修改后调用：从数据库重新加载，写入Redis，替换本节点快照并通知其它节点
+     */
+    @Override
+    public Result refreshTypeList() {
+        List<ShopType> shopTypeList = queryFromDb();
+        ShopTypeSnapshot current = swap(shopTypeList);
+        if (redisBreaker.allowRequest()) {
+            try {
+                stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(shopTypeList), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                stringRedisTemplate.convertAndSend(SHOP_TYPE_CHANGED_CHANNEL, String.valueOf(current.getVersion()));
+                redisBreaker.recordSuccess();
+            } catch (DataAccessException e) {
+                // 其它节点在Redis恢复后的定期加载中同步
+                redisBreaker.recordFailure(e);
+                log.warn("写入店铺类型缓存失败：{}", e.getMessage());
+            }
+        }
+        return Result.ok(current.getVersion());
+    }
+
+    private synchronized ShopTypeSnapshot swap(List<ShopType> shopTypeList) {
+        snapshot = buildSnapshot(shopTypeList, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 序列化响应体并计算ETag，内容和上一个快照相同时直接复用上一个快照
+     */
+    private ShopTypeSnapshot buildSnapshot(List<ShopType> shopTypeList, ShopTypeSnapshot previous) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(shopTypeList));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化店铺类型失败", e);
+        }
+        String etag = ETagUtils.of(body);
+        if (previous != null && previous.getEtag().equals(etag)) {
+            return previous;
+        }
+        long version = previous == null ? 1 : previous.getVersion() + 1;
+        return new ShopTypeSnapshot(Collections.unmodifiableList(shopTypeList), body, version, etag);
+    }
+
+    /**
+     * 从Redis加载店铺类型列表，未命中时查询数据库并写入Redis（空列表也写入）；Redis熔断或失败时直接查询数据库
+     */
+    private List<ShopType> loadTypeList() {
+        if (!redisBreaker.allowRequest()) {
+            return queryFromDb();
+        }
         //从redis中查询商铺缓存
-        String shopTypeJSON = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY);
-        //判断是否存在
+        long begin = System.nanoTime();
+        String shopTypeJSON;
+        try {
+            shopTypeJSON = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY);
+            redisBreaker.recordSuccess();
+        } catch (DataAccessException e) {
+            redisBreaker.recordFailure(e);
+            return queryFromDb();
+        }
+        cacheMetrics.recordRedis(CACHE_SHOP_TYPE_KEY, System.nanoTime() - begin);
+        //判断是否存在，空列表"[]"也算命中
         if (StrUtil.isNotBlank(shopTypeJSON)) {
             //存在，直接返回
-            return Result.ok(JSONUtil.toList(shopTypeJSON, ShopType.class));
+            cacheMetrics.hit(CACHE_SHOP_TYPE_KEY);
+            begin = System.nanoTime();
+            List<ShopType> shopTypeList = JSONUtil.toList(shopTypeJSON, ShopType.class);
+            cacheMetrics.recordSerialization(CACHE_SHOP_TYPE_KEY, System.nanoTime() - begin);
+            return shopTypeList;
         }
+        cacheMetrics.miss(CACHE_SHOP_TYPE_KEY);
         //不存在，从数据库查询
-        List<ShopType> shopTypeList = query().orderByAsc("sort").list();
-        if (shopTypeList == null) {//判断数据库是否为空
-            //不存在，返回错误
-            return Result.fail("店铺类型不存在");
+        List<ShopType> shopTypeList = queryFromDb();
+        //写入Redis
+        try {
+            stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(shopTypeList), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        } catch (DataAccessException e) {
+            redisBreaker.recordFailure(e);
         }
-        //存在，写入Redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(shopTypeList),CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        return Result.ok(shopTypeList);
+        return shopTypeList;
+    }
+
+    private List<ShopType> queryFromDb() {
+        long begin = System.nanoTime();
+        List<ShopType> shopTypeList = query().orderByAsc("sort").list();
+        cacheMetrics.recordDbFallback(CACHE_SHOP_TYPE_KEY, System.nanoTime() - begin);
+        return shopTypeList;
     }
 }
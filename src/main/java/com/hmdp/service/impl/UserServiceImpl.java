@@ -3,13 +3,17 @@ package com.hmdp.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.util.RandomUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
+import com.hmdp.mapper.BlogMapper;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheInvalidator;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -17,11 +21,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.connection.BitFieldSubCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +53,36 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    /**
+     * 修改用户后删除缓存的用户信息（昵称、头像），事务提交后删除并延迟双删，各节点同时清理本地缓存。
+     * 修改了昵称或头像时，同时删除该用户所有博客详情的响应缓存，其中带有作者的昵称和头像
+     */
+    @Override
+    @Transactional
+    public boolean updateById(User entity) {
+        boolean updated = super.updateById(entity);
+        if (!updated || entity.getId() == null) {
+            return updated;
+        }
+        List<String> keys = new ArrayList<>();
+        keys.add(CACHE_USER_KEY + entity.getId());
+        if (entity.getNickName() != null || entity.getIcon() != null) {
+            List<Object> blogIds = blogMapper.selectObjs(new QueryWrapper<Blog>()
+                    .select("id").eq("user_id", entity.getId()));
+            for (Object blogId : blogIds) {
+                keys.add(CACHE_BLOG_KEY + blogId);
+            }
+        }
+        cacheInvalidator.invalidate(keys.toArray(new String[0]));
+        return true;
+    }
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         //校验手机号
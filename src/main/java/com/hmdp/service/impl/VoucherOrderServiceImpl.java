@@ -3,32 +3,45 @@ package com.hmdp.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.HotKeyDetector;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -53,6 +66,18 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 每次从stream.orders读取的订单数量，大于1时一批订单在一个事务中写入，为1时逐条下单
+     */
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int orderBatchSize;
+
     private final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
@@ -74,14 +99,18 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     private class VoucherOrderHandler implements Runnable{
         String queueName = "stream.orders";
+        /**
+         * 无法处理的订单消息（字段缺失、违反约束等）转存到这里，人工处理
+         */
+        String deadLetterQueue = "stream.orders.dlq";
         @Override
         public void run() {
             while (true){
                 try {
-                    //获取队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders >
+                    //获取队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT n BLOCK 2000 STREAMS stream.orders >
                     List<MapRecord<String, Object, Object>> seckillOrder = stringredistemplate.opsForStream().read(
                             Consumer.from("g1","c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                            StreamReadOptions.empty().count(Math.max(orderBatchSize, 1)).block(Duration.ofSeconds(2)),
                             StreamOffset.create(queueName, ReadOffset.lastConsumed())
                     );
                     //判断消息是否获取成功
@@ -89,14 +118,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                         //如果获取失败，说明没有消息，继续下一次循环
                         continue;
                     }
-                    //解析数据
-                    MapRecord<String, Object, Object> record = seckillOrder.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    //获取成功，下单
-                    handleVoucherOrder(voucherOrder);
-                    //ACK确认  SACK stream.orders g1 id
-                    stringredistemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    //获取成功，下单并ACK确认
+                    handleRecords(seckillOrder);
                 } catch (Exception e) {
                     log.error("处理订单异常", e);
                     handlePendingList();
@@ -121,7 +144,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
          *
          * 该方法用于处理Redis Stream中未确认的消息列表，通过消费者组机制确保消息的可靠处理。
          * 方法会持续读取pending list中的消息，直到没有更多消息需要处理为止。
-         * 对于每条读取到的消息，会解析成订单对象并进行处理，处理成功后发送ACK确认。
+         * 读取到的消息与正常消费一样按批处理，处理成功后发送ACK确认。
          *
          * 注意：该方法包含无限循环，通过内部条件控制循环结束
          */
@@ -129,11 +152,11 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             // 持续处理pending list中的消息
             while (true){
                 try {
-                    // 获取队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders >
+                    // 获取pending list中的订单信息 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders 0
                     List<MapRecord<String, Object, Object>> seckillOrder = stringredistemplate.opsForStream().read(
                             Consumer.from("g1","c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                            StreamReadOptions.empty().count(Math.max(orderBatchSize, 1)),
+                            StreamOffset.create(queueName, ReadOffset.from("0"))
                     );
 
                     // 判断消息是否获取成功
@@ -142,16 +165,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                         break;
                     }
 
-                    // 解析数据并处理订单
-                    MapRecord<String, Object, Object> record = seckillOrder.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-
-                    // 获取成功，下单
-                    handleVoucherOrder(voucherOrder);
-
-                    // ACK确认  SACK stream.orders g1 id
-                    stringredistemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    // 获取成功，下单并ACK确认
+                    handleRecords(seckillOrder);
                 } catch (Exception e) {
                     log.error("处理pending-list异常", e);
                 }
@@ -165,6 +180,82 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             }
         }
 
+        /**
+         * 处理读取到的一批消息：批量模式下整批在一个事务中下单，再一次XACK所有消息；否则逐条下单、逐条确认
+         * <p>
+         * 整批失败时逐条重试，单条仍然失败的消息转入死信队列后确认，一条坏消息不会让整批一直留在pending list中。
+         * 数据库连接失败等可恢复的异常直接抛出，消息留在pending list中稍后重试。
+         * </p>
+         */
+        private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+            if (orderBatchSize > 1) {
+                try {
+                    List<VoucherOrder> orders = new ArrayList<>(records.size());
+                    RecordId[] ids = new RecordId[records.size()];
+                    for (int i = 0; i < records.size(); i++) {
+                        orders.add(toVoucherOrder(records.get(i)));
+                        ids[i] = records.get(i).getId();
+                    }
+                    createVoucherOrders(orders);
+                    //事务提交后一次确认整批消息  XACK stream.orders g1 id1 id2 ...
+                    stringredistemplate.opsForStream().acknowledge(queueName, "g1", ids);
+                    return;
+                } catch (RuntimeException e) {
+                    if (isRetryable(e)) {
+                        throw e;
+                    }
+                    log.error("批量下单失败，逐条重试，消息数量：{}", records.size(), e);
+                }
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                handleRecord(record);
+            }
+        }
+
+        /**
+         * 处理一条消息，无法处理时转入死信队列，然后确认
+         */
+        private void handleRecord(MapRecord<String, Object, Object> record) {
+            try {
+                VoucherOrder voucherOrder = toVoucherOrder(record);
+                if (orderBatchSize > 1) {
+                    createVoucherOrders(Collections.singletonList(voucherOrder));
+                } else {
+                    handleVoucherOrder(voucherOrder);
+                }
+            } catch (RuntimeException e) {
+                if (isRetryable(e)) {
+                    throw e;
+                }
+                log.error("订单消息无法处理，转入死信队列，消息：{}", record.getId(), e);
+                Map<String, String> values = new LinkedHashMap<>();
+                record.getValue().forEach((k, v) -> values.put(String.valueOf(k), String.valueOf(v)));
+                values.put("sourceId", record.getId().getValue());
+                values.put("error", String.valueOf(e));
+                stringredistemplate.opsForStream().add(StreamRecords.newRecord().in(deadLetterQueue).ofMap(values));
+            }
+            //ACK确认  XACK stream.orders g1 id
+            stringredistemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+        }
+
+        private VoucherOrder toVoucherOrder(MapRecord<String, Object, Object> record) {
+            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            if (voucherOrder.getId() == null || voucherOrder.getUserId() == null || voucherOrder.getVoucherId() == null) {
+                throw new IllegalArgumentException("订单消息字段缺失：" + record.getValue());
+            }
+            return voucherOrder;
+        }
+
+        /**
+         * 数据库暂时不可用等可以稍后重试的异常，不能转入死信队列
+         */
+        private boolean isRetryable(Throwable e) {
+            return e instanceof TransientDataAccessException
+                    || e instanceof RecoverableDataAccessException
+                    || e instanceof DataAccessResourceFailureException
+                    || e instanceof CannotCreateTransactionException;
+        }
+
         private void handleVoucherOrder(VoucherOrder voucherOrder) {
             //获取用户
             Long userId = voucherOrder.getUserId();
@@ -178,7 +269,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 return;
             }
             try {
-                 proxy.createVoucherOrder(voucherOrder);
+                // 消费线程中没有AOP上下文，重启后proxy可能还没有被设置，通过TransactionTemplate开启事务
+                transactionTemplate.executeWithoutResult(status -> createVoucherOrder(voucherOrder));
             }finally {
                 lock.unlock();
             }
@@ -195,6 +287,14 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) throws InterruptedException {
+        // 热点库存key固定在本地副本中，副本显示已经卖完就直接拒绝，不再执行脚本
+        // 库存只减不增，副本最多落后一个刷新周期，不会误拒
+        String stockKey = SECKILL_STOCK_KEY + voucherId;
+        hotKeyDetector.record(stockKey);
+        byte[] pinnedStock = hotKeyDetector.getPinned(stockKey);
+        if (pinnedStock != null && Long.parseLong(new String(pinnedStock, StandardCharsets.UTF_8)) <= 0) {
+            return Result.fail("库存不足");
+        }
         // 获取当前用户ID
         long userId = UserHolder.getUser().getId();
         // 生成订单ID
@@ -272,6 +372,74 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
 
 
+    /**
+     * 批量创建订单，整批在一个事务中：
+     * 批内同一用户同一优惠券只保留第一条，每个优惠券查询一次已经下单的用户、执行一次扣减库存，
+     * 最后一条多行INSERT写入所有订单
+     * <p>
+     * 只有订单消费线程调用，不需要按用户加锁；库存不足以扣减整批时按剩余库存保留前面的订单
+     * </p>
+     */
+    private void createVoucherOrders(List<VoucherOrder> orders) {
+        Map<Long, Map<Long, VoucherOrder>> byVoucher = groupByVoucher(orders);
+        transactionTemplate.executeWithoutResult(status -> {
+            List<VoucherOrder> accepted = new ArrayList<>(orders.size());
+            for (Map.Entry<Long, Map<Long, VoucherOrder>> entry : byVoucher.entrySet()) {
+                Long voucherId = entry.getKey();
+                Map<Long, VoucherOrder> byUser = entry.getValue();
+                //一人一单：一次查询这批用户中已经下过单的
+                List<VoucherOrder> existing = query().select("user_id")
+                        .eq("voucher_id", voucherId).in("user_id", byUser.keySet()).list();
+                for (VoucherOrder order : existing) {
+                    log.error("不能重复下单，用户：{}，优惠券：{}", order.getUserId(), voucherId);
+                    byUser.remove(order.getUserId());
+                }
+                if (byUser.isEmpty()) {
+                    continue;
+                }
+                List<VoucherOrder> pending = new ArrayList<>(byUser.values());
+                //扣减库存 set stock = stock - n where voucher_id = ? and stock >= n
+                int n = pending.size();
+                boolean success = seckillVoucherService.update()
+                        .setSql("stock = stock - " + n)
+                        .eq("voucher_id", voucherId).ge("stock", n)
+                        .update();
+                if (!success) {
+                    //库存不足以扣减整批，锁定库存行后按剩余库存扣减
+                    SeckillVoucher voucher = seckillVoucherService.query().select("stock")
+                            .eq("voucher_id", voucherId).last("FOR UPDATE").one();
+                    int stock = voucher == null || voucher.getStock() == null ? 0 : Math.max(voucher.getStock(), 0);
+                    log.error("库存不足，优惠券：{}，{}个订单未创建", voucherId, n - Math.min(stock, n));
+                    if (stock == 0) {
+                        continue;
+                    }
+                    n = Math.min(stock, n);
+                    pending = pending.subList(0, n);
+                    seckillVoucherService.update()
+                            .setSql("stock = stock - " + n)
+                            .eq("voucher_id", voucherId)
+                            .update();
+                }
+                accepted.addAll(pending);
+            }
+            if (!accepted.isEmpty()) {
+                baseMapper.insertBatch(accepted);
+            }
+        });
+    }
+
+    /**
+     * 按优惠券分组，批内同一用户同一优惠券只保留第一条；优惠券和用户都保持消息中首次出现的顺序
+     */
+    static Map<Long, Map<Long, VoucherOrder>> groupByVoucher(List<VoucherOrder> orders) {
+        Map<Long, Map<Long, VoucherOrder>> byVoucher = new LinkedHashMap<>();
+        for (VoucherOrder order : orders) {
+            byVoucher.computeIfAbsent(order.getVoucherId(), k -> new LinkedHashMap<>())
+                    .putIfAbsent(order.getUserId(), order);
+        }
+        return byVoucher;
+    }
+
     @Transactional
     public synchronized void createVoucherOrder(VoucherOrder voucherOrder) {
         //一人一单
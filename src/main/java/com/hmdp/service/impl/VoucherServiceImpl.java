@@ -7,6 +7,7 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheInvalidator;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -14,6 +15,7 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Resource;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_KEY;
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
@@ -33,6 +35,9 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -41,6 +46,13 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         return Result.ok(vouchers);
     }
 
+    @Override
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        // 店铺的优惠券列表变了，删除响应缓存
+        cacheInvalidator.invalidate(CACHE_VOUCHER_LIST_KEY + voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -55,6 +67,8 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucherService.save(seckillVoucher);
         // 更新优惠券的库存到Redis
         stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 事务提交后删除店铺优惠券列表的响应缓存
+        cacheInvalidator.invalidate(CACHE_VOUCHER_LIST_KEY + voucher.getShopId());
 
     }
 }
@@ -0,0 +1,40 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+
+/**
+ * 运维接口（/admin/**）只允许配置的管理员用户访问，未配置管理员时全部拒绝
+ */
+@Component
+public class AdminInterceptor implements HandlerInterceptor {
+
+    /**
+     * 管理员的用户id，逗号分隔
+     */
+    @Value("${hmdp.admin.user-ids:}")
+    private Long[] adminUserIds;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            //未登录
+            response.setStatus(401);
+            return false;
+        }
+        if (!Arrays.asList(adminUserIds).contains(user.getId())) {
+            //不是管理员
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,354 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 紧凑的二进制编解码器
+ * <p>
+ * 格式：魔数(1) + 标志位(1) + [逻辑过期时间(8)] + 类型标签(1) + 数据。
+ * 逻辑过期时间放在固定位置的头部，判断是否过期时不需要解析数据部分。
+ * Shop、ShopType、Blog、UserDTO按字段顺序写入，先写非空字段的位图，整数使用变长编码；
+ * 其它类型的数据部分仍然使用JSON。不带魔数的数据按JSON解析，兼容切换前写入的缓存。
+ * </p>
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xCB;
+    private static final int FLAG_EXPIRE = 1;
+    private static final int TAG_JSON = 0;
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    private final Map<Class<?>, Schema<?>> schemasByType = new HashMap<>();
+    private final Schema<?>[] schemasByTag = new Schema<?>[8];
+
+    public BinaryCacheCodec() {
+        // 字段顺序就是存储格式，新增字段只能追加在末尾
+        register(new Schema<>(1, Shop.class, Shop::new)
+                .field(Kind.LONG, Shop::getId, Shop::setId)
+                .field(Kind.STRING, Shop::getName, Shop::setName)
+                .field(Kind.LONG, Shop::getTypeId, Shop::setTypeId)
+                .field(Kind.STRING, Shop::getImages, Shop::setImages)
+                .field(Kind.STRING, Shop::getArea, Shop::setArea)
+                .field(Kind.STRING, Shop::getAddress, Shop::setAddress)
+                .field(Kind.DOUBLE, Shop::getX, Shop::setX)
+                .field(Kind.DOUBLE, Shop::getY, Shop::setY)
+                .field(Kind.LONG, Shop::getAvgPrice, Shop::setAvgPrice)
+                .field(Kind.INT, Shop::getSold, Shop::setSold)
+                .field(Kind.INT, Shop::getComments, Shop::setComments)
+                .field(Kind.INT, Shop::getScore, Shop::setScore)
+                .field(Kind.STRING, Shop::getOpenHours, Shop::setOpenHours)
+                .field(Kind.TIME, Shop::getCreateTime, Shop::setCreateTime)
+                .field(Kind.TIME, Shop::getUpdateTime, Shop::setUpdateTime)
+                .field(Kind.DOUBLE, Shop::getDistance, Shop::setDistance));
+        register(new Schema<>(2, ShopType.class, ShopType::new)
+                .field(Kind.LONG, ShopType::getId, ShopType::setId)
+                .field(Kind.STRING, ShopType::getName, ShopType::setName)
+                .field(Kind.STRING, ShopType::getIcon, ShopType::setIcon)
+                .field(Kind.INT, ShopType::getSort, ShopType::setSort)
+                .field(Kind.TIME, ShopType::getCreateTime, ShopType::setCreateTime)
+                .field(Kind.TIME, ShopType::getUpdateTime, ShopType::setUpdateTime));
+        register(new Schema<>(3, Blog.class, Blog::new)
+                .field(Kind.LONG, Blog::getId, Blog::setId)
+                .field(Kind.LONG, Blog::getShopId, Blog::setShopId)
+                .field(Kind.LONG, Blog::getUserId, Blog::setUserId)
+                .field(Kind.STRING, Blog::getIcon, Blog::setIcon)
+                .field(Kind.STRING, Blog::getName, Blog::setName)
+                .field(Kind.BOOLEAN, Blog::getIsLike, Blog::setIsLike)
+                .field(Kind.STRING, Blog::getTitle, Blog::setTitle)
+                .field(Kind.STRING, Blog::getImages, Blog::setImages)
+                .field(Kind.STRING, Blog::getContent, Blog::setContent)
+                .field(Kind.INT, Blog::getLiked, Blog::setLiked)
+                .field(Kind.INT, Blog::getComments, Blog::setComments)
+                .field(Kind.TIME, Blog::getCreateTime, Blog::setCreateTime)
+                .field(Kind.TIME, Blog::getUpdateTime, Blog::setUpdateTime));
+        register(new Schema<>(4, UserDTO.class, UserDTO::new)
+                .field(Kind.LONG, UserDTO::getId, UserDTO::setId)
+                .field(Kind.STRING, UserDTO::getNickName, UserDTO::setNickName)
+                .field(Kind.STRING, UserDTO::getIcon, UserDTO::setIcon));
+    }
+
+    private void register(Schema<?> schema) {
+        schemasByType.put(schema.type, schema);
+        schemasByTag[schema.tag] = schema;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Schema<?> schema = schemasByType.get(value.getClass());
+        if (schema == null) {
+            // 不支持的类型直接使用JSON
+            return jsonCodec.encode(value);
+        }
+        Writer out = new Writer();
+        out.writeByte(MAGIC);
+        out.writeByte(0);
+        out.writeByte(schema.tag);
+        schema.write(value, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return jsonCodec.decode(bytes, type);
+        }
+        Reader in = new Reader(bytes, 1);
+        int flags = in.readByte();
+        if ((flags & FLAG_EXPIRE) != 0) {
+            in.pos += 8;
+        }
+        return readPayload(in, type);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireMillis) {
+        Schema<?> schema = schemasByType.get(value.getClass());
+        Writer out = new Writer();
+        out.writeByte(MAGIC);
+        out.writeByte(FLAG_EXPIRE);
+        out.writeFixedLong(expireMillis);
+        if (schema == null) {
+            out.writeByte(TAG_JSON);
+            out.writeBytes(jsonCodec.encode(value));
+        } else {
+            out.writeByte(schema.tag);
+            schema.write(value, out);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public long readExpireMillis(byte[] bytes) {
+        if (bytes[0] != MAGIC) {
+            return jsonCodec.readExpireMillis(bytes);
+        }
+        return new Reader(bytes, 2).readFixedLong();
+    }
+
+    @Override
+    public <R> R decodeWithExpire(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return jsonCodec.decodeWithExpire(bytes, type);
+        }
+        return readPayload(new Reader(bytes, 10), type);
+    }
+
+    private <R> R readPayload(Reader in, Class<R> type) {
+        int tag = in.readByte();
+        if (tag == TAG_JSON) {
+            return jsonCodec.decode(Arrays.copyOfRange(in.bytes, in.pos, in.bytes.length), type);
+        }
+        Schema<?> schema = tag < schemasByTag.length ? schemasByTag[tag] : null;
+        if (schema == null) {
+            // 其它版本写入的、本节点不认识的类型
+            throw new IllegalArgumentException("未知的缓存类型标签：" + tag);
+        }
+        if (!type.isAssignableFrom(schema.type)) {
+            throw new IllegalArgumentException("缓存数据的类型是" + schema.type.getSimpleName()
+                    + "，不能解析为" + type.getSimpleName());
+        }
+        return type.cast(schema.read(in));
+    }
+
+    private enum Kind {
+        LONG, INT, DOUBLE, BOOLEAN, STRING, TIME
+    }
+
+    private static final class Field<T> {
+        private final Kind kind;
+        private final Function<T, Object> getter;
+        private final BiConsumer<T, Object> setter;
+
+        private Field(Kind kind, Function<T, Object> getter, BiConsumer<T, Object> setter) {
+            this.kind = kind;
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+    private static final class Schema<T> {
+        private final int tag;
+        private final Class<T> type;
+        private final Supplier<T> factory;
+        private final List<Field<T>> fields = new ArrayList<>();
+
+        private Schema(int tag, Class<T> type, Supplier<T> factory) {
+            this.tag = tag;
+            this.type = type;
+            this.factory = factory;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <V> Schema<T> field(Kind kind, Function<T, V> getter, BiConsumer<T, V> setter) {
+            fields.add(new Field<>(kind, (Function<T, Object>) getter, (BiConsumer<T, Object>) setter));
+            return this;
+        }
+
+        private void write(Object value, Writer out) {
+            T t = type.cast(value);
+            Object[] values = new Object[fields.size()];
+            long bitmap = 0;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = fields.get(i).getter.apply(t);
+                if (values[i] != null) {
+                    bitmap |= 1L << i;
+                }
+            }
+            out.writeVarLong(bitmap);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    out.writeValue(fields.get(i).kind, values[i]);
+                }
+            }
+        }
+
+        private T read(Reader in) {
+            T t = factory.get();
+            long bitmap = in.readVarLong();
+            for (int i = 0; i < fields.size(); i++) {
+                if ((bitmap & (1L << i)) != 0) {
+                    Field<T> field = fields.get(i);
+                    field.setter.accept(t, in.readValue(field.kind));
+                }
+            }
+            return t;
+        }
+    }
+
+    private static final class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+
+        private void writeByte(int b) {
+            out.write(b);
+        }
+
+        private void writeBytes(byte[] bytes) {
+            out.write(bytes, 0, bytes.length);
+        }
+
+        private void writeFixedLong(long v) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (v >>> shift));
+            }
+        }
+
+        private void writeVarLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+
+        private void writeValue(Kind kind, Object value) {
+            switch (kind) {
+                case LONG:
+                    // zigzag编码，负数也能用较少的字节
+                    long l = (Long) value;
+                    writeVarLong((l << 1) ^ (l >> 63));
+                    break;
+                case INT:
+                    int i = (Integer) value;
+                    writeVarLong(((long) i << 1) ^ (i >> 31));
+                    break;
+                case DOUBLE:
+                    writeFixedLong(Double.doubleToLongBits((Double) value));
+                    break;
+                case BOOLEAN:
+                    writeByte((Boolean) value ? 1 : 0);
+                    break;
+                case STRING:
+                    byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                    writeVarLong(bytes.length);
+                    writeBytes(bytes);
+                    break;
+                case TIME:
+                    writeVarLong(((LocalDateTime) value).toInstant(ZoneOffset.UTC).toEpochMilli());
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的字段类型：" + kind);
+            }
+        }
+
+        private byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private int pos;
+
+        private Reader(byte[] bytes, int pos) {
+            this.bytes = bytes;
+            this.pos = pos;
+        }
+
+        private int readByte() {
+            return bytes[pos++] & 0xFF;
+        }
+
+        private long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (bytes[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            while (true) {
+                int b = bytes[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+                shift += 7;
+            }
+        }
+
+        private Object readValue(Kind kind) {
+            switch (kind) {
+                case LONG:
+                    long l = readVarLong();
+                    return (l >>> 1) ^ -(l & 1);
+                case INT:
+                    long i = readVarLong();
+                    return (int) ((i >>> 1) ^ -(i & 1));
+                case DOUBLE:
+                    return Double.longBitsToDouble(readFixedLong());
+                case BOOLEAN:
+                    return readByte() != 0;
+                case STRING:
+                    int length = (int) readVarLong();
+                    String s = new String(bytes, pos, length, StandardCharsets.UTF_8);
+                    pos += length;
+                    return s;
+                case TIME:
+                    return Instant.ofEpochMilli(readVarLong()).atOffset(ZoneOffset.UTC).toLocalDateTime();
+                default:
+                    throw new IllegalArgumentException("未知的字段类型：" + kind);
+            }
+        }
+    }
+}
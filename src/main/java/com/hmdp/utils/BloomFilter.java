@@ -0,0 +1,120 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内布隆过滤器，用于判断id是否可能存在，解决缓存穿透
+ * <p>
+ * 判定不存在的一定不存在，判定存在的有一定误判率。
+ * 同时统计误判次数（判定存在但数据库查不到），用于观察实际误判率。
+ * </p>
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashes;
+    private final long expectedInsertions;
+    private final double fpp;
+
+    private final AtomicLong insertions = new AtomicLong();
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * @param expectedInsertions 预计插入的数据量
+     * @param fpp 期望的误判率，例如0.01
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        this.expectedInsertions = Math.max(expectedInsertions, 1);
+        this.fpp = fpp;
+        // m = -n*ln(p)/(ln2)^2，k = m/n*ln2
+        long m = (long) (-this.expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, (m + 63) / 64 * 64);
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / this.expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (numBits / 64));
+    }
+
+    public void put(Object value) {
+        long[] hash = MurmurHash.hash128(String.valueOf(value));
+        long combined = hash[0];
+        for (int i = 0; i < numHashes; i++) {
+            long index = (combined & Long.MAX_VALUE) % numBits;
+            setBit(index);
+            combined += hash[1];
+        }
+        insertions.incrementAndGet();
+    }
+
+    public boolean mightContain(Object value) {
+        checks.increment();
+        long[] hash = MurmurHash.hash128(String.valueOf(value));
+        long combined = hash[0];
+        for (int i = 0; i < numHashes; i++) {
+            long index = (combined & Long.MAX_VALUE) % numBits;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                rejections.increment();
+                return false;
+            }
+            combined += hash[1];
+        }
+        return true;
+    }
+
+    /**
+     * 记录一次误判：过滤器判定存在，但数据库中查不到
+     */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    /**
+     * 根据当前插入量计算的理论误判率：(1 - e^(-kn/m))^k
+     */
+    public double expectedFpp() {
+        return Math.pow(1 - Math.exp(-numHashes * (double) insertions.get() / numBits), numHashes);
+    }
+
+    /**
+     * 实际观测到的误判率：误判次数 / 所有不存在的id的查询次数
+     */
+    public double observedFpp() {
+        long fp = falsePositives.sum();
+        long negatives = rejections.sum() + fp;
+        return negatives == 0 ? 0 : (double) fp / negatives;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("numBits", numBits);
+        stats.put("numHashes", numHashes);
+        stats.put("expectedInsertions", expectedInsertions);
+        stats.put("insertions", insertions.get());
+        stats.put("targetFpp", fpp);
+        stats.put("expectedFpp", expectedFpp());
+        stats.put("checks", checks.sum());
+        stats.put("rejections", rejections.sum());
+        stats.put("falsePositives", falsePositives.sum());
+        stats.put("observedFpp", observedFpp());
+        return stats;
+    }
+
+    private void setBit(long index) {
+        int i = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(i);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(i, old, old | mask));
+    }
+}
@@ -1,20 +1,42 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.ClassUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
-import javax.annotation.Resource;
-import java.time.LocalDateTime;
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
-import static com.hmdp.service.impl.ShopServiceImpl.CACHE_REBUILD_EXECUTOR;
 import static com.hmdp.utils.RedisConstants.*;
 
 @Component
@@ -23,8 +45,130 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * 读写缓存数据使用的模板，value为编解码器输出的原始字节
+     */
+    private final RedisTemplate<String, byte[]> cacheRedisTemplate;
+
+    private final CacheCodec codec;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final CacheRebuildExecutor rebuildExecutor;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheMetrics metrics;
+
+    private final RedisCircuitBreaker redisBreaker;
+
+    /**
+     * 缓存穿透时写入的空值
+     */
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    /**
+     * 比较锁的标识后再删除，与{@link SimpleRedisLock}共用unlock.lua
+     */
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 是否启用进程内的一级缓存
+     */
+    @Value("${hmdp.cache.local.enabled:false}")
+    private boolean localCacheEnabled;
+
+    @Value("${hmdp.cache.local.maximum-size:10000}")
+    private int localCacheMaximumSize;
+
+    @Value("${hmdp.cache.local.ttl-seconds:60}")
+    private long localCacheTtlSeconds;
+
+    private LocalCache localCache;
+
+    @Value("${hmdp.cache.breaker.degraded-cache-size:10000}")
+    private int degradedCacheSize;
+
+    @Value("${hmdp.cache.breaker.degraded-ttl-seconds:30}")
+    private long degradedTtlSeconds;
+
+    /**
+     * Redis熔断期间使用的本地缓存，只在降级模式下写入
+     */
+    private LocalCache degradedCache;
+
+    /**
+     * 降级缓存中表示数据库不存在的占位
+     */
+    private static final Object DEGRADED_NULL = new Object();
+
+    /**
+     * 各个key前缀对应的布隆过滤器，用于拦截不存在的id
+     */
+    private final Map<String, BloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    /**
+     * 本节点正在进行的缓存重建，同一个key的并发请求共享同一个结果
+     */
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * TTL随机抖动的比例，实际TTL在[ttl, ttl * (1 + ttlJitter)]之间，避免大量key同时过期
+     */
+    @Value("${hmdp.cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    /**
+     * 是否开启概率性提前刷新（XFetch）
+     */
+    @Value("${hmdp.cache.early-refresh.enabled:false}")
+    private boolean earlyRefreshEnabled;
+
+    /**
+     * XFetch的beta参数，越大越倾向于提前刷新
+     */
+    @Value("${hmdp.cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta;
+
+    /**
+     * 各个key前缀最近的重建耗时（毫秒，指数加权平均），作为XFetch的delta
+     */
+    private final Map<String, Double> rebuildCosts = new ConcurrentHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> cacheRedisTemplate,
+                       CacheCodec codec, RedisMessageListenerContainer listenerContainer,
+                       CacheRebuildExecutor rebuildExecutor, HotKeyDetector hotKeyDetector,
+                       CacheMetrics metrics, RedisCircuitBreaker redisBreaker) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheRedisTemplate = cacheRedisTemplate;
+        this.codec = codec;
+        this.listenerContainer = listenerContainer;
+        this.rebuildExecutor = rebuildExecutor;
+        this.hotKeyDetector = hotKeyDetector;
+        this.metrics = metrics;
+        this.redisBreaker = redisBreaker;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (localCacheEnabled) {
+            localCache = new LocalCache(localCacheMaximumSize, TimeUnit.SECONDS.toMillis(localCacheTtlSeconds));
+        }
+        degradedCache = new LocalCache(degradedCacheSize, TimeUnit.SECONDS.toMillis(degradedTtlSeconds));
+        // 订阅缓存失效广播，其它节点删除缓存时同步清理本地缓存和热点key副本
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (localCache != null) {
+                localCache.invalidate(key);
+            }
+            degradedCache.invalidate(key);
+            hotKeyDetector.evict(key);
+        }, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
     }
 
     /**
@@ -36,16 +180,29 @@ public class CacheClient {
      * @param unit
      */
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        cacheRedisTemplate.opsForValue().set(key, codec.encode(value), jitter(time, unit), TimeUnit.MILLISECONDS);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        // 写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        // 设置逻辑过期，写入redis
+        long expireMillis = System.currentTimeMillis() + jitter(time, unit);
+        cacheRedisTemplate.opsForValue().set(key, codec.encodeWithExpire(value, expireMillis));
+    }
+
+    /**
+     * 通过管道批量写入逻辑过期数据，一次网络往返，用于缓存预热
+     * @param values key到数据的映射
+     */
+    public void setWithLogicalExpireBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> connection.stringCommands().set(
+                    key.getBytes(StandardCharsets.UTF_8), codec.encodeWithExpire(value, now + jitter(time, unit))));
+            return null;
+        });
     }
 
     /**
@@ -64,86 +221,871 @@ public class CacheClient {
     public <R, ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.从Redis中查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 0.先查本地缓存，命中则无需访问Redis和反序列化
+        if (localCache != null) {
+            Object local = localCache.get(key);
+            if (type.isInstance(local)) {
+                metrics.localHit(keyPrefix);
+                return type.cast(copyOf(local));
+            }
+        }
+        // 0.1.布隆过滤器判定不存在，直接返回，不访问Redis和数据库
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter != null && !bloomFilter.mightContain(id)) {
+            metrics.bloomReject(keyPrefix);
+            return null;
+        }
+        // 1.从Redis中查询商铺缓存，快过期时按概率在后台提前刷新；Redis熔断时走降级模式
+        if (!redisBreaker.allowRequest()) {
+            return queryDegraded(keyPrefix, key, id, type, dbFallback);
+        }
+        byte[] bytes;
+        try {
+            bytes = getAndRefreshEarly(keyPrefix, key,
+                    () -> refreshAsync(keyPrefix, key, id, dbFallback, time, unit));
+            redisBreaker.recordSuccess();
+        } catch (DataAccessException e) {
+            redisBreaker.recordFailure(e);
+            return queryDegraded(keyPrefix, key, id, type, dbFallback);
+        }
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        if (bytes != null && bytes.length > 0) {
+            // 3.存在，写入本地缓存后返回
+            metrics.hit(keyPrefix);
+            R r = decode(keyPrefix, bytes, type);
+            putLocal(key, r);
+            return r;
         }
         //判断命中的是否是空值
-        if (json != null) {              //如果是空值
+        if (bytes != null) {              //如果是空值
+            metrics.nullHit(keyPrefix);
             return null;
         }
+        metrics.miss(keyPrefix);
 
         // 3.不存在，查询数据库
-        R r = dbFallback.apply(id);
+        R r = loadFromDb(keyPrefix, id, dbFallback);
         // 5.数据库不存在，返回错误
         if (r == null) {
+            //布隆过滤器误判，记录下来
+            if (bloomFilter != null) {
+                bloomFilter.recordFalsePositive();
+            }
             //将空值写入Redis
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            writeQuietly(() -> cacheRedisTemplate.opsForValue().set(
+                    key, NULL_VALUE, jitter(CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS));
             return null;
         }
         // 6.存在，写入Redis
-        this.set(key, r, time, unit);
+        writeQuietly(() -> write(keyPrefix, key, r, time, unit));
+        putLocal(key, r);
 
         return r;
     }
 
+    /**
+     * 批量查询，解决缓存穿透
+     * <p>
+     * 一次MGET查询所有key，未命中的id合并成一次数据库查询（IN），再用管道批量写回Redis，
+     * 数据库中不存在的id写入空值。返回结果与ids的顺序一致，不存在的数据直接跳过。
+     * 批量查询不经过本地缓存，返回的对象都是新反序列化的，调用方可以放心修改。
+     * </p>
+     *
+     * @param keyPrefix key前缀
+     * @param ids id集合
+     * @param type 数据类型
+     * @param dbFallback 根据id集合查询数据库，返回id到数据的映射
+     * @param time 缓存时间
+     * @param unit 时间单位
+     * @return 按ids顺序排列的数据
+     */
+    public <R, ID> List<R> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1.布隆过滤器过滤掉一定不存在的id
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        List<ID> candidates = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            if (bloomFilter == null || bloomFilter.mightContain(id)) {
+                candidates.add(id);
+            } else {
+                metrics.bloomReject(keyPrefix);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 2.一次MGET查询Redis；Redis熔断或失败时走降级模式
+        if (!redisBreaker.allowRequest()) {
+            return inOrder(ids, queryBatchDegraded(keyPrefix, candidates, dbFallback));
+        }
+        List<String> keys = new ArrayList<>(candidates.size());
+        for (ID id : candidates) {
+            keys.add(keyPrefix + id);
+        }
+        long begin = System.nanoTime();
+        List<byte[]> values;
+        try {
+            values = cacheRedisTemplate.opsForValue().multiGet(keys);
+            redisBreaker.recordSuccess();
+        } catch (DataAccessException e) {
+            redisBreaker.recordFailure(e);
+            return inOrder(ids, queryBatchDegraded(keyPrefix, candidates, dbFallback));
+        }
+        metrics.recordRedis(keyPrefix, System.nanoTime() - begin);
+        Map<ID, R> found = new HashMap<>(candidates.size());
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            byte[] bytes = values == null ? null : values.get(i);
+            if (bytes != null && bytes.length > 0) {
+                metrics.hit(keyPrefix);
+                found.put(candidates.get(i), decode(keyPrefix, bytes, type));
+            } else if (bytes == null) {
+                metrics.miss(keyPrefix);
+                misses.add(candidates.get(i));
+            } else {
+                // 空值说明数据库中不存在，直接跳过
+                metrics.nullHit(keyPrefix);
+            }
+        }
+        // 3.未命中的id一次性查询数据库，并批量写回Redis
+        if (!misses.isEmpty()) {
+            Map<ID, R> loaded = loadFromDb(keyPrefix, misses, dbFallback);
+            Map<String, byte[]> loadedValues = new LinkedHashMap<>(misses.size());
+            Map<String, byte[]> nullValues = new LinkedHashMap<>();
+            for (ID id : misses) {
+                R r = loaded == null ? null : loaded.get(id);
+                if (r == null) {
+                    if (bloomFilter != null) {
+                        bloomFilter.recordFalsePositive();
+                    }
+                    nullValues.put(keyPrefix + id, NULL_VALUE);
+                    continue;
+                }
+                found.put(id, r);
+                loadedValues.put(keyPrefix + id, encode(keyPrefix, r));
+            }
+            writeQuietly(() -> {
+                setRawBatch(loadedValues, time, unit);
+                setRawBatch(nullValues, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            });
+        }
+        // 4.按输入顺序返回
+        return inOrder(ids, found);
+    }
+
+    private static <R, ID> List<R> inOrder(Collection<ID> ids, Map<ID, R> found) {
+        List<R> result = new ArrayList<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Redis熔断时的批量降级查询：先查降级缓存，未命中的id在限额内合并为一次数据库查询，超过限额时抛出{@link ServiceBusyException}
+     */
+    @SuppressWarnings("unchecked")
+    private <R, ID> Map<ID, R> queryBatchDegraded(String keyPrefix, List<ID> ids,
+                                                 Function<Collection<ID>, Map<ID, R>> dbFallback) {
+        Map<ID, R> found = new HashMap<>(ids.size());
+        List<ID> misses = new ArrayList<>();
+        for (ID id : ids) {
+            Object cached = degradedCache.get(keyPrefix + id);
+            if (cached == DEGRADED_NULL) {
+                metrics.nullHit(keyPrefix);
+            } else if (cached != null) {
+                metrics.localHit(keyPrefix);
+                found.put(id, (R) copyOf(cached));
+            } else {
+                metrics.miss(keyPrefix);
+                misses.add(id);
+            }
+        }
+        if (misses.isEmpty()) {
+            return found;
+        }
+        if (!redisBreaker.tryAcquireDbPermit()) {
+            // 不返回不完整的结果，避免把缺少的数据当作不存在
+            log.warn("缓存服务降级中，数据库查询超过限额：{}{}", keyPrefix, misses);
+            throw new ServiceBusyException("缓存服务降级中，数据库查询超过限额");
+        }
+        Map<ID, R> loaded = loadFromDb(keyPrefix, misses, dbFallback);
+        for (ID id : misses) {
+            R r = loaded == null ? null : loaded.get(id);
+            degradedCache.put(keyPrefix + id, r == null ? DEGRADED_NULL : copyOf(r));
+            if (r != null) {
+                found.put(id, r);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 通过管道批量写入缓存数据（SET PX），一次网络往返，用于批量刷新
+     * @param values key到数据的映射
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        Map<String, byte[]> encoded = new LinkedHashMap<>(values.size());
+        values.forEach((key, value) -> encoded.put(key, codec.encode(value)));
+        setRawBatch(encoded, time, unit);
+    }
+
+    /**
+     * 通过管道批量写入，一次网络往返，每个key的TTL单独抖动
+     */
+    private void setRawBatch(Map<String, byte[]> values, long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> connection.stringCommands().set(
+                    key.getBytes(StandardCharsets.UTF_8), value,
+                    Expiration.milliseconds(jitter(time, unit)), RedisStringCommands.SetOption.upsert()));
+            return null;
+        });
+    }
+
+    /**
+     * 互斥锁解决缓存击穿
+     * <p>
+     * 本节点内同一个key的并发未命中合并为一次重建（single-flight）：只有领头的线程去抢Redis互斥锁并查询数据库，
+     * 其余线程等待同一个future，数据写入后立即被唤醒，不再sleep轮询。
+     * 没抢到Redis锁说明其它节点正在重建，此时按退避间隔检查缓存，直到数据写入或锁超时。
+     * </p>
+     */
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 0.先查本地缓存
+        if (localCache != null) {
+            Object local = localCache.get(key);
+            if (type.isInstance(local)) {
+                metrics.localHit(keyPrefix);
+                return type.cast(copyOf(local));
+            }
+        }
+        // 0.1.布隆过滤器判定不存在，直接返回
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter != null && !bloomFilter.mightContain(id)) {
+            metrics.bloomReject(keyPrefix);
+            return null;
+        }
+        // 1.从Redis中查询缓存，快过期时按概率在后台提前刷新；Redis熔断时走降级模式
+        if (!redisBreaker.allowRequest()) {
+            return queryDegraded(keyPrefix, key, id, type, dbFallback);
+        }
+        byte[] bytes;
+        try {
+            bytes = getAndRefreshEarly(keyPrefix, key,
+                    () -> refreshAsync(keyPrefix, key, id, dbFallback, time, unit));
+            redisBreaker.recordSuccess();
+        } catch (DataAccessException e) {
+            redisBreaker.recordFailure(e);
+            return queryDegraded(keyPrefix, key, id, type, dbFallback);
+        }
+        if (bytes != null && bytes.length > 0) {
+            metrics.hit(keyPrefix);
+            R r = decode(keyPrefix, bytes, type);
+            putLocal(key, r);
+            return r;
+        }
+        if (bytes != null) {
+            metrics.nullHit(keyPrefix);
+            return null;
+        }
+        metrics.miss(keyPrefix);
+        // 2.未命中，合并本节点的并发重建
+        return singleFlight(key, () -> rebuildWithMutex(keyPrefix, key, id, type, dbFallback, time, unit, bloomFilter));
+    }
+
+    private <R, ID> R rebuildWithMutex(String keyPrefix, String key, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                       Long time, TimeUnit unit, BloomFilter bloomFilter) {
+        String lockKey = LOCK_KEY_PREFIX + key;
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LOCK_SHOP_TTL);
+        long backoff = 10;
+        boolean contended = false;
+        String owner;
+        while ((owner = tryLock(lockKey)) == null) {
+            if (!contended) {
+                contended = true;
+                metrics.lockContention(keyPrefix);
+            }
+            // 其它节点正在重建，等待后检查缓存是否已经写入
+            if (System.currentTimeMillis() > deadline) {
+                // 锁持有者迟迟没有写入，直接查数据库兜底
+                return dbFallback.apply(id);
+            }
+            sleep(backoff);
+            backoff = Math.min(backoff * 2, 100);
+            if (!redisBreaker.allowRequest()) {
+                return queryDegraded(keyPrefix, key, id, type, dbFallback);
+            }
+            byte[] bytes;
+            try {
+                bytes = cacheRedisTemplate.opsForValue().get(key);
+                redisBreaker.recordSuccess();
+            } catch (DataAccessException e) {
+                redisBreaker.recordFailure(e);
+                return queryDegraded(keyPrefix, key, id, type, dbFallback);
+            }
+            if (bytes != null && bytes.length > 0) {
+                R r = decode(keyPrefix, bytes, type);
+                putLocal(key, r);
+                return r;
+            }
+            if (bytes != null) {
+                return null;
+            }
+        }
+        long begin = System.nanoTime();
+        try {
+            // 获取锁成功，再次检查缓存，可能已经被其它节点重建；读取失败时直接查询数据库
+            byte[] bytes = null;
+            try {
+                bytes = cacheRedisTemplate.opsForValue().get(key);
+            } catch (DataAccessException e) {
+                redisBreaker.recordFailure(e);
+            }
+            if (bytes != null && bytes.length > 0) {
+                R r = decode(keyPrefix, bytes, type);
+                putLocal(key, r);
+                return r;
+            }
+            // 查询数据库
+            R r = loadFromDb(keyPrefix, id, dbFallback);
+            if (r == null) {
+                if (bloomFilter != null) {
+                    bloomFilter.recordFalsePositive();
+                }
+                writeQuietly(() -> cacheRedisTemplate.opsForValue().set(
+                        key, NULL_VALUE, jitter(CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS));
+                return null;
+            }
+            writeQuietly(() -> write(keyPrefix, key, r, time, unit));
+            putLocal(key, r);
+            return r;
+        } finally {
+            metrics.recordRebuild(keyPrefix, System.nanoTime() - begin);
+            unLock(lockKey, owner);
+        }
+    }
+
+    /**
+     * 合并同一个key的并发加载：第一个线程执行loader，其余线程等待它的结果
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inFlight.putIfAbsent(key, future);
+        if (leader != null) {
+            // 跟随者，等待领头线程的结果
+            try {
+                return (R) leader.get(LOCK_SHOP_TTL, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待缓存重建被中断", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("等待缓存重建超时：" + key, e);
+            }
+        }
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * 逻辑过期解决缓存击穿
+     * <p>
+     * 数据不会真正过期，逻辑过期后返回旧数据，同时在后台重建。
+     * key不存在时（未预热或Redis被清空）在本节点合并为一次加载并写入，之后都走逻辑过期的流程。
+     * </p>
+     */
     public <R,ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.从Redis中查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
+        // 0.布隆过滤器判定不存在，直接返回
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter != null && !bloomFilter.mightContain(id)) {
+            metrics.bloomReject(keyPrefix);
+            return null;
+        }
+        // 1.从Redis中查询商铺缓存，热点key直接读本地副本；Redis熔断时走降级模式
+        if (!redisBreaker.allowRequest()) {
+            return queryDegraded(keyPrefix, key, id, type, dbFallback);
+        }
+        byte[] bytes;
+        try {
+            bytes = getPinnedOrRedis(keyPrefix, key);
+            redisBreaker.recordSuccess();
+        } catch (DataAccessException e) {
+            redisBreaker.recordFailure(e);
+            return queryDegraded(keyPrefix, key, id, type, dbFallback);
+        }
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.不存在，直接返回
+        if (bytes == null) {
+            // 3.不存在，合并本节点的并发请求，加载一次并写入
+            metrics.miss(keyPrefix);
+            return singleFlight(key, () -> loadWithLogicalExpire(keyPrefix, key, id, type, dbFallback, time, unit, bloomFilter));
+        }
+        if (bytes.length == 0) {
+            // 命中空值，数据库中不存在
+            metrics.nullHit(keyPrefix);
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 5.判断Redis中的数据是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
+        // 4.命中，反序列化为对象，并读取逻辑过期时间
+        metrics.hit(keyPrefix);
+        R r = decodeWithExpire(keyPrefix, bytes, type);
+        long expireMillis = codec.readExpireMillis(bytes);
+        // 5.判断Redis中的数据是否过期，未过期时按XFetch概率决定是否提前重建
+        long remaining = expireMillis - System.currentTimeMillis();
+        if (remaining > 0 && !shouldRefreshEarly(keyPrefix, remaining)) {
             // 5.2.未过期，直接返回数据
             return r;
         }
 
-        // 5.1.过期，需要缓存重建
+        // 5.1.过期（或提前刷新），需要缓存重建
 
         // 6.缓存重建
         // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
+        String lockKey = LOCK_KEY_PREFIX + key;
+        String owner = tryLock(lockKey);
         // 6.2.判断是否获取成功
-        if (isLock) {
-            // 6.3.成功，执行缓存重建
-            if (expireTime.isAfter(LocalDateTime.now())) {//再次检测redis缓存是否过期
-                // 5.2.未过期，直接返回数据
-                return r;
+        if (owner != null) {
+            // 锁交给重建任务之后由任务负责释放，否则在这里释放
+            boolean submitted = false;
+            try {
+                // 6.3.成功，再次读取redis，如果逻辑过期时间变了说明已经被其它线程重建
+                byte[] latest = cacheRedisTemplate.opsForValue().get(key);
+                redisBreaker.recordSuccess();
+                if (latest == null || latest.length == 0 || codec.readExpireMillis(latest) != expireMillis) {
+                    return r;
+                }
+                // 提交到有界的重建线程池，队列满或超时都会释放锁，本次继续返回旧数据
+                rebuildExecutor.submit(key, () -> {
+                    long begin = System.nanoTime();
+                    // 重建缓存
+                    R r1 = loadFromDb(keyPrefix, id, dbFallback);
+                    // 6.3.写入Redis，数据已被删除时写入空值
+                    if (r1 == null) {
+                        writeQuietly(() -> cacheRedisTemplate.opsForValue().set(
+                                key, NULL_VALUE, jitter(CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS));
+                    } else {
+                        writeQuietly(() -> writeWithLogicalExpire(keyPrefix, key, r1, time, unit));
+                    }
+                    metrics.recordRebuild(keyPrefix, System.nanoTime() - begin);
+                }, () -> unLock(lockKey, owner));
+                submitted = true;
+            } catch (DataAccessException e) {
+                // 已经读到了数据，逻辑过期的语义是返回旧数据，不需要再走降级查询
+                redisBreaker.recordFailure(e);
+            } finally {
+                if (!submitted) {
+                    unLock(lockKey, owner);
+                }
             }
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                // 重建缓存
-                R r1 = dbFallback.apply(id);
-                // 6.3.写入Redis
-                this.setWithLogicalExpire(key, r1, 20L, TimeUnit.SECONDS);
-                // 释放锁
-                unLock(lockKey);
+        } else {
+            metrics.lockContention(keyPrefix);
+        }
+        // 6.4.返回过期商铺信息
+        return r;
+    }
 
-            });
+    /**
+     * 逻辑过期数据的冷加载：获取互斥锁后再次检查缓存，仍不存在则查询数据库并写入
+     */
+    private <R, ID> R loadWithLogicalExpire(String keyPrefix, String key, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                            Long time, TimeUnit unit, BloomFilter bloomFilter) {
+        String lockKey = LOCK_KEY_PREFIX + key;
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LOCK_SHOP_TTL);
+        long backoff = 10;
+        boolean contended = false;
+        String owner;
+        while ((owner = tryLock(lockKey)) == null) {
+            if (!contended) {
+                contended = true;
+                metrics.lockContention(keyPrefix);
+            }
+            // 其它节点正在加载，等待后检查缓存是否已经写入
+            if (System.currentTimeMillis() > deadline) {
+                return loadFromDb(keyPrefix, id, dbFallback);
+            }
+            sleep(backoff);
+            backoff = Math.min(backoff * 2, 100);
+            if (!redisBreaker.allowRequest()) {
+                return queryDegraded(keyPrefix, key, id, type, dbFallback);
+            }
+            byte[] bytes;
+            try {
+                bytes = cacheRedisTemplate.opsForValue().get(key);
+                redisBreaker.recordSuccess();
+            } catch (DataAccessException e) {
+                redisBreaker.recordFailure(e);
+                return queryDegraded(keyPrefix, key, id, type, dbFallback);
+            }
+            if (bytes != null) {
+                return bytes.length == 0 ? null : decodeWithExpire(keyPrefix, bytes, type);
+            }
+        }
+        long begin = System.nanoTime();
+        try {
+            // 获取锁成功，再次检查缓存，可能已经被其它节点加载；读取失败时直接查询数据库
+            byte[] bytes = null;
+            try {
+                bytes = cacheRedisTemplate.opsForValue().get(key);
+            } catch (DataAccessException e) {
+                redisBreaker.recordFailure(e);
+            }
+            if (bytes != null) {
+                return bytes.length == 0 ? null : decodeWithExpire(keyPrefix, bytes, type);
+            }
+            R r = loadFromDb(keyPrefix, id, dbFallback);
+            if (r == null) {
+                if (bloomFilter != null) {
+                    bloomFilter.recordFalsePositive();
+                }
+                writeQuietly(() -> cacheRedisTemplate.opsForValue().set(
+                        key, NULL_VALUE, jitter(CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS));
+                return null;
+            }
+            writeQuietly(() -> writeWithLogicalExpire(keyPrefix, key, r, time, unit));
+            return r;
+        } finally {
+            metrics.recordRebuild(keyPrefix, System.nanoTime() - begin);
+            unLock(lockKey, owner);
+        }
+    }
 
+    /**
+     * 注册（或替换）某个key前缀的布隆过滤器
+     * @param keyPrefix key前缀
+     * @param bloomFilter 已经装载好全部id的布隆过滤器
+     */
+    public void registerBloomFilter(String keyPrefix, BloomFilter bloomFilter) {
+        if (bloomFilters.put(keyPrefix, bloomFilter) == null) {
+            // 第一次注册时添加指标，之后替换过滤器时指标自动读取新的过滤器
+            String labels = CacheMetrics.label("prefix", keyPrefix);
+            metrics.registerGauge("hmdp_cache_bloom_expected_fpp", "布隆过滤器的理论误判率", labels,
+                    () -> bloomFilters.get(keyPrefix).expectedFpp());
+            metrics.registerGauge("hmdp_cache_bloom_observed_fpp", "布隆过滤器实际观测到的误判率", labels,
+                    () -> bloomFilters.get(keyPrefix).observedFpp());
         }
-        // 6.4.返回过期商铺信息
+    }
+
+    public BloomFilter getBloomFilter(String keyPrefix) {
+        return bloomFilters.get(keyPrefix);
+    }
+
+    /**
+     * 数据是否可以不访问Redis直接从本节点取得：在一级缓存中，或者是固定在本地副本中的热点key
+     */
+    public boolean isServedLocally(String key) {
+        return (localCache != null && localCache.get(key) != null) || hotKeyDetector.getPinned(key) != null;
+    }
+
+    /**
+     * 删除缓存（连同对应的响应缓存），并广播失效消息，让所有节点清理本地缓存
+     * @param key 缓存key
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(Arrays.asList(key, RESPONSE_CACHE_KEY_PREFIX + key));
+        if (localCache != null) {
+            localCache.invalidate(key);
+        }
+        hotKeyDetector.evict(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量删除缓存（连同对应的响应缓存）：一次DEL删除所有key，失效广播通过管道一次发出
+     * @param keys 缓存key
+     */
+    public void deleteBatch(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<String> redisKeys = new ArrayList<>(keys.size() * 2);
+        for (String key : keys) {
+            redisKeys.add(key);
+            redisKeys.add(RESPONSE_CACHE_KEY_PREFIX + key);
+        }
+        stringRedisTemplate.delete(redisKeys);
+        for (String key : keys) {
+            if (localCache != null) {
+                localCache.invalidate(key);
+            }
+            hotKeyDetector.evict(key);
+        }
+        byte[] channel = CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.publish(channel, key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 读取缓存。开启提前刷新时，用管道同时读取值和剩余TTL（仍然是一次网络往返），
+     * 按XFetch算法判断是否需要提前刷新：-delta * beta * ln(rand) >= 剩余TTL。
+     * 越接近过期、重建越慢，提前刷新的概率越大，重建请求被打散，不会在过期瞬间集中到达数据库。
+     */
+    private byte[] getAndRefreshEarly(String keyPrefix, String key, Runnable refresh) {
+        if (!earlyRefreshEnabled) {
+            return getPinnedOrRedis(keyPrefix, key);
+        }
+        hotKeyDetector.record(key);
+        byte[] pinned = hotKeyDetector.getPinned(key);
+        if (pinned != null) {
+            // 热点key的副本每个周期都会刷新，不需要再提前刷新
+            return pinned;
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        long begin = System.nanoTime();
+        List<Object> results = cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get(rawKey);
+            connection.keyCommands().pTtl(rawKey);
+            return null;
+        });
+        metrics.recordRedis(keyPrefix, System.nanoTime() - begin);
+        byte[] bytes = (byte[]) results.get(0);
+        Long remaining = (Long) results.get(1);
+        if (bytes != null && bytes.length > 0 && remaining != null && remaining > 0
+                && shouldRefreshEarly(keyPrefix, remaining)) {
+            refresh.run();
+        }
+        return bytes;
+    }
+
+    /**
+     * 记录一次访问用于热点探测，热点key直接返回本地副本，否则读Redis
+     */
+    private byte[] getPinnedOrRedis(String keyPrefix, String key) {
+        hotKeyDetector.record(key);
+        byte[] pinned = hotKeyDetector.getPinned(key);
+        if (pinned != null) {
+            return pinned;
+        }
+        long begin = System.nanoTime();
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+        metrics.recordRedis(keyPrefix, System.nanoTime() - begin);
+        return bytes;
+    }
+
+    private boolean shouldRefreshEarly(String keyPrefix, long remainingMillis) {
+        if (!earlyRefreshEnabled) {
+            return false;
+        }
+        Double delta = rebuildCosts.get(keyPrefix);
+        if (delta == null) {
+            return false;
+        }
+        // 1 - nextDouble()的取值范围是(0, 1]，避免ln(0)
+        double rand = 1 - ThreadLocalRandom.current().nextDouble();
+        return -delta * earlyRefreshBeta * Math.log(rand) >= remainingMillis;
+    }
+
+    /**
+     * 在后台刷新缓存，通过互斥锁保证同一时间只有一个线程在刷新
+     */
+    private <R, ID> void refreshAsync(String keyPrefix, String key, ID id, Function<ID, R> dbFallback,
+                                      Long time, TimeUnit unit) {
+        String lockKey = LOCK_KEY_PREFIX + key;
+        String owner = tryLock(lockKey);
+        if (owner == null) {
+            metrics.lockContention(keyPrefix);
+            return;
+        }
+        rebuildExecutor.submit(key, () -> {
+            long begin = System.nanoTime();
+            R r = loadFromDb(keyPrefix, id, dbFallback);
+            if (r != null) {
+                writeQuietly(() -> write(keyPrefix, key, r, time, unit));
+                putLocal(key, r);
+            }
+            metrics.recordRebuild(keyPrefix, System.nanoTime() - begin);
+        }, () -> unLock(lockKey, owner));
+    }
+
+    /**
+     * 查询数据库，并记录重建耗时
+     */
+    private <T, R> R loadFromDb(String keyPrefix, T arg, Function<T, R> dbFallback) {
+        long begin = System.nanoTime();
+        try {
+            return dbFallback.apply(arg);
+        } finally {
+            long nanos = System.nanoTime() - begin;
+            metrics.recordDbFallback(keyPrefix, nanos);
+            rebuildCosts.merge(keyPrefix, nanos / 1_000_000.0, (old, sample) -> old * 0.8 + sample * 0.2);
+        }
+    }
+
+    /**
+     * 序列化后写入Redis，并记录序列化耗时
+     */
+    private void write(String keyPrefix, String key, Object value, Long time, TimeUnit unit) {
+        cacheRedisTemplate.opsForValue().set(key, encode(keyPrefix, value), jitter(time, unit), TimeUnit.MILLISECONDS);
+    }
+
+    private void writeWithLogicalExpire(String keyPrefix, String key, Object value, Long time, TimeUnit unit) {
+        long expireMillis = System.currentTimeMillis() + jitter(time, unit);
+        long begin = System.nanoTime();
+        byte[] bytes = codec.encodeWithExpire(value, expireMillis);
+        metrics.recordSerialization(keyPrefix, System.nanoTime() - begin);
+        cacheRedisTemplate.opsForValue().set(key, bytes);
+    }
+
+    private byte[] encode(String keyPrefix, Object value) {
+        long begin = System.nanoTime();
+        try {
+            return codec.encode(value);
+        } finally {
+            metrics.recordSerialization(keyPrefix, System.nanoTime() - begin);
+        }
+    }
+
+    private <R> R decode(String keyPrefix, byte[] bytes, Class<R> type) {
+        long begin = System.nanoTime();
+        try {
+            return codec.decode(bytes, type);
+        } finally {
+            metrics.recordSerialization(keyPrefix, System.nanoTime() - begin);
+        }
+    }
+
+    private <R> R decodeWithExpire(String keyPrefix, byte[] bytes, Class<R> type) {
+        long begin = System.nanoTime();
+        try {
+            return codec.decodeWithExpire(bytes, type);
+        } finally {
+            metrics.recordSerialization(keyPrefix, System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * Redis熔断时的降级查询：先查降级缓存，未命中时在限额内查询数据库
+     *
+     * @throws ServiceBusyException 超过数据库查询限额，与数据不存在区分开
+     */
+    private <R, ID> R queryDegraded(String keyPrefix, String key, ID id, Class<R> type, Function<ID, R> dbFallback) {
+        Object cached = degradedCache.get(key);
+        if (cached == DEGRADED_NULL) {
+            metrics.nullHit(keyPrefix);
+            return null;
+        }
+        if (type.isInstance(cached)) {
+            metrics.localHit(keyPrefix);
+            return type.cast(copyOf(cached));
+        }
+        metrics.miss(keyPrefix);
+        if (!redisBreaker.tryAcquireDbPermit()) {
+            // 超过限额不写入降级缓存，下一秒的请求可以重新查询
+            log.warn("缓存服务降级中，数据库查询超过限额：{}", key);
+            throw new ServiceBusyException("缓存服务降级中，数据库查询超过限额");
+        }
+        R r = loadFromDb(keyPrefix, id, dbFallback);
+        degradedCache.put(key, r == null ? DEGRADED_NULL : copyOf(r));
         return r;
     }
 
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    /**
+     * 写入Redis，失败时只记录到熔断器，不影响已经从数据库查到的结果
+     */
+    private void writeQuietly(Runnable write) {
+        try {
+            write.run();
+            redisBreaker.recordSuccess();
+        } catch (DataAccessException e) {
+            redisBreaker.recordFailure(e);
+            log.warn("写入缓存失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 给TTL加上随机抖动
+     * @return 抖动后的TTL，毫秒
+     */
+    private long jitter(long time, TimeUnit unit) {
+        long millis = unit.toMillis(time);
+        if (ttlJitter <= 0) {
+            return millis;
+        }
+        return millis + (long) (millis * ttlJitter * ThreadLocalRandom.current().nextDouble());
     }
 
-    private void unLock(String key){
-        stringRedisTemplate.delete(key);
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待缓存重建被中断", e);
+        }
+    }
+
+    private void putLocal(String key, Object value) {
+        if (localCache != null && value != null) {
+            localCache.put(key, copyOf(value));
+        }
+    }
+
+    /**
+     * 本地缓存存取时都复制一份（浅拷贝），调用方修改返回的对象（如设置距离）不会影响缓存和其它请求；
+     * 字符串、数字等不可变的值直接共用
+     */
+    private static Object copyOf(Object value) {
+        if (ClassUtil.isSimpleValueType(value.getClass())) {
+            return value;
+        }
+        return BeanUtil.copyProperties(value, value.getClass());
+    }
+
+    /**
+     * 获取互斥锁，锁的值是本次加锁的随机标识
+     *
+     * @return 加锁成功时返回锁的标识，用于释放锁；失败时返回null
+     */
+    private String tryLock(String key){
+        String owner = UUID.randomUUID().toString(true);
+        Boolean flag;
+        try {
+            flag = stringRedisTemplate.opsForValue().setIfAbsent(key, owner, LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        } catch (DataAccessException e) {
+            // Redis不可用时视为没有抢到锁，逻辑过期和提前刷新会继续返回旧数据
+            redisBreaker.recordFailure(e);
+            return null;
+        }
+        return BooleanUtil.isTrue(flag) ? owner : null;
+    }
+
+    /**
+     * 释放互斥锁，只删除自己加的锁：重建任务排队或执行超过锁的过期时间后，锁可能已经被其它线程重新获取
+     */
+    private void unLock(String key, String owner){
+        try {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), owner);
+        } catch (DataAccessException e) {
+            // 锁会在过期后自动释放
+            redisBreaker.recordFailure(e);
+        }
     }
 
 }
@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存数据的编解码器
+ * <p>
+ * CacheClient写入和读取Redis时统一通过编解码器转换，默认使用JSON，
+ * 可以替换为更紧凑的二进制格式。空值（缓存穿透的占位）固定为空字节数组，不经过编解码器。
+ * </p>
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码普通缓存数据
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码普通缓存数据
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * 编码带逻辑过期时间的缓存数据
+     * @param value 数据
+     * @param expireMillis 逻辑过期时间，毫秒时间戳
+     */
+    byte[] encodeWithExpire(Object value, long expireMillis);
+
+    /**
+     * 读取逻辑过期时间，毫秒时间戳
+     */
+    long readExpireMillis(byte[] bytes);
+
+    /**
+     * 解码带逻辑过期时间的缓存数据
+     */
+    <R> R decodeWithExpire(byte[] bytes, Class<R> type);
+}
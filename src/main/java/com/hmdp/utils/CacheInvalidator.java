@@ -0,0 +1,344 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存失效管道
+ * <p>
+ * 数据库修改后的缓存删除统一交给这里：在事务提交之后才删除，避免并发读在提交前把旧数据重新写回缓存；
+ * 删除成功后延迟再删一次（延迟双删），清理提交前后那一小段时间内被读回的旧数据。
+ * 待删除的key先追加到本地的outbox文件并fsync，两次删除都成功后才确认，删除失败按退避重试，进程或主机重启后从outbox恢复。
+ * 每个刷新周期把到期的key合并成一次DEL和一次管道广播，同一个key在同一批中只删一次，批内保持提交顺序。
+ * </p>
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private static final String ADD = "+";
+    private static final String ACK = "-";
+
+    /**
+     * outbox超过这么多行时压缩，只保留未确认的key
+     */
+    private static final int COMPACT_LINES = 10000;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Value("${hmdp.cache.invalidation.outbox-path:data/cache-invalidation.outbox}")
+    private String outboxPath;
+
+    @Value("${hmdp.cache.invalidation.flush-millis:50}")
+    private long flushMillis;
+
+    /**
+     * 第二次删除的延迟，应大于一次缓存重建（查询数据库并写入Redis）的耗时
+     */
+    @Value("${hmdp.cache.invalidation.double-delete-delay-millis:1000}")
+    private long doubleDeleteDelayMillis;
+
+    @Value("${hmdp.cache.invalidation.max-backoff-millis:5000}")
+    private long maxBackoffMillis;
+
+    private final DelayQueue<Task> queue = new DelayQueue<>();
+
+    /**
+     * 还没有完成两次删除的key及其待完成的任务数，用于outbox确认和压缩
+     */
+    private final Map<String, Integer> unacked = new LinkedHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private ScheduledExecutorService flusher;
+
+    private FileChannel outbox;
+
+    /**
+     * 还没有写入outbox的记录
+     */
+    private final StringBuilder outboxBuffer = new StringBuilder();
+
+    private int outboxLines;
+
+    @PostConstruct
+    private void init() throws IOException {
+        Path path = Paths.get(outboxPath);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        // 恢复上次没有确认的key，然后压缩outbox
+        Map<String, Integer> pending = replay(path);
+        unacked.putAll(pending);
+        rewriteOutbox();
+        long now = System.currentTimeMillis();
+        pending.forEach((key, count) -> {
+            // 每条未确认的记录恢复一个任务，确认次数与outbox中的记录数一致
+            for (int i = 0; i < count; i++) {
+                queue.add(new Task(key, 1, now, 0, sequence.incrementAndGet()));
+            }
+        });
+        if (!pending.isEmpty()) {
+            log.info("从outbox恢复{}个待删除的缓存key", pending.size());
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-invalidator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+
+        cacheMetrics.registerGauge("hmdp_cache_invalidation_pending", "等待删除（包括等待第二次删除）的缓存key数量", "",
+                queue::size);
+        cacheMetrics.registerCounter("hmdp_cache_invalidation_deleted_total", "缓存失效管道成功执行的删除次数", "",
+                deleted::sum);
+        cacheMetrics.registerCounter("hmdp_cache_invalidation_failed_total", "缓存失效管道删除失败的批次数", "",
+                failed::sum);
+    }
+
+    @PreDestroy
+    private void destroy() throws IOException {
+        flusher.shutdown();
+        synchronized (this) {
+            flushOutbox(true);
+            outbox.close();
+        }
+    }
+
+    /**
+     * 删除缓存。当前线程有事务时在事务提交后执行，事务回滚则不删除；没有事务时立即进入删除队列
+     * @param keys 缓存key
+     */
+    public void invalidate(String... keys) {
+        List<String> list = Arrays.asList(keys);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(list);
+                }
+            });
+            return;
+        }
+        enqueue(list);
+    }
+
+    private void enqueue(List<String> keys) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (String key : keys) {
+                append(ADD, key);
+                unacked.merge(key, 1, Integer::sum);
+            }
+            // 加入的记录落盘后才进入删除队列，主机崩溃后也能恢复
+            flushOutbox(true);
+        }
+        for (String key : keys) {
+            queue.add(new Task(key, 1, now, 0, sequence.incrementAndGet()));
+        }
+    }
+
+    /**
+     * 取出所有到期的任务，合并成一批删除
+     */
+    private void flush() {
+        List<Task> due = new ArrayList<>();
+        queue.drainTo(due);
+        if (due.isEmpty()) {
+            return;
+        }
+        // 按入队顺序处理，同一个key在同一批中只删一次
+        due.sort((a, b) -> Long.compare(a.seq, b.seq));
+        Set<String> keys = new LinkedHashSet<>();
+        for (Task task : due) {
+            keys.add(task.key);
+        }
+        try {
+            cacheClient.deleteBatch(keys);
+            deleted.add(keys.size());
+        } catch (Exception e) {
+            failed.increment();
+            log.warn("批量删除缓存失败，稍后重试，key数量：{}", keys.size(), e);
+            long now = System.currentTimeMillis();
+            for (Task task : due) {
+                long backoff = Math.min(maxBackoffMillis, flushMillis << Math.min(task.attempts + 1, 16));
+                queue.add(new Task(task.key, task.round, now + backoff, task.attempts + 1, task.seq));
+            }
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<String> done = new ArrayList<>();
+        for (Task task : due) {
+            if (task.round == 1) {
+                // 第一次删除成功，安排延迟双删
+                queue.add(new Task(task.key, 2, now + doubleDeleteDelayMillis, 0, sequence.incrementAndGet()));
+            } else {
+                done.add(task.key);
+            }
+        }
+        if (!done.isEmpty()) {
+            ack(done);
+        }
+    }
+
+    /**
+     * 两次删除都完成的key写入确认记录；没有待确认的key时压缩outbox
+     */
+    private synchronized void ack(List<String> keys) {
+        for (String key : keys) {
+            unacked.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+            append(ACK, key);
+        }
+        try {
+            if (unacked.isEmpty() || outboxLines > COMPACT_LINES) {
+                outbox.close();
+                rewriteOutbox();
+            } else {
+                // 确认记录丢失只会在重启后多删一次，不需要fsync
+                flushOutbox(false);
+            }
+        } catch (IOException e) {
+            log.error("写入缓存失效outbox失败", e);
+        }
+    }
+
+    /**
+     * 用未确认的key重写outbox，之后继续追加
+     */
+    private void rewriteOutbox() throws IOException {
+        List<String> lines = new ArrayList<>();
+        unacked.forEach((key, count) -> {
+            for (int i = 0; i < count; i++) {
+                lines.add(ADD + key);
+            }
+        });
+        outboxBuffer.setLength(0);
+        outbox = FileChannel.open(Paths.get(outboxPath),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        outboxLines = 0;
+        for (String line : lines) {
+            append(line.substring(0, 1), line.substring(1));
+        }
+        flushOutbox(true);
+    }
+
+    private void append(String op, String key) {
+        outboxBuffer.append(op).append(key).append('\n');
+        outboxLines++;
+    }
+
+    /**
+     * 把缓冲的记录写入outbox
+     * @param sync 是否fsync到磁盘
+     */
+    private void flushOutbox(boolean sync) {
+        if (outboxBuffer.length() == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(outboxBuffer.toString().getBytes(StandardCharsets.UTF_8));
+        outboxBuffer.setLength(0);
+        try {
+            while (buffer.hasRemaining()) {
+                outbox.write(buffer);
+            }
+            if (sync) {
+                outbox.force(false);
+            }
+        } catch (IOException e) {
+            // outbox只用于重启恢复，写失败不影响本次删除
+            log.error("写入缓存失效outbox失败", e);
+        }
+    }
+
+    /**
+     * 读取outbox，返回加入了但还没有确认的key及其未确认的记录数
+     */
+    static Map<String, Integer> replay(Path path) throws IOException {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (line.length() < 2) {
+                    continue;
+                }
+                String key = line.substring(1);
+                if (line.startsWith(ADD)) {
+                    counts.merge(key, 1, Integer::sum);
+                } else if (line.startsWith(ACK)) {
+                    counts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 一次删除任务
+     */
+    private static class Task implements Delayed {
+        final String key;
+        /**
+         * 第几次删除，1为提交后的删除，2为延迟双删
+         */
+        final int round;
+        final long dueAt;
+        final int attempts;
+        final long seq;
+
+        Task(String key, int round, long dueAt, int attempts, long seq) {
+            this.key = key;
+            this.round = round;
+            this.dueAt = dueAt;
+            this.attempts = attempts;
+            this.seq = seq;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            Task other = (Task) o;
+            int c = Long.compare(dueAt, other.dueAt);
+            return c != 0 ? c : Long.compare(seq, other.seq);
+        }
+    }
+}
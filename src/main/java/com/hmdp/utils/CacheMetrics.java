@@ -0,0 +1,262 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 缓存指标
+ * <p>
+ * 按key前缀统计命中、空值命中、未命中、布隆过滤器拦截、互斥锁竞争次数，
+ * 以及数据库查询、缓存重建、序列化、Redis访问的耗时直方图。
+ * 通过{@link #scrape()}输出Prometheus文本格式，其它组件可以注册自己的仪表盘指标（gauge）和计数器。
+ * </p>
+ */
+@Component
+public class CacheMetrics {
+
+    /**
+     * 直方图的桶上界，秒
+     */
+    private static final double[] BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5
+    };
+
+    private final Map<String, PrefixMetrics> prefixes = new ConcurrentHashMap<>();
+
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    /**
+     * Redis命中
+     */
+    public void hit(String keyPrefix) {
+        of(keyPrefix).hits.increment();
+    }
+
+    /**
+     * 本地缓存或热点副本命中
+     */
+    public void localHit(String keyPrefix) {
+        of(keyPrefix).localHits.increment();
+    }
+
+    /**
+     * 命中空值
+     */
+    public void nullHit(String keyPrefix) {
+        of(keyPrefix).nullHits.increment();
+    }
+
+    public void miss(String keyPrefix) {
+        of(keyPrefix).misses.increment();
+    }
+
+    public void bloomReject(String keyPrefix) {
+        of(keyPrefix).bloomRejects.increment();
+    }
+
+    /**
+     * 没有抢到互斥锁
+     */
+    public void lockContention(String keyPrefix) {
+        of(keyPrefix).lockContentions.increment();
+    }
+
+    public void recordDbFallback(String keyPrefix, long nanos) {
+        of(keyPrefix).dbFallback.record(nanos);
+    }
+
+    public void recordRebuild(String keyPrefix, long nanos) {
+        of(keyPrefix).rebuild.record(nanos);
+    }
+
+    public void recordSerialization(String keyPrefix, long nanos) {
+        of(keyPrefix).serialization.record(nanos);
+    }
+
+    public void recordRedis(String keyPrefix, long nanos) {
+        of(keyPrefix).redis.record(nanos);
+    }
+
+    /**
+     * 注册一个仪表盘指标，抓取时读取当前值
+     *
+     * @param name 指标名
+     * @param help 指标说明
+     * @param labels 已经拼好的标签，例如 prefix="cache:shop:"，没有标签传空串
+     * @param value 读取当前值
+     */
+    public void registerGauge(String name, String help, String labels, Supplier<Number> value) {
+        gauges.add(new Gauge(name, "gauge", help, labels, value));
+    }
+
+    /**
+     * 注册一个由其它组件自己累计的计数器，抓取时读取当前值，指标名应以_total结尾
+     */
+    public void registerCounter(String name, String help, String labels, Supplier<Number> value) {
+        gauges.add(new Gauge(name, "counter", help, labels, value));
+    }
+
+    /**
+     * 输出Prometheus文本格式（0.0.4）
+     */
+    public String scrape() {
+        Map<String, PrefixMetrics> sorted = new TreeMap<>(prefixes);
+        StringBuilder sb = new StringBuilder(4096);
+
+        header(sb, "hmdp_cache_requests_total", "counter", "缓存查询次数，按结果区分");
+        sorted.forEach((prefix, m) -> {
+            counter(sb, "hmdp_cache_requests_total", prefix, "hit", m.hits);
+            counter(sb, "hmdp_cache_requests_total", prefix, "local_hit", m.localHits);
+            counter(sb, "hmdp_cache_requests_total", prefix, "null_hit", m.nullHits);
+            counter(sb, "hmdp_cache_requests_total", prefix, "miss", m.misses);
+            counter(sb, "hmdp_cache_requests_total", prefix, "bloom_reject", m.bloomRejects);
+        });
+
+        header(sb, "hmdp_cache_lock_contention_total", "counter", "缓存重建时没有抢到互斥锁的次数");
+        sorted.forEach((prefix, m) -> sb.append("hmdp_cache_lock_contention_total{prefix=\"")
+                .append(escape(prefix)).append("\"} ").append(m.lockContentions.sum()).append('\n'));
+
+        histograms(sb, sorted, "hmdp_cache_db_fallback_seconds", "缓存未命中时查询数据库的耗时", m -> m.dbFallback);
+        histograms(sb, sorted, "hmdp_cache_rebuild_seconds", "后台缓存重建的耗时（查询数据库并写入Redis）", m -> m.rebuild);
+        histograms(sb, sorted, "hmdp_cache_serialization_seconds", "缓存序列化和反序列化的耗时", m -> m.serialization);
+        histograms(sb, sorted, "hmdp_cache_redis_seconds", "Redis访问的耗时", m -> m.redis);
+
+        // 同名的指标只输出一次说明，按名字排序保证同名指标相邻
+        List<Gauge> sortedGauges = new ArrayList<>(gauges);
+        sortedGauges.sort(Comparator.comparing(g -> g.name));
+        String lastName = null;
+        for (Gauge gauge : sortedGauges) {
+            if (!gauge.name.equals(lastName)) {
+                header(sb, gauge.name, gauge.type, gauge.help);
+                lastName = gauge.name;
+            }
+            Number value;
+            try {
+                value = gauge.value.get();
+            } catch (Exception e) {
+                continue;
+            }
+            sb.append(gauge.name);
+            if (!gauge.labels.isEmpty()) {
+                sb.append('{').append(gauge.labels).append('}');
+            }
+            sb.append(' ').append(value == null ? "NaN" : format(value.doubleValue())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 拼接标签值，转义双引号和反斜杠
+     */
+    public static String label(String name, String value) {
+        return name + "=\"" + escape(value) + "\"";
+    }
+
+    private PrefixMetrics of(String keyPrefix) {
+        return prefixes.computeIfAbsent(keyPrefix, k -> new PrefixMetrics());
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String prefix, String result, LongAdder value) {
+        sb.append(name).append("{prefix=\"").append(escape(prefix)).append("\",result=\"").append(result)
+                .append("\"} ").append(value.sum()).append('\n');
+    }
+
+    private static void histograms(StringBuilder sb, Map<String, PrefixMetrics> sorted,
+                                   String name, String help, Function<PrefixMetrics, Histogram> histogram) {
+        header(sb, name, "histogram", help);
+        sorted.forEach((prefix, m) -> histogram.apply(m).writeTo(sb, name, escape(prefix)));
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return Double.isNaN(value) ? "NaN" : (value > 0 ? "+Inf" : "-Inf");
+        }
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    private static class PrefixMetrics {
+        final LongAdder hits = new LongAdder();
+        final LongAdder localHits = new LongAdder();
+        final LongAdder nullHits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder bloomRejects = new LongAdder();
+        final LongAdder lockContentions = new LongAdder();
+        final Histogram dbFallback = new Histogram();
+        final Histogram rebuild = new Histogram();
+        final Histogram serialization = new Histogram();
+        final Histogram redis = new Histogram();
+    }
+
+    /**
+     * 固定桶的直方图，每个桶单独计数，输出时再累加成Prometheus要求的累计值
+     */
+    private static class Histogram {
+        final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+        final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            double seconds = nanos / 1_000_000_000.0;
+            int i = 0;
+            while (i < BUCKETS.length && seconds > BUCKETS[i]) {
+                i++;
+            }
+            counts[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        void writeTo(StringBuilder sb, String name, String prefix) {
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i].sum();
+                String le = i < BUCKETS.length ? format(BUCKETS[i]) : "+Inf";
+                sb.append(name).append("_bucket{prefix=\"").append(prefix).append("\",le=\"").append(le)
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append(name).append("_sum{prefix=\"").append(prefix).append("\"} ")
+                    .append(format(sumNanos.sum() / 1_000_000_000.0)).append('\n');
+            sb.append(name).append("_count{prefix=\"").append(prefix).append("\"} ").append(cumulative).append('\n');
+        }
+    }
+
+    private static class Gauge {
+        final String name;
+        final String type;
+        final String help;
+        final String labels;
+        final Supplier<Number> value;
+
+        Gauge(String name, String type, String help, String labels, Supplier<Number> value) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.labels = labels;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池，所有后台重建共用
+ * <p>
+ * 队列有界，队列满时直接放弃本次重建，调用方继续返回旧数据；
+ * 同一个key同时只会有一个重建任务；任务开始执行后超时会被中断，排队的时间不计入超时。
+ * 释放动作（通常是释放互斥锁）在任务被拒绝时立即执行，否则在任务自己结束时执行，
+ * 超时中断不会提前释放，避免任务还在查询数据库时锁被其他节点拿走。
+ * </p>
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    @Value("${hmdp.cache.rebuild.threads:10}")
+    private int threads;
+
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${hmdp.cache.rebuild.timeout-millis:5000}")
+    private long timeoutMillis;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    private ThreadPoolExecutor executor;
+
+    private ScheduledExecutorService timeoutScheduler;
+
+    /**
+     * 正在排队或执行的重建任务的key
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-rebuild-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cacheMetrics.registerGauge("hmdp_cache_rebuild_queue_depth", "缓存重建线程池的排队任务数", "",
+                () -> executor.getQueue().size());
+        cacheMetrics.registerGauge("hmdp_cache_rebuild_active_threads", "缓存重建线程池正在执行的线程数", "",
+                executor::getActiveCount);
+        cacheMetrics.registerCounter("hmdp_cache_rebuild_rejected_total", "缓存重建因队列已满被放弃的次数", "",
+                rejected::sum);
+        cacheMetrics.registerCounter("hmdp_cache_rebuild_timed_out_total", "缓存重建执行超时被中断的次数", "",
+                timedOut::sum);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+        timeoutScheduler.shutdownNow();
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @param key 去重用的key，通常是缓存key
+     * @param task 重建任务
+     * @param release 释放动作，任务结束或被拒绝时执行，且只执行一次
+     * @return 是否提交成功
+     */
+    public boolean submit(String key, Runnable task, Runnable release) {
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable releaseOnce = () -> {
+            if (released.compareAndSet(false, true)) {
+                pendingKeys.remove(key);
+                try {
+                    release.run();
+                } catch (Exception e) {
+                    log.error("释放缓存重建资源失败，key：{}", key, e);
+                }
+            }
+        };
+        if (!pendingKeys.add(key)) {
+            // 本节点已经有同一个key的重建任务
+            deduplicated.increment();
+            release.run();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                long begin = System.nanoTime();
+                // 超时从任务开始执行时计算，超时只中断任务，释放动作仍由任务结束时执行
+                Thread worker = Thread.currentThread();
+                AtomicBoolean finished = new AtomicBoolean();
+                ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+                    synchronized (finished) {
+                        if (!finished.get()) {
+                            timedOut.increment();
+                            log.warn("缓存重建超时，已中断，key：{}", key);
+                            worker.interrupt();
+                        }
+                    }
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+                try {
+                    task.run();
+                    succeeded.increment();
+                } catch (Exception e) {
+                    failed.increment();
+                    log.error("缓存重建失败，key：{}", key, e);
+                } finally {
+                    synchronized (finished) {
+                        finished.set(true);
+                    }
+                    timeout.cancel(false);
+                    // 清除超时设置的中断标记，不影响线程池执行下一个任务
+                    Thread.interrupted();
+                    long cost = System.nanoTime() - begin;
+                    latencyNanos.add(cost);
+                    maxLatencyNanos.accumulateAndGet(cost, Math::max);
+                    releaseOnce.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 队列已满，放弃本次重建，调用方继续使用旧数据
+            rejected.increment();
+            releaseOnce.run();
+            return false;
+        }
+        submitted.increment();
+        return true;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long completed = succeeded.sum() + failed.sum();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("succeeded", succeeded.sum());
+        stats.put("failed", failed.sum());
+        stats.put("timedOut", timedOut.sum());
+        stats.put("avgLatencyMillis", completed == 0 ? 0 : latencyNanos.sum() / completed / 1_000_000.0);
+        stats.put("maxLatencyMillis", maxLatencyNanos.get() / 1_000_000.0);
+        return stats;
+    }
+}
@@ -0,0 +1,139 @@
+package com.hmdp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩编解码器，包装另一个编解码器
+ * <p>
+ * 编码结果超过阈值时用Deflate（最快档位）压缩，格式：魔数(1) + 标志位(1) + [逻辑过期时间(8)] + 原始长度(变长) + 压缩数据。
+ * 逻辑过期时间复制到未压缩的头部，判断是否过期时不需要解压。
+ * 小于阈值的数据原样保存，不带魔数的数据直接交给被包装的编解码器，兼容开启压缩之前写入的缓存。
+ * </p>
+ */
+public class CompressingCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xCD;
+    private static final int FLAG_EXPIRE = 1;
+
+    private final CacheCodec delegate;
+
+    private final int thresholdBytes;
+
+    public CompressingCacheCodec(CacheCodec delegate, int thresholdBytes) {
+        this.delegate = delegate;
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        byte[] raw = delegate.encode(value);
+        return raw.length < thresholdBytes ? raw : compress(raw, false, 0);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        return delegate.decode(decompress(bytes), type);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireMillis) {
+        byte[] raw = delegate.encodeWithExpire(value, expireMillis);
+        return raw.length < thresholdBytes ? raw : compress(raw, true, expireMillis);
+    }
+
+    @Override
+    public long readExpireMillis(byte[] bytes) {
+        if (!isCompressed(bytes)) {
+            return delegate.readExpireMillis(bytes);
+        }
+        if ((bytes[1] & FLAG_EXPIRE) == 0) {
+            throw new IllegalArgumentException("缓存数据没有逻辑过期时间");
+        }
+        long expireMillis = 0;
+        for (int i = 0; i < 8; i++) {
+            expireMillis = (expireMillis << 8) | (bytes[2 + i] & 0xFF);
+        }
+        return expireMillis;
+    }
+
+    @Override
+    public <R> R decodeWithExpire(byte[] bytes, Class<R> type) {
+        return delegate.decodeWithExpire(decompress(bytes), type);
+    }
+
+    private static boolean isCompressed(byte[] bytes) {
+        return bytes.length > 2 && bytes[0] == MAGIC;
+    }
+
+    private static byte[] compress(byte[] raw, boolean withExpire, long expireMillis) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        out.write(MAGIC);
+        out.write(withExpire ? FLAG_EXPIRE : 0);
+        if (withExpire) {
+            for (int i = 7; i >= 0; i--) {
+                out.write((int) (expireMillis >>> (i * 8)));
+            }
+        }
+        // 原始长度，解压时一次分配好缓冲区
+        int length = raw.length;
+        while ((length & ~0x7F) != 0) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, raw.length / 2)];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] compressed = out.toByteArray();
+        // 压缩后没有变小（例如数据本身不可压缩），保存原始数据
+        return compressed.length < raw.length ? compressed : raw;
+    }
+
+    private static byte[] decompress(byte[] bytes) {
+        if (!isCompressed(bytes)) {
+            return bytes;
+        }
+        int pos = (bytes[1] & FLAG_EXPIRE) != 0 ? 10 : 2;
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[pos++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes, pos, bytes.length - pos);
+            byte[] raw = new byte[length];
+            int n = 0;
+            while (n < length) {
+                int read = inflater.inflate(raw, n, length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                n += read;
+            }
+            return n == length ? raw : Arrays.copyOf(raw, n);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("缓存数据解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
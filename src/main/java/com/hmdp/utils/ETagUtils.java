@@ -0,0 +1,56 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * 预先序列化好的JSON响应体的ETag工具
+ */
+public class ETagUtils {
+
+    /**
+     * 根据响应体计算强ETag，内容相同则ETag相同，与节点无关
+     */
+    public static String of(byte[] body) {
+        return "\"" + DigestUtil.md5Hex(body) + "\"";
+    }
+
+    /**
+     * If-None-Match是否匹配，支持逗号分隔的多个值、弱ETag前缀和*
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if ("*".equals(value) || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 构造响应：ETag匹配时返回304，否则直接把字节写入响应，不再经过JSON序列化
+     */
+    public static ResponseEntity<byte[]> response(byte[] body, String etag, String ifNoneMatch) {
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(CacheControl.noCache())
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+}
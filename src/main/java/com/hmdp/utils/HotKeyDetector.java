@@ -0,0 +1,249 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 热点key探测
+ * <p>
+ * 按采样率记录key的访问次数到Count-Min Sketch中，每个周期衰减一半，近似得到最近的访问频率。
+ * 周期性地对候选key排序，访问频率最高的top-K自动固定到进程内的副本中，
+ * 副本每个周期用一次MGET从Redis刷新，热点key的读取不再访问Redis。
+ * </p>
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+    private static final int MAX_CANDIDATES = 1024;
+
+    @Resource
+    private RedisTemplate<String, byte[]> cacheRedisTemplate;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private RedisCircuitBreaker redisBreaker;
+
+    @Value("${hmdp.cache.hot-key.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 采样率，1表示每次访问都记录
+     */
+    @Value("${hmdp.cache.hot-key.sample-rate:0.1}")
+    private double sampleRate;
+
+    @Value("${hmdp.cache.hot-key.top-k:20}")
+    private int topK;
+
+    /**
+     * 一个周期内（换算成全量访问后）至少被访问多少次才算热点
+     */
+    @Value("${hmdp.cache.hot-key.min-count:100}")
+    private int minCount;
+
+    @Value("${hmdp.cache.hot-key.refresh-millis:1000}")
+    private long refreshMillis;
+
+    private final AtomicIntegerArray sketch = new AtomicIntegerArray(DEPTH * WIDTH);
+
+    /**
+     * 候选热点key及其估计的访问次数
+     */
+    private final Map<String, Integer> candidates = new ConcurrentHashMap<>();
+
+    /**
+     * 当前固定在本地的热点key副本，每个周期整体替换
+     */
+    private volatile Map<String, byte[]> replica = Collections.emptyMap();
+
+    /**
+     * 副本的替换和删除都在这个锁内进行
+     */
+    private final Object replicaLock = new Object();
+
+    /**
+     * 刷新期间被删除的key，发布新副本前从中剔除，避免MGET读到的修改前的值再被固定一个周期；不在刷新时为null
+     */
+    private Set<String> evictedDuringRefresh;
+
+    @PostConstruct
+    private void init() {
+        cacheMetrics.registerGauge("hmdp_cache_hot_keys_pinned", "固定在本地副本中的热点key数量", "",
+                () -> replica.size());
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void record(String key) {
+        if (!enabled || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        int h1 = key.hashCode();
+        int h2 = (h1 >>> 16) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * WIDTH + ((h1 + i * h2) & (WIDTH - 1));
+            estimate = Math.min(estimate, sketch.incrementAndGet(index));
+        }
+        // 达到热点阈值的一半就进入候选集
+        if (estimate * 2 >= threshold() && (candidates.size() < MAX_CANDIDATES || candidates.containsKey(key))) {
+            candidates.put(key, estimate);
+        }
+    }
+
+    /**
+     * 查询本地副本
+     * @return 热点key在副本中的值，不是热点返回null
+     */
+    public byte[] getPinned(String key) {
+        return replica.get(key);
+    }
+
+    /**
+     * key被删除或修改时从副本中移除
+     */
+    public void evict(String key) {
+        synchronized (replicaLock) {
+            if (evictedDuringRefresh != null) {
+                evictedDuringRefresh.add(key);
+            }
+            if (replica.containsKey(key)) {
+                Map<String, byte[]> copy = new HashMap<>(replica);
+                copy.remove(key);
+                replica = copy;
+            }
+        }
+    }
+
+    /**
+     * 周期性地重新排名热点key，刷新副本，然后衰减计数
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.hot-key.refresh-millis:1000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        if (!redisBreaker.allowRequest()) {
+            // Redis熔断期间副本无法刷新，清空避免返回旧数据，读取走CacheClient的降级模式
+            synchronized (replicaLock) {
+                replica = Collections.emptyMap();
+            }
+            decay();
+            return;
+        }
+        synchronized (replicaLock) {
+            evictedDuringRefresh = new HashSet<>();
+        }
+        try {
+            List<String> hotKeys = rank();
+            Map<String, byte[]> newReplica = new HashMap<>(hotKeys.size());
+            if (!hotKeys.isEmpty()) {
+                List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(hotKeys);
+                redisBreaker.recordSuccess();
+                for (int i = 0; i < hotKeys.size(); i++) {
+                    byte[] value = values == null ? null : values.get(i);
+                    if (value != null) {
+                        newReplica.put(hotKeys.get(i), value);
+                    }
+                }
+            }
+            synchronized (replicaLock) {
+                // MGET之后被删除的key，读到的可能是修改前的值，本周期不固定
+                newReplica.keySet().removeAll(evictedDuringRefresh);
+                replica = newReplica;
+            }
+        } catch (Exception e) {
+            if (e instanceof DataAccessException) {
+                redisBreaker.recordFailure(e);
+            }
+            // 刷新失败时清空副本，避免长时间返回旧数据
+            synchronized (replicaLock) {
+                replica = Collections.emptyMap();
+            }
+            log.error("刷新热点key副本失败", e);
+        } finally {
+            synchronized (replicaLock) {
+                evictedDuringRefresh = null;
+            }
+            decay();
+        }
+    }
+
+    /**
+     * 查询当前的热点key，按访问频率从高到低排序
+     */
+    public List<Map<String, Object>> hotKeys() {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(candidates.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : entries) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", entry.getKey());
+            // 换算成全量访问的每秒次数
+            item.put("ratePerSecond", entry.getValue() / sampleRate * 1000 / refreshMillis);
+            item.put("pinned", replica.containsKey(entry.getKey()));
+            result.add(item);
+        }
+        return result;
+    }
+
+    private List<String> rank() {
+        int threshold = threshold();
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(candidates.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        List<String> hotKeys = new ArrayList<>(topK);
+        for (Map.Entry<String, Integer> entry : entries) {
+            if (hotKeys.size() >= topK || entry.getValue() < threshold) {
+                break;
+            }
+            hotKeys.add(entry.getKey());
+        }
+        return hotKeys;
+    }
+
+    /**
+     * 所有计数减半，候选集同步减半，过冷的候选key被淘汰
+     */
+    private void decay() {
+        for (int i = 0; i < sketch.length(); i++) {
+            int v = sketch.get(i);
+            if (v != 0) {
+                sketch.set(i, v >>> 1);
+            }
+        }
+        int threshold = threshold();
+        candidates.replaceAll((key, count) -> count >>> 1);
+        candidates.values().removeIf(count -> count * 2 < threshold);
+    }
+
+    /**
+     * 采样后的热点阈值
+     */
+    private int threshold() {
+        return Math.max(1, (int) (minCount * sampleRate));
+    }
+}
@@ -0,0 +1,48 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * JSON编解码器，与原来直接使用JSONUtil写入的格式完全一致
+ * <p>
+ * 逻辑过期数据按RedisData的结构保存。
+ * </p>
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireMillis) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(Instant.ofEpochMilli(expireMillis).atZone(ZoneId.systemDefault()).toLocalDateTime());
+        return encode(redisData);
+    }
+
+    @Override
+    public long readExpireMillis(byte[] bytes) {
+        RedisData redisData = decode(bytes, RedisData.class);
+        return redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public <R> R decodeWithExpire(byte[] bytes, Class<R> type) {
+        JSONObject redisData = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        return redisData.getJSONObject("data").toBean(type);
+    }
+}
@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.CursorResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 键集（seek）分页：按(排序列, id)降序，下一页从上一页最后一行的位置继续，不使用OFFSET，也不查询总数
+ * <p>
+ * 条件为 sortColumn &lt; v OR (sortColumn = v AND id &lt; lastId)，配合(过滤列, 排序列, id)的索引，
+ * 每一页都只扫描一页的行，深分页与第一页耗时相同。
+ * 游标是上一页最后一行的排序值和id，Base64url编码，没有下一页时为null。
+ * </p>
+ */
+public class KeysetPager {
+
+    private KeysetPager() {
+    }
+
+    /**
+     * 按id降序分页
+     *
+     * @param query 已经设置好过滤条件的查询
+     * @param idGetter 读取行的id
+     * @param cursor 上一页返回的游标，第一页为空
+     * @param size 每页数量
+     * @throws IllegalArgumentException 游标无效
+     */
+    public static <T> CursorResult page(QueryChainWrapper<T> query, Function<T, Long> idGetter, String cursor, int size) {
+        return page(query, null, null, idGetter, cursor, size);
+    }
+
+    /**
+     * 按(sortColumn, id)降序分页
+     *
+     * @param query 已经设置好过滤条件的查询
+     * @param sortColumn 排序列，为null时只按id排序；排序列的值不能为NULL
+     * @param sortGetter 读取行的排序值
+     * @param idGetter 读取行的id
+     * @param cursor 上一页返回的游标，第一页为空
+     * @param size 每页数量
+     * @throws IllegalArgumentException 游标无效
+     */
+    public static <T> CursorResult page(QueryChainWrapper<T> query, String sortColumn,
+                                        Function<T, ? extends Number> sortGetter, Function<T, Long> idGetter,
+                                        String cursor, int size) {
+        long[] after = decode(cursor, sortColumn != null);
+        if (after != null) {
+            if (sortColumn == null) {
+                query.lt("id", after[0]);
+            } else {
+                long sortValue = after[0];
+                long lastId = after[1];
+                query.and(w -> w.lt(sortColumn, sortValue).or(o -> o.eq(sortColumn, sortValue).lt("id", lastId)));
+            }
+        }
+        if (sortColumn != null) {
+            query.orderByDesc(sortColumn);
+        }
+        // 多查一行判断是否还有下一页
+        List<T> rows = query.orderByDesc("id").last("LIMIT " + (size + 1)).list();
+        CursorResult result = new CursorResult();
+        if (rows.size() > size) {
+            rows = rows.subList(0, size);
+            T last = rows.get(size - 1);
+            Long lastId = idGetter.apply(last);
+            result.setCursor(sortColumn == null
+                    ? encode(String.valueOf(lastId))
+                    : encode(sortValue(sortGetter.apply(last)) + "," + lastId));
+        }
+        result.setList(rows);
+        return result;
+    }
+
+    private static long sortValue(Number value) {
+        return value == null ? 0 : value.longValue();
+    }
+
+    private static String encode(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] decode(String cursor, boolean withSortValue) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        List<String> parts;
+        try {
+            parts = StrUtil.split(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8), ',');
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的游标", e);
+        }
+        if (parts.size() != (withSortValue ? 2 : 1)) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+        long[] after = new long[parts.size()];
+        for (int i = 0; i < after.length; i++) {
+            try {
+                after[i] = Long.parseLong(parts.get(i));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("无效的游标", e);
+            }
+        }
+        return after;
+    }
+}
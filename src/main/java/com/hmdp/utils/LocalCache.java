@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 进程内本地缓存（L1）
+ * <p>
+ * 基于访问顺序的LinkedHashMap实现LRU淘汰，超过容量时淘汰最久未访问的数据；
+ * 每条数据同时按写入时间过期，作为跨节点失效消息丢失时的兜底。
+ * </p>
+ */
+public class LocalCache {
+
+    private final int maximumSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> map;
+
+    public LocalCache(int maximumSize, long ttlMillis) {
+        this.maximumSize = maximumSize;
+        this.ttlMillis = ttlMillis;
+        this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > LocalCache.this.maximumSize;
+            }
+        };
+    }
+
+    /**
+     * 查询本地缓存
+     * @param key 缓存key
+     * @return 缓存的对象，不存在或已过期返回null
+     */
+    public synchronized Object get(String key) {
+        Entry entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt < System.currentTimeMillis()) {
+            // 已过期，顺手清理
+            map.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void put(String key, Object value) {
+        if (value == null) {
+            return;
+        }
+        map.put(key, new Entry(value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized void invalidate(String key) {
+        map.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expireAt;
+
+        private Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
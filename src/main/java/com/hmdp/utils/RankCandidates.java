@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+
+/**
+ * 待排序的候选店铺，按列存放在基本类型数组中，排序时顺序遍历
+ */
+public class RankCandidates {
+
+    long[] ids;
+    double[] distances;
+    int[] scores;
+    int[] solds;
+    int[] comments;
+    int[] avgPrices;
+    int size;
+
+    public RankCandidates(int capacity) {
+        int n = Math.max(16, capacity);
+        ids = new long[n];
+        distances = new double[n];
+        scores = new int[n];
+        solds = new int[n];
+        comments = new int[n];
+        avgPrices = new int[n];
+    }
+
+    /**
+     * 加入一个候选店铺
+     *
+     * @param distance 距离，米，不按距离排序时传0
+     * @param score 评分，tb_shop.score，为评分的10倍
+     */
+    public void add(long id, double distance, int score, int sold, int comment, int avgPrice) {
+        if (size == ids.length) {
+            int n = size * 2;
+            ids = Arrays.copyOf(ids, n);
+            distances = Arrays.copyOf(distances, n);
+            scores = Arrays.copyOf(scores, n);
+            solds = Arrays.copyOf(solds, n);
+            comments = Arrays.copyOf(comments, n);
+            avgPrices = Arrays.copyOf(avgPrices, n);
+        }
+        ids[size] = id;
+        distances[size] = distance;
+        scores[size] = score;
+        solds[size] = sold;
+        comments[size] = comment;
+        avgPrices[size] = avgPrice;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long id(int i) {
+        return ids[i];
+    }
+
+    public double distance(int i) {
+        return distances[i];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
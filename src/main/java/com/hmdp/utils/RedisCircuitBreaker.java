@@ -0,0 +1,162 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Redis熔断器
+ * <p>
+ * 连续失败（超时、连接失败）达到阈值后打开，打开期间CacheClient不再访问Redis，直接进入降级模式：
+ * 读本地的降级缓存，未命中时按每秒限额查询数据库，避免Redis卡住时所有请求都阻塞在超时上。
+ * 打开后后台定期PING Redis，成功即关闭熔断器。
+ * </p>
+ */
+@Slf4j
+@Component
+public class RedisCircuitBreaker {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Value("${hmdp.cache.breaker.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 连续失败多少次打开熔断器
+     */
+    @Value("${hmdp.cache.breaker.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${hmdp.cache.breaker.probe-interval-millis:1000}")
+    private long probeIntervalMillis;
+
+    /**
+     * 降级模式下每秒最多查询数据库的次数
+     */
+    @Value("${hmdp.cache.breaker.degraded-db-permits-per-second:200}")
+    private int degradedDbPermitsPerSecond;
+
+    private volatile boolean open;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    /**
+     * 当前限流窗口（秒）及窗口内已经发放的数据库查询次数
+     */
+    private final AtomicLong permitWindow = new AtomicLong();
+    private final AtomicInteger permitsUsed = new AtomicInteger();
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder dbRejected = new LongAdder();
+
+    private ScheduledExecutorService prober;
+
+    @PostConstruct
+    private void init() {
+        prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "redis-breaker-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probe, probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+
+        cacheMetrics.registerGauge("hmdp_cache_breaker_open", "Redis熔断器是否打开，1为打开", "",
+                () -> open ? 1 : 0);
+        cacheMetrics.registerCounter("hmdp_cache_breaker_opened_total", "Redis熔断器打开的次数", "",
+                opened::sum);
+        cacheMetrics.registerCounter("hmdp_cache_breaker_short_circuited_total", "熔断期间没有访问Redis的请求数", "",
+                shortCircuited::sum);
+        cacheMetrics.registerCounter("hmdp_cache_degraded_db_rejected_total", "降级模式下超过限额被拒绝的数据库查询数", "",
+                dbRejected::sum);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        prober.shutdownNow();
+    }
+
+    /**
+     * 是否可以访问Redis，熔断器打开时返回false
+     */
+    public boolean allowRequest() {
+        if (!enabled || !open) {
+            return true;
+        }
+        shortCircuited.increment();
+        return false;
+    }
+
+    public void recordSuccess() {
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    public void recordFailure(Exception e) {
+        if (!enabled) {
+            return;
+        }
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && !open) {
+            open = true;
+            opened.increment();
+            log.error("Redis连续失败{}次，熔断器打开，进入降级模式", failureThreshold, e);
+        }
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * 降级模式下获取一次查询数据库的许可，按秒限流
+     */
+    public boolean tryAcquireDbPermit() {
+        long window = System.currentTimeMillis() / 1000;
+        long current = permitWindow.get();
+        if (current != window && permitWindow.compareAndSet(current, window)) {
+            permitsUsed.set(0);
+        }
+        if (permitsUsed.incrementAndGet() <= degradedDbPermitsPerSecond) {
+            return true;
+        }
+        dbRejected.increment();
+        return false;
+    }
+
+    /**
+     * 熔断器打开时PING Redis，成功则关闭
+     */
+    private void probe() {
+        if (!open) {
+            return;
+        }
+        try {
+            String pong = stringRedisTemplate.execute((RedisCallback<String>) RedisConnection::ping);
+            if ("PONG".equalsIgnoreCase(pong)) {
+                consecutiveFailures.set(0);
+                open = false;
+                log.info("Redis已恢复，熔断器关闭");
+            }
+        } catch (Exception e) {
+            log.warn("Redis探测失败，熔断器保持打开：{}", e.getMessage());
+        }
+    }
+}
@@ -11,7 +11,22 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type:";
+    public static final String CACHE_SHOP_GEO_KEY = "cache:shop:geo:";
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    /**
+     * 缓存的用户信息（昵称、头像），通过IUserService.updateById修改时删除；绕过它直接修改数据库的，最多过期前不一致
+     */
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_VOUCHER_LIST_TTL = 10L;
+    public static final String CACHE_VOUCHER_LIST_KEY = "cache:voucher:list:";
+    public static final String RESPONSE_CACHE_KEY_PREFIX = "resp:";
+    public static final String CACHE_INVALIDATE_CHANNEL = "channel:cache:invalidate";
+    public static final String SHOP_CHANGED_CHANNEL = "channel:shop:changed";
+    public static final String SHOP_TYPE_CHANGED_CHANNEL = "channel:shop-type:changed";
 
+    public static final String LOCK_KEY_PREFIX = "lock:";
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
@@ -19,5 +34,10 @@ public class RedisConstants {
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_SNAPSHOT_KEY = "shop:geo:snapshot:";
+    public static final String SHOP_GEO_REBUILD_KEY = "shop:geo:rebuild:";
+    public static final String SHOP_GEO_REBUILDING_KEY = "shop:geo:rebuilding";
+    public static final Long SHOP_GEO_REBUILD_TTL = 3600L;
+    public static final String SHOP_GEO_VERSION_KEY = "shop:geo:version:";
     public static final String USER_SIGN_KEY = "sign:";
 }
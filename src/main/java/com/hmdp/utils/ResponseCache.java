@@ -0,0 +1,158 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.RESPONSE_CACHE_KEY_PREFIX;
+
+/**
+ * 响应缓存
+ * <p>
+ * 缓存接口最终返回的Result JSON字节，命中时把字节直接写入响应，既不反序列化缓存数据，也不再序列化Result。
+ * 每条数据对应一个Redis Hash：key为 resp: + 数据缓存key，field为响应的变体（例如是否点赞），
+ * 删除数据缓存时（{@link CacheClient#delete}）一并删除，所以数据的失效逻辑不需要改动。
+ * 只缓存成功的响应，失败的响应每次重新生成。
+ * 数据在本地一级缓存或热点副本中、或Redis熔断时不查询响应缓存，直接生成响应，
+ * 由数据缓存的本地层级和降级模式处理；访问Redis失败计入熔断器。
+ * </p>
+ */
+@Component
+public class ResponseCache {
+
+    @Resource
+    private RedisTemplate<String, byte[]> cacheRedisTemplate;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private RedisCircuitBreaker redisBreaker;
+
+    @Value("${hmdp.cache.response.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 查询没有变体的响应
+     *
+     * @see #query(String, Object, Supplier, String, Long, TimeUnit, Supplier)
+     */
+    public ResponseEntity<byte[]> query(String keyPrefix, Object id, String ifNoneMatch,
+                                        Long time, TimeUnit unit, Supplier<Result> loader) {
+        return query(keyPrefix, id, () -> "", ifNoneMatch, time, unit, loader);
+    }
+
+    /**
+     * 查询响应
+     *
+     * @param keyPrefix 数据缓存的key前缀
+     * @param id 数据id
+     * @param variant 同一条数据的不同响应，例如当前用户是否点赞，只在需要查询响应缓存时计算
+     * @param ifNoneMatch 请求头If-None-Match
+     * @param time 缓存时间
+     * @param unit 时间单位
+     * @param loader 生成响应
+     * @return 响应字节，ETag匹配时为304
+     */
+    public ResponseEntity<byte[]> query(String keyPrefix, Object id, Supplier<String> variant, String ifNoneMatch,
+                                        Long time, TimeUnit unit, Supplier<Result> loader) {
+        if (!enabled) {
+            return load(loader, ifNoneMatch);
+        }
+        // 0.数据在本地一级缓存或热点副本中时不需要访问Redis；Redis熔断时交给数据缓存的降级模式
+        String dataKey = keyPrefix + id;
+        if (cacheClient.isServedLocally(dataKey) || !redisBreaker.allowRequest()) {
+            return load(loader, ifNoneMatch);
+        }
+        // 响应缓存命中时不会经过CacheClient，在这里记录访问，热点key才能被固定到本地副本
+        hotKeyDetector.record(dataKey);
+        String metricsPrefix = RESPONSE_CACHE_KEY_PREFIX + keyPrefix;
+        String key = RESPONSE_CACHE_KEY_PREFIX + dataKey;
+        byte[] field = variant.get().getBytes(StandardCharsets.UTF_8);
+        // 1.查询Redis
+        long begin = System.nanoTime();
+        byte[] cached;
+        try {
+            cached = cacheRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                    connection.hashCommands().hGet(key.getBytes(StandardCharsets.UTF_8), field));
+            redisBreaker.recordSuccess();
+        } catch (DataAccessException e) {
+            redisBreaker.recordFailure(e);
+            return load(loader, ifNoneMatch);
+        }
+        cacheMetrics.recordRedis(metricsPrefix, System.nanoTime() - begin);
+        if (cached != null && cached.length > 0) {
+            // 2.命中，直接返回字节
+            cacheMetrics.hit(metricsPrefix);
+            int etagLength = cached[0] & 0xFF;
+            String etag = new String(cached, 1, etagLength, StandardCharsets.US_ASCII);
+            byte[] body = Arrays.copyOfRange(cached, 1 + etagLength, cached.length);
+            return ETagUtils.response(body, etag, ifNoneMatch);
+        }
+        cacheMetrics.miss(metricsPrefix);
+        // 3.未命中，生成响应
+        Result result = loader.get();
+        begin = System.nanoTime();
+        byte[] body = serialize(result);
+        cacheMetrics.recordSerialization(metricsPrefix, System.nanoTime() - begin);
+        String etag = ETagUtils.of(body);
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            // 4.成功的响应写入Redis，格式为 ETag长度 + ETag + 响应体
+            byte[] etagBytes = etag.getBytes(StandardCharsets.US_ASCII);
+            byte[] value = new byte[1 + etagBytes.length + body.length];
+            value[0] = (byte) etagBytes.length;
+            System.arraycopy(etagBytes, 0, value, 1, etagBytes.length);
+            System.arraycopy(body, 0, value, 1 + etagBytes.length, body.length);
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            long ttlSeconds = Math.max(1, unit.toSeconds(time));
+            try {
+                cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    connection.hashCommands().hSet(rawKey, field, value);
+                    connection.keyCommands().expire(rawKey, ttlSeconds);
+                    return null;
+                });
+            } catch (DataAccessException e) {
+                // 写入失败不影响本次响应
+                redisBreaker.recordFailure(e);
+            }
+        }
+        return ETagUtils.response(body, etag, ifNoneMatch);
+    }
+
+    /**
+     * 不经过响应缓存，直接生成响应
+     */
+    private ResponseEntity<byte[]> load(Supplier<Result> loader, String ifNoneMatch) {
+        byte[] body = serialize(loader.get());
+        return ETagUtils.response(body, ETagUtils.of(body), ifNoneMatch);
+    }
+
+    private byte[] serialize(Result result) {
+        try {
+            return objectMapper.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化响应失败", e);
+        }
+    }
+}
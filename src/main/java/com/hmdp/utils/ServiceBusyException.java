@@ -0,0 +1,14 @@
+package com.hmdp.utils;
+
+/**
+ * 服务暂时无法处理请求，例如Redis熔断期间数据库查询超过限额
+ * <p>
+ * 与数据不存在区分开，由{@link com.hmdp.config.WebExceptionAdvice}统一返回“服务繁忙”，客户端可以稍后重试。
+ * </p>
+ */
+public class ServiceBusyException extends RuntimeException {
+
+    public ServiceBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,428 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ShopFacets;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 进程内的店铺分面（商圈、价格区间）统计
+ * <p>
+ * 每个店铺分配一个连续的文档编号，每个类型维护该类型店铺的位图，以及每个商圈、每个价格区间的位图；
+ * 同时按(类型, 商圈, 价格区间)维护店铺数量，查询分面数量不需要GROUP BY，只需累加计数器。
+ * 按分面过滤列表时把类型、商圈、价格区间的位图求交集，得到的{@link Filter}可以直接用于地理位置扫描和分页。
+ * 店铺新增、修改（包括类型变化）时增量更新位图和计数器。
+ * </p>
+ */
+@Component
+public class ShopFacetIndex {
+
+    /**
+     * 没有人均价格的店铺所在的价格区间
+     */
+    private static final int NO_PRICE = -1;
+
+    /**
+     * 价格区间的分界，例如[50, 100]表示 &lt;50、50~100、&gt;=100 三个区间
+     */
+    private final long[] priceBounds;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Long, TypeFacets> types = new HashMap<>();
+
+    /**
+     * 店铺id到文档编号，同一个店铺的编号不变，店铺删除后位图中对应的位被清除；全量重建时整体替换，
+     * 已经创建的{@link Filter}继续使用旧的映射
+     */
+    private Map<Long, Integer> docs = new ConcurrentHashMap<>();
+    private long[] docIds = new long[1024];
+    private long[] docTypes = new long[1024];
+    private String[] docAreas = new String[1024];
+    private int[] docBands = new int[1024];
+    private int docCount;
+
+    private volatile boolean ready;
+
+    /**
+     * 全量重建期间的增量修改，重建完成后在新索引上重放
+     */
+    private List<Runnable> journal;
+
+    public ShopFacetIndex(@Value("${hmdp.search.facet.price-bands:50,100,200,500}") long[] priceBounds) {
+        this.priceBounds = priceBounds.clone();
+        Arrays.sort(this.priceBounds);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 全量重建：loader把所有店铺加入builder，构建完成后整体替换，期间的增量修改会重放到新索引上
+     */
+    public void rebuild(Consumer<Builder> loader) {
+        lock.writeLock().lock();
+        try {
+            journal = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            Builder builder = new Builder();
+            loader.accept(builder);
+            lock.writeLock().lock();
+            try {
+                clear();
+                for (int i = 0; i < builder.size; i++) {
+                    put(builder.ids[i], builder.typeIds[i], builder.areas[i], band(builder.prices[i]));
+                }
+                for (Runnable change : journal) {
+                    change.run();
+                }
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                journal = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 新增或修改店铺，类型、商圈、价格变化时从原来的位图和计数器中移除
+     */
+    public void upsert(long id, long typeId, String area, Long avgPrice) {
+        String areaKey = StrUtil.trimToEmpty(area);
+        int band = band(avgPrice == null ? 0 : avgPrice);
+        lock.writeLock().lock();
+        try {
+            Runnable change = () -> {
+                delete(id);
+                put(id, typeId, areaKey, band);
+            };
+            change.run();
+            if (journal != null) {
+                journal.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除店铺
+     */
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Runnable change = () -> delete(id);
+            change.run();
+            if (journal != null) {
+                journal.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查询一个类型的分面数量：商圈数量在价格区间过滤后统计，价格区间数量在商圈过滤后统计
+     *
+     * @param area 已选的商圈，为空时不过滤
+     * @param priceBand 已选的价格区间下标，为空时不过滤
+     */
+    public ShopFacets facets(long typeId, String area, Integer priceBand) {
+        String areaKey = StrUtil.trimToEmpty(area);
+        ShopFacets facets = new ShopFacets();
+        lock.readLock().lock();
+        try {
+            TypeFacets type = types.get(typeId);
+            int bands = priceBounds.length + 1;
+            int[] bandCounts = new int[bands];
+            List<Map.Entry<String, Integer>> areaCounts = new ArrayList<>();
+            long total = 0;
+            if (type != null) {
+                for (Map.Entry<String, int[]> entry : type.counts.entrySet()) {
+                    int[] counts = entry.getValue();
+                    boolean areaSelected = areaKey.isEmpty() || areaKey.equals(entry.getKey());
+                    int areaCount = 0;
+                    for (int b = 0; b <= bands; b++) {
+                        boolean bandSelected = priceBand == null || (priceBand == b && b < bands);
+                        if (bandSelected) {
+                            areaCount += counts[b];
+                        }
+                        if (areaSelected && b < bands) {
+                            bandCounts[b] += counts[b];
+                        }
+                        if (areaSelected && bandSelected) {
+                            total += counts[b];
+                        }
+                    }
+                    if (!entry.getKey().isEmpty() && areaCount > 0) {
+                        areaCounts.add(new AbstractMap.SimpleEntry<>(entry.getKey(), areaCount));
+                    }
+                }
+            }
+            areaCounts.sort((a, b) -> b.getValue() - a.getValue() != 0
+                    ? b.getValue() - a.getValue() : a.getKey().compareTo(b.getKey()));
+            Map<String, Integer> areas = new LinkedHashMap<>();
+            areaCounts.forEach(e -> areas.put(e.getKey(), e.getValue()));
+            List<ShopFacets.PriceBand> priceBands = new ArrayList<>(bands);
+            for (int b = 0; b < bands; b++) {
+                priceBands.add(new ShopFacets.PriceBand(b, b == 0 ? null : priceBounds[b - 1],
+                        b == priceBounds.length ? null : priceBounds[b], bandCounts[b]));
+            }
+            facets.setTotal(total);
+            facets.setAreas(areas);
+            facets.setPriceBands(priceBands);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return facets;
+    }
+
+    /**
+     * 按分面过滤：类型、商圈、价格区间位图的交集
+     *
+     * @param area 商圈，为空时不过滤
+     * @param priceBand 价格区间下标，为空时不过滤
+     */
+    public Filter filter(long typeId, String area, Integer priceBand) {
+        String areaKey = StrUtil.trimToEmpty(area);
+        lock.readLock().lock();
+        try {
+            TypeFacets type = types.get(typeId);
+            if (type == null) {
+                return new Filter(new BitSet(), docs, docIds);
+            }
+            BitSet bits = (BitSet) type.docs.clone();
+            if (!areaKey.isEmpty()) {
+                BitSet areaBits = type.areas.get(areaKey);
+                if (areaBits == null) {
+                    bits.clear();
+                } else {
+                    bits.and(areaBits);
+                }
+            }
+            if (priceBand != null) {
+                if (priceBand < 0 || priceBand > priceBounds.length) {
+                    bits.clear();
+                } else {
+                    bits.and(type.bands[priceBand]);
+                }
+            }
+            return new Filter(bits, docs, docIds);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 价格区间的范围[min, max)，0表示不限
+     *
+     * @return 区间下标无效时为null
+     */
+    public long[] priceRange(int priceBand) {
+        if (priceBand < 0 || priceBand > priceBounds.length) {
+            return null;
+        }
+        return new long[]{priceBand == 0 ? 0 : priceBounds[priceBand - 1],
+                priceBand == priceBounds.length ? 0 : priceBounds[priceBand]};
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("ready", ready);
+            stats.put("docs", docCount);
+            stats.put("shops", docs.size());
+            stats.put("types", types.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        return stats;
+    }
+
+    private int band(long avgPrice) {
+        if (avgPrice <= 0) {
+            return NO_PRICE;
+        }
+        int band = Arrays.binarySearch(priceBounds, avgPrice);
+        // 等于分界时属于上一个区间的开始
+        return band >= 0 ? band + 1 : -band - 1;
+    }
+
+    private void clear() {
+        types.clear();
+        docs = new ConcurrentHashMap<>();
+        docIds = new long[docIds.length];
+        docCount = 0;
+    }
+
+    private void put(long id, long typeId, String area, int band) {
+        Integer existing = docs.get(id);
+        int doc;
+        if (existing != null) {
+            doc = existing;
+        } else {
+            if (docCount == docIds.length) {
+                int n = docCount * 2;
+                docIds = Arrays.copyOf(docIds, n);
+                docTypes = Arrays.copyOf(docTypes, n);
+                docAreas = Arrays.copyOf(docAreas, n);
+                docBands = Arrays.copyOf(docBands, n);
+            }
+            doc = docCount++;
+            docs.put(id, doc);
+        }
+        docIds[doc] = id;
+        docTypes[doc] = typeId;
+        docAreas[doc] = area;
+        docBands[doc] = band;
+        TypeFacets type = types.computeIfAbsent(typeId, k -> new TypeFacets(priceBounds.length + 1));
+        type.docs.set(doc);
+        type.areas.computeIfAbsent(area, k -> new BitSet()).set(doc);
+        if (band != NO_PRICE) {
+            type.bands[band].set(doc);
+        }
+        type.counts.computeIfAbsent(area, k -> new int[priceBounds.length + 2])[slot(band)]++;
+    }
+
+    /**
+     * 从位图和计数器中移除店铺，文档编号保留，再次加入时复用
+     */
+    private void delete(long id) {
+        Integer doc = docs.get(id);
+        if (doc == null) {
+            return;
+        }
+        TypeFacets type = types.get(docTypes[doc]);
+        if (type == null || !type.docs.get(doc)) {
+            return;
+        }
+        String area = docAreas[doc];
+        int band = docBands[doc];
+        type.docs.clear(doc);
+        BitSet areaBits = type.areas.get(area);
+        areaBits.clear(doc);
+        if (areaBits.isEmpty()) {
+            type.areas.remove(area);
+        }
+        if (band != NO_PRICE) {
+            type.bands[band].clear(doc);
+        }
+        int[] counts = type.counts.get(area);
+        counts[slot(band)]--;
+        if (Arrays.stream(counts).allMatch(c -> c == 0)) {
+            type.counts.remove(area);
+        }
+    }
+
+    /**
+     * 计数器数组中的位置，没有价格的店铺放在最后
+     */
+    private int slot(int band) {
+        return band == NO_PRICE ? priceBounds.length + 1 : band;
+    }
+
+    /**
+     * 全量构建时收集店铺
+     */
+    public class Builder {
+        private long[] ids = new long[1024];
+        private long[] typeIds = new long[1024];
+        private String[] areas = new String[1024];
+        private long[] prices = new long[1024];
+        private int size;
+
+        public void add(long id, long typeId, String area, Long avgPrice) {
+            if (size == ids.length) {
+                int n = size * 2;
+                ids = Arrays.copyOf(ids, n);
+                typeIds = Arrays.copyOf(typeIds, n);
+                areas = Arrays.copyOf(areas, n);
+                prices = Arrays.copyOf(prices, n);
+            }
+            ids[size] = id;
+            typeIds[size] = typeId;
+            areas[size] = StrUtil.trimToEmpty(area);
+            prices[size] = avgPrice == null ? 0 : avgPrice;
+            size++;
+        }
+    }
+
+    /**
+     * 一个类型的位图和(商圈, 价格区间)计数器，计数器数组最后一位是没有价格的店铺
+     */
+    private static class TypeFacets {
+        final BitSet docs = new BitSet();
+        final Map<String, BitSet> areas = new HashMap<>();
+        final BitSet[] bands;
+        final Map<String, int[]> counts = new HashMap<>();
+
+        TypeFacets(int bandCount) {
+            bands = new BitSet[bandCount];
+            for (int i = 0; i < bandCount; i++) {
+                bands[i] = new BitSet();
+            }
+        }
+    }
+
+    /**
+     * 分面过滤的结果，创建时复制了位图，之后的修改不影响已经创建的过滤结果，使用时不需要加锁
+     */
+    public static class Filter {
+        private final BitSet bits;
+        private final Map<Long, Integer> docs;
+        private final long[] docIds;
+
+        Filter(BitSet bits, Map<Long, Integer> docs, long[] docIds) {
+            this.bits = bits;
+            this.docs = docs;
+            this.docIds = docIds;
+        }
+
+        public boolean contains(long id) {
+            Integer doc = docs.get(id);
+            return doc != null && bits.get(doc);
+        }
+
+        public int size() {
+            return bits.cardinality();
+        }
+
+        /**
+         * 按文档编号顺序（全量构建时按店铺id升序）取[from, from + limit)的店铺id
+         */
+        public List<Long> page(int from, int limit) {
+            List<Long> ids = new ArrayList<>(limit);
+            int skipped = 0;
+            for (int doc = bits.nextSetBit(0); doc >= 0 && ids.size() < limit; doc = bits.nextSetBit(doc + 1)) {
+                if (skipped++ >= from) {
+                    ids.add(docIds[doc]);
+                }
+            }
+            return ids;
+        }
+    }
+}
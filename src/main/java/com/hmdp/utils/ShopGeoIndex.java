@@ -0,0 +1,773 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+/**
+ * 进程内的店铺地理位置索引
+ * <p>
+ * 每个店铺类型一个网格索引：按固定经纬度大小划分格子，店铺按格子排序存放在基本类型数组中，
+ * 半径查询只扫描与查询范围相交的格子，同一经度列上相邻的格子是连续的，每列只需一次二分查找。
+ * 网格本身不可变，新增、移动、删除记录在覆盖层中，覆盖层超过阈值时合并重建该类型的网格。
+ * 距离使用与Redis GEO相同的球面公式和地球半径计算，单位米，结果按距离（相同时按id）升序排列。
+ * 店铺的评分、销量、评论数、人均价格与坐标一起保存，供综合排序使用（{@link ShopRanker}）。
+ * </p>
+ */
+@Component
+public class ShopGeoIndex {
+
+    /**
+     * 与Redis GEO相同的地球半径，米
+     */
+    private static final double EARTH_RADIUS = 6372797.560856;
+
+    /**
+     * 覆盖层超过这么多店铺时合并到网格，每次查询都要遍历覆盖层，不宜过大
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    /**
+     * 每个店铺保存的排序属性个数：评分、销量、评论数、人均价格
+     */
+    private static final int ATTRS = 4;
+
+    private final double cellDegrees;
+    private final int cellsPerColumn;
+    private final int indexBits;
+
+    private volatile Map<Long, TypeIndex> types = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    /**
+     * 全量重建期间的增量修改，重建完成后在新索引上重放
+     */
+    private List<Runnable> journal;
+
+    public ShopGeoIndex(@Value("${hmdp.geo.local-index.cell-degrees:0.01}") double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+        this.cellsPerColumn = (int) Math.ceil(180 / cellDegrees) + 1;
+        long totalCells = (long) ((int) Math.ceil(360 / cellDegrees) + 1) * cellsPerColumn;
+        // 构建时把格子编号和数组下标打包到一个long里排序，格子编号占高位
+        this.indexBits = 63 - (64 - Long.numberOfLeadingZeros(totalCells));
+        if (indexBits < 20) {
+            throw new IllegalArgumentException("格子太小：" + cellDegrees);
+        }
+    }
+
+    /**
+     * 是否已经完成首次全量构建
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 全量重建：loader把所有店铺加入builder，构建完成后整体替换，期间的增量修改会重放到新索引上
+     */
+    public void rebuild(Consumer<Builder> loader) {
+        synchronized (this) {
+            journal = new ArrayList<>();
+        }
+        try {
+            Builder builder = new Builder();
+            loader.accept(builder);
+            Map<Long, TypeIndex> built = new ConcurrentHashMap<>();
+            builder.points.forEach((typeId, points) -> built.put(typeId, new TypeIndex(buildGrid(points))));
+            synchronized (this) {
+                types = built;
+                for (Runnable change : journal) {
+                    change.run();
+                }
+                ready = true;
+            }
+        } finally {
+            synchronized (this) {
+                journal = null;
+            }
+        }
+    }
+
+    /**
+     * 新增或移动店铺，类型变化时从原类型中移除
+     */
+    public void upsert(long typeId, long id, double x, double y) {
+        upsert(typeId, id, x, y, 0, 0, 0, 0);
+    }
+
+    /**
+     * 新增或修改店铺，类型变化时从原类型中移除
+     *
+     * @param score 评分，tb_shop.score，为评分的10倍
+     */
+    public synchronized void upsert(long typeId, long id, double x, double y,
+                                    int score, int sold, int comments, int avgPrice) {
+        OverlayPoint point = new OverlayPoint(x, y, new int[]{score, sold, comments, avgPrice});
+        Runnable change = () -> {
+            for (Map.Entry<Long, TypeIndex> entry : types.entrySet()) {
+                if (entry.getKey() != typeId) {
+                    entry.getValue().remove(id);
+                }
+            }
+            types.computeIfAbsent(typeId, k -> new TypeIndex(buildGrid(new Points()))).put(id, point);
+        };
+        change.run();
+        if (journal != null) {
+            journal.add(change);
+        }
+    }
+
+    /**
+     * 删除店铺
+     */
+    public synchronized void remove(long id) {
+        Runnable change = () -> {
+            for (TypeIndex index : types.values()) {
+                index.remove(id);
+            }
+        };
+        change.run();
+        if (journal != null) {
+            journal.add(change);
+        }
+    }
+
+    /**
+     * 查询半径范围内距离最近的店铺
+     *
+     * @param typeId 店铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param radiusMeters 半径，米
+     * @param limit 最多返回的数量
+     * @return 按距离升序排列的结果
+     */
+    public GeoHits search(long typeId, double x, double y, double radiusMeters, int limit) {
+        return search(typeId, x, y, radiusMeters, limit, -1, Long.MIN_VALUE, null);
+    }
+
+    /**
+     * 查询半径范围内满足filter的距离最近的店铺
+     *
+     * @param filter 店铺id过滤条件，例如分面过滤（{@link ShopFacetIndex.Filter#contains}）
+     */
+    public GeoHits search(long typeId, double x, double y, double radiusMeters, int limit, LongPredicate filter) {
+        return search(typeId, x, y, radiusMeters, limit, -1, Long.MIN_VALUE, filter);
+    }
+
+    /**
+     * 查询排在(afterDistance, afterId)之后、半径范围内距离最近的店铺，用于游标分页
+     * <p>
+     * 完全在afterDistance以内的格子不再扫描，每一页只扫描上一页末尾附近的一圈格子。
+     * </p>
+     *
+     * @param afterDistance 上一页最后一个店铺的距离，米，第一页传负数
+     * @param afterId 上一页最后一个店铺的id
+     */
+    public GeoHits search(long typeId, double x, double y, double radiusMeters, int limit,
+                          double afterDistance, long afterId) {
+        return search(typeId, x, y, radiusMeters, limit, afterDistance, afterId, null);
+    }
+
+    private GeoHits search(long typeId, double x, double y, double radiusMeters, int limit,
+                           double afterDistance, long afterId, LongPredicate filter) {
+        TypeIndex index = types.get(typeId);
+        if (index == null || limit <= 0) {
+            return GeoHits.EMPTY;
+        }
+        Scan scan = new Scan(index.state, x, y, radiusMeters, afterDistance, afterId);
+        scan.filter = filter;
+        scan.top = new TopK(limit);
+        scanRings(scan);
+        return scan.top.sorted();
+    }
+
+    /**
+     * 收集半径范围内的候选店铺及其排序属性，从近到远一圈一圈扫描，凑够maxCandidates后扫描完当前这一圈即结束
+     *
+     * @param out 候选店铺，不按距离排序
+     */
+    public void collect(long typeId, double x, double y, double radiusMeters, int maxCandidates, RankCandidates out) {
+        collect(typeId, x, y, radiusMeters, maxCandidates, out, null);
+    }
+
+    /**
+     * 收集半径范围内满足filter的候选店铺及其排序属性
+     *
+     * @param filter 店铺id过滤条件，为null时不过滤
+     */
+    public void collect(long typeId, double x, double y, double radiusMeters, int maxCandidates,
+                        RankCandidates out, LongPredicate filter) {
+        TypeIndex index = types.get(typeId);
+        if (index == null || maxCandidates <= 0) {
+            return;
+        }
+        Scan scan = new Scan(index.state, x, y, radiusMeters, -1, Long.MIN_VALUE);
+        scan.filter = filter;
+        scan.out = out;
+        scan.maxCandidates = out.size() + maxCandidates;
+        scanRings(scan);
+    }
+
+    /**
+     * 收集一个类型的全部店铺及其排序属性，距离为0，用于不按坐标查询时的排序
+     */
+    public void collectAll(long typeId, RankCandidates out) {
+        collectAll(typeId, out, null);
+    }
+
+    /**
+     * 收集一个类型中满足filter的全部店铺及其排序属性
+     *
+     * @param filter 店铺id过滤条件，为null时不过滤
+     */
+    public void collectAll(long typeId, RankCandidates out, LongPredicate filter) {
+        TypeIndex index = types.get(typeId);
+        if (index == null) {
+            return;
+        }
+        State state = index.state;
+        Grid grid = state.grid;
+        boolean overlay = !state.upserts.isEmpty() || !state.removed.isEmpty();
+        for (int i = 0; i < grid.ids.length; i++) {
+            long id = grid.ids[i];
+            if (overlay && (state.upserts.containsKey(id) || state.removed.contains(id))
+                    || filter != null && !filter.test(id)) {
+                continue;
+            }
+            int a = i * ATTRS;
+            out.add(id, 0, grid.attrs[a], grid.attrs[a + 1], grid.attrs[a + 2], grid.attrs[a + 3]);
+        }
+        for (Map.Entry<Long, OverlayPoint> entry : state.upserts.entrySet()) {
+            if (filter != null && !filter.test(entry.getKey())) {
+                continue;
+            }
+            int[] attrs = entry.getValue().attrs;
+            out.add(entry.getKey(), 0, attrs[0], attrs[1], attrs[2], attrs[3]);
+        }
+    }
+
+    /**
+     * 从查询点所在的格子开始一圈一圈向外扫描，直到超出半径或scan判断可以结束
+     */
+    private void scanRings(Scan scan) {
+        double x = scan.x;
+        double y = scan.y;
+        // 覆盖层中的店铺先处理，堆满后外层的格子可以提前结束
+        for (Map.Entry<Long, OverlayPoint> entry : scan.state.upserts.entrySet()) {
+            OverlayPoint p = entry.getValue();
+            scan.offer(entry.getKey(), p.x, p.y, Math.cos(Math.toRadians(p.y)), p.attrs, 0);
+        }
+
+        double dLon = scan.cosY < 1e-9 ? 360 : Math.min(360, scan.dLat / scan.cosY);
+        int cxFrom = cellX(x - dLon);
+        int cxTo = cellX(x + dLon);
+        int cyFrom = cellY(y - scan.dLat);
+        int cyTo = cellY(y + scan.dLat);
+        int cx0 = cellX(x);
+        int cy0 = cellY(y);
+        int maxRing = Math.max(Math.max(cx0 - cxFrom, cxTo - cx0), Math.max(cy0 - cyFrom, cyTo - cy0));
+        // 离查询点最近的格子边界，按所在纬度带最窄的经度换算，保证是下界
+        double cellLat = Math.toRadians(cellDegrees) * EARTH_RADIUS;
+        double cellLon = cellLat * Math.cos(Math.toRadians(Math.min(90, Math.abs(y) + scan.dLat)));
+        double west = (x + 180) / cellDegrees - cx0;
+        double south = (y + 90) / cellDegrees - cy0;
+        double edge = Math.min(Math.min(west, 1 - west) * cellLon, Math.min(south, 1 - south) * cellLat);
+        // 第r圈内的店铺距离不超过(r + 1)个格子的对角线，按所在纬度带最宽的经度换算，保证是上界
+        double widestLon = cellLat * Math.cos(Math.toRadians(Math.max(0, Math.abs(y) - scan.dLat)));
+        double cellDiagonal = Math.hypot(cellLat, widestLon);
+
+        // 从查询点所在的格子开始一圈一圈向外扫描，整圈都在上一页之内的跳过
+        int firstRing = 0;
+        if (scan.afterDistance > 0) {
+            firstRing = Math.max(0, (int) Math.floor(scan.afterDistance / cellDiagonal) - 1);
+        }
+        for (int r = firstRing; r <= maxRing; r++) {
+            int xa = Math.max(cxFrom, cx0 - r);
+            int xb = Math.min(cxTo, cx0 + r);
+            int ya = Math.max(cyFrom, cy0 - r);
+            int yb = Math.min(cyTo, cy0 + r);
+            for (int cx = xa; cx <= xb; cx++) {
+                if (cx == cx0 - r || cx == cx0 + r) {
+                    scanColumn(scan, cx, ya, yb);
+                } else {
+                    if (cy0 - r >= cyFrom) {
+                        scanColumn(scan, cx, cy0 - r, cy0 - r);
+                    }
+                    if (r > 0 && cy0 + r <= cyTo) {
+                        scanColumn(scan, cx, cy0 + r, cy0 + r);
+                    }
+                }
+            }
+            // 下一圈中的店铺距离都不小于这个下界
+            if (scan.isDone(edge + r * Math.min(cellLat, cellLon))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 扫描一列中纬度编号从cyFrom到cyTo的格子，同一列上纬度连续的格子在数组中也是连续的
+     */
+    private void scanColumn(Scan scan, int cx, int cyFrom, int cyTo) {
+        Grid grid = scan.state.grid;
+        long toKey = cellKey(cx, cyTo);
+        for (int c = lowerBound(grid.cellKeys, cellKey(cx, cyFrom));
+             c < grid.cellKeys.length && grid.cellKeys[c] <= toKey; c++) {
+            for (int i = grid.cellStart[c], end = grid.cellStart[c + 1]; i < end; i++) {
+                double py = grid.ys[i];
+                if (Math.abs(py - scan.y) > scan.dLat) {
+                    continue;
+                }
+                long id = grid.ids[i];
+                if (scan.overlay && (scan.state.upserts.containsKey(id) || scan.state.removed.contains(id))) {
+                    continue;
+                }
+                scan.offer(id, grid.xs[i], py, grid.cosYs[i], grid.attrs, i * ATTRS);
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("cellDegrees", cellDegrees);
+        Map<Long, Object> byType = new LinkedHashMap<>();
+        types.forEach((typeId, index) -> {
+            State state = index.state;
+            Map<String, Object> typeStats = new LinkedHashMap<>();
+            typeStats.put("shops", state.grid.ids.length);
+            typeStats.put("cells", state.grid.cellKeys.length);
+            typeStats.put("overlayUpserts", state.upserts.size());
+            typeStats.put("overlayRemoved", state.removed.size());
+            byType.put(typeId, typeStats);
+        });
+        stats.put("types", byType);
+        return stats;
+    }
+
+    private int cellX(double x) {
+        double clamped = Math.max(-180, Math.min(180, x));
+        return (int) Math.floor((clamped + 180) / cellDegrees);
+    }
+
+    private int cellY(double y) {
+        double clamped = Math.max(-90, Math.min(90, y));
+        return (int) Math.floor((clamped + 90) / cellDegrees);
+    }
+
+    private long cellKey(int cx, int cy) {
+        return (long) cx * cellsPerColumn + cy;
+    }
+
+    private static int lowerBound(long[] keys, long key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 两点之间的球面距离，米，与Redis GEO的计算方式一致
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        return distance(x1, y1, Math.cos(Math.toRadians(y1)), x2, y2, Math.cos(Math.toRadians(y2)));
+    }
+
+    /**
+     * 球面距离（haversine），与Redis GEO的计算方式一致
+     */
+    private static double distance(double x1, double y1, double cosY1, double x2, double y2, double cosY2) {
+        double u = Math.sin(Math.toRadians(y2 - y1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + cosY1 * cosY2 * v * v));
+    }
+
+    private Grid buildGrid(Points points) {
+        int n = points.size;
+        long[] ids = points.ids;
+        double[] xs = points.xs;
+        double[] ys = points.ys;
+        if (n >= (1L << indexBits)) {
+            throw new IllegalArgumentException("店铺数量超过索引容量：" + n);
+        }
+        // 格子编号在高位、下标在低位，一次基本类型排序完成按格子分组
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            packed[i] = (cellKey(cellX(xs[i]), cellY(ys[i])) << indexBits) | i;
+        }
+        Arrays.sort(packed);
+        long mask = (1L << indexBits) - 1;
+        long[] sortedIds = new long[n];
+        double[] sortedXs = new double[n];
+        double[] sortedYs = new double[n];
+        double[] cosYs = new double[n];
+        int[] sortedAttrs = new int[n * ATTRS];
+        long[] keys = new long[n];
+        int[] starts = new int[n + 1];
+        int cells = 0;
+        long lastKey = -1;
+        for (int i = 0; i < n; i++) {
+            int j = (int) (packed[i] & mask);
+            long key = packed[i] >>> indexBits;
+            if (key != lastKey) {
+                keys[cells] = key;
+                starts[cells] = i;
+                cells++;
+                lastKey = key;
+            }
+            sortedIds[i] = ids[j];
+            sortedXs[i] = xs[j];
+            sortedYs[i] = ys[j];
+            cosYs[i] = Math.cos(Math.toRadians(ys[j]));
+            System.arraycopy(points.attrs, j * ATTRS, sortedAttrs, i * ATTRS, ATTRS);
+        }
+        starts[cells] = n;
+        long[] idsForLookup = Arrays.copyOf(sortedIds, n);
+        Arrays.sort(idsForLookup);
+        return new Grid(Arrays.copyOf(keys, cells), Arrays.copyOf(starts, cells + 1),
+                sortedIds, sortedXs, sortedYs, cosYs, sortedAttrs, idsForLookup);
+    }
+
+    /**
+     * 全量构建时收集店铺坐标
+     */
+    public static class Builder {
+        private final Map<Long, Points> points = new HashMap<>();
+
+        public void add(long typeId, long id, double x, double y) {
+            add(typeId, id, x, y, 0, 0, 0, 0);
+        }
+
+        /**
+         * @param score 评分，tb_shop.score，为评分的10倍
+         */
+        public void add(long typeId, long id, double x, double y, int score, int sold, int comments, int avgPrice) {
+            points.computeIfAbsent(typeId, k -> new Points()).add(id, x, y, score, sold, comments, avgPrice);
+        }
+    }
+
+    private static class Points {
+        long[] ids = new long[256];
+        double[] xs = new double[256];
+        double[] ys = new double[256];
+        int[] attrs = new int[256 * ATTRS];
+        int size;
+
+        void add(long id, double x, double y, int score, int sold, int comments, int avgPrice) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+                attrs = Arrays.copyOf(attrs, size * 2 * ATTRS);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            int a = size * ATTRS;
+            attrs[a] = score;
+            attrs[a + 1] = sold;
+            attrs[a + 2] = comments;
+            attrs[a + 3] = avgPrice;
+            size++;
+        }
+    }
+
+    /**
+     * 不可变的网格：cellKeys为有店铺的格子编号（升序），cellStart[c]到cellStart[c + 1]是第c个格子中的店铺，
+     * 第i个店铺的排序属性是attrs[i * ATTRS]开始的ATTRS个数
+     */
+    private static class Grid {
+        final long[] cellKeys;
+        final int[] cellStart;
+        final long[] ids;
+        final double[] xs;
+        final double[] ys;
+        final double[] cosYs;
+        final int[] attrs;
+        final long[] sortedIds;
+
+        Grid(long[] cellKeys, int[] cellStart, long[] ids, double[] xs, double[] ys, double[] cosYs,
+             int[] attrs, long[] sortedIds) {
+            this.cellKeys = cellKeys;
+            this.cellStart = cellStart;
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+            this.cosYs = cosYs;
+            this.attrs = attrs;
+            this.sortedIds = sortedIds;
+        }
+
+        boolean contains(long id) {
+            return Arrays.binarySearch(sortedIds, id) >= 0;
+        }
+    }
+
+    private static class OverlayPoint {
+        final double x;
+        final double y;
+        final int[] attrs;
+
+        OverlayPoint(double x, double y, int[] attrs) {
+            this.x = x;
+            this.y = y;
+            this.attrs = attrs;
+        }
+    }
+
+    /**
+     * 网格加覆盖层：upserts中的店铺覆盖网格中的同id店铺，removed中的店铺从网格中排除
+     */
+    private static class State {
+        final Grid grid;
+        final Map<Long, OverlayPoint> upserts = new ConcurrentHashMap<>();
+        final Set<Long> removed = ConcurrentHashMap.newKeySet();
+
+        State(Grid grid) {
+            this.grid = grid;
+        }
+    }
+
+    /**
+     * 一个店铺类型的索引，修改都在外层的锁内进行，查询无锁读取当前状态
+     */
+    private class TypeIndex {
+        volatile State state;
+
+        TypeIndex(Grid grid) {
+            this.state = new State(grid);
+        }
+
+        void put(long id, OverlayPoint point) {
+            State s = state;
+            s.upserts.put(id, point);
+            s.removed.remove(id);
+            compactIfNeeded();
+        }
+
+        void remove(long id) {
+            State s = state;
+            s.upserts.remove(id);
+            if (s.grid.contains(id)) {
+                s.removed.add(id);
+            }
+            compactIfNeeded();
+        }
+
+        private void compactIfNeeded() {
+            State s = state;
+            if (s.upserts.size() + s.removed.size() < COMPACT_THRESHOLD) {
+                return;
+            }
+            Grid grid = s.grid;
+            Points points = new Points();
+            for (int i = 0; i < grid.ids.length; i++) {
+                long id = grid.ids[i];
+                if (s.upserts.containsKey(id) || s.removed.contains(id)) {
+                    continue;
+                }
+                int a = i * ATTRS;
+                points.add(id, grid.xs[i], grid.ys[i],
+                        grid.attrs[a], grid.attrs[a + 1], grid.attrs[a + 2], grid.attrs[a + 3]);
+            }
+            for (Map.Entry<Long, OverlayPoint> entry : s.upserts.entrySet()) {
+                OverlayPoint p = entry.getValue();
+                points.add(entry.getKey(), p.x, p.y, p.attrs[0], p.attrs[1], p.attrs[2], p.attrs[3]);
+            }
+            state = new State(buildGrid(points));
+        }
+    }
+
+    /**
+     * 一次扫描的参数和结果：查询最近的店铺时放入top，收集候选时放入out
+     */
+    private static class Scan {
+        final State state;
+        final boolean overlay;
+        final double x;
+        final double y;
+        final double cosY;
+        final double dLat;
+        final double radiusMeters;
+        final double afterDistance;
+        final long afterId;
+        LongPredicate filter;
+        TopK top;
+        RankCandidates out;
+        int maxCandidates;
+
+        Scan(State state, double x, double y, double radiusMeters, double afterDistance, long afterId) {
+            this.state = state;
+            this.overlay = !state.upserts.isEmpty() || !state.removed.isEmpty();
+            this.x = x;
+            this.y = y;
+            this.cosY = Math.cos(Math.toRadians(y));
+            this.dLat = Math.toDegrees(radiusMeters / EARTH_RADIUS);
+            this.radiusMeters = radiusMeters;
+            this.afterDistance = afterDistance;
+            this.afterId = afterId;
+        }
+
+        void offer(long id, double px, double py, double cosPy, int[] attrs, int offset) {
+            double d = distance(x, y, cosY, px, py, cosPy);
+            if (d > radiusMeters || filter != null && !filter.test(id)) {
+                return;
+            }
+            if (out != null) {
+                out.add(id, d, attrs[offset], attrs[offset + 1], attrs[offset + 2], attrs[offset + 3]);
+            } else if (TopK.less(afterDistance, afterId, d, id)) {
+                top.offer(d, id);
+            }
+        }
+
+        /**
+         * 扫描完一圈后是否可以结束
+         *
+         * @param nextRingMin 下一圈中店铺距离的下界
+         */
+        boolean isDone(double nextRingMin) {
+            if (out != null) {
+                return out.size() >= maxCandidates;
+            }
+            // 已经找到的第limit个比下一圈更近
+            return top.isFull() && top.maxDistance() < nextRingMin;
+        }
+    }
+
+    /**
+     * 有界的最大堆，保留距离最小的k个结果
+     */
+    private static class TopK {
+        final double[] distances;
+        final long[] ids;
+        int size;
+
+        TopK(int k) {
+            distances = new double[k];
+            ids = new long[k];
+        }
+
+        boolean isFull() {
+            return size == distances.length;
+        }
+
+        double maxDistance() {
+            return distances[0];
+        }
+
+        void offer(double d, long id) {
+            if (size < distances.length) {
+                distances[size] = d;
+                ids[size] = id;
+                siftUp(size++);
+            } else if (less(d, id, distances[0], ids[0])) {
+                distances[0] = d;
+                ids[0] = id;
+                siftDown(0, size);
+            }
+        }
+
+        GeoHits sorted() {
+            // 堆排序，依次把最大值换到末尾
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            return new GeoHits(ids, distances, size);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(distances[parent], ids[parent], distances[i], ids[i])) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i, int n) {
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < n && less(distances[largest], ids[largest], distances[left], ids[left])) {
+                    largest = left;
+                }
+                if (right < n && less(distances[largest], ids[largest], distances[right], ids[right])) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            double d = distances[a];
+            distances[a] = distances[b];
+            distances[b] = d;
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+        }
+
+        private static boolean less(double d1, long id1, double d2, long id2) {
+            return d1 < d2 || (d1 == d2 && id1 < id2);
+        }
+    }
+
+    /**
+     * 查询结果，按距离升序排列
+     */
+    public static class GeoHits {
+        static final GeoHits EMPTY = new GeoHits(new long[0], new double[0], 0);
+
+        private final long[] ids;
+        private final double[] distances;
+        private final int size;
+
+        GeoHits(long[] ids, double[] distances, int size) {
+            this.ids = ids;
+            this.distances = distances;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long id(int i) {
+            return ids[i];
+        }
+
+        /**
+         * 距离，米
+         */
+        public double distance(int i) {
+            return distances[i];
+        }
+    }
+}
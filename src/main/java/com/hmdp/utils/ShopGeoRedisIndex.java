@@ -0,0 +1,236 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * Redis中店铺地理位置（shop:geo:{typeId}）的维护
+ * <p>
+ * 店铺新增、修改后增量GEOADD，类型变化时从原类型的key中ZREM；全量重建时流式写入临时key，
+ * 完成后RENAME替换，查询不会看到构建了一半的数据。
+ * 重建期间在Redis中设置标记，各节点的增量修改同时写入临时key，替换时不会丢失重建期间的修改。
+ * 每次修改递增所涉及类型的版本号（shop:geo:version:{typeId}），使{@link ShopGeoResultCache}中的结果失效。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ShopGeoRedisIndex {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 全量重建时每批通过管道写入的店铺数量
+     */
+    @Value("${hmdp.geo.rebuild.pipeline-size:1000}")
+    private int pipelineSize;
+
+    /**
+     * 新增或移动店铺
+     *
+     * @param oldTypeId 修改前的类型，新增时为null
+     */
+    public void upsert(Long oldTypeId, long typeId, long id, double x, double y) {
+        byte[] member = String.valueOf(id).getBytes(StandardCharsets.UTF_8);
+        Point point = new Point(x, y);
+        String rebuilding = stringRedisTemplate.opsForValue().get(SHOP_GEO_REBUILDING_KEY);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            upsert(connection, SHOP_GEO_KEY, oldTypeId, typeId, member, point);
+            if (rebuilding != null) {
+                String prefix = rebuildKeyPrefix(rebuilding);
+                upsert(connection, prefix, oldTypeId, typeId, member, point);
+                connection.keyCommands().expire(bytes(prefix + typeId), SHOP_GEO_REBUILD_TTL);
+            }
+            if (oldTypeId != null && oldTypeId != typeId) {
+                connection.stringCommands().incr(bytes(SHOP_GEO_VERSION_KEY + oldTypeId));
+            }
+            connection.stringCommands().incr(bytes(SHOP_GEO_VERSION_KEY + typeId));
+            return null;
+        });
+    }
+
+    /**
+     * 删除店铺
+     */
+    public void remove(long typeId, long id) {
+        byte[] member = String.valueOf(id).getBytes(StandardCharsets.UTF_8);
+        String rebuilding = stringRedisTemplate.opsForValue().get(SHOP_GEO_REBUILDING_KEY);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.zSetCommands().zRem(bytes(SHOP_GEO_KEY + typeId), member);
+            if (rebuilding != null) {
+                connection.zSetCommands().zRem(bytes(rebuildKeyPrefix(rebuilding) + typeId), member);
+            }
+            connection.stringCommands().incr(bytes(SHOP_GEO_VERSION_KEY + typeId));
+            return null;
+        });
+    }
+
+    /**
+     * 是否还没有任何店铺类型的地理位置数据
+     */
+    public boolean isEmpty() {
+        return liveKeys().isEmpty();
+    }
+
+    /**
+     * 开始一次全量重建，同一时间只允许一个重建任务
+     *
+     * @throws IllegalStateException 已有重建任务在进行
+     */
+    public Rebuild beginRebuild() {
+        String token = UUID.randomUUID().toString(true);
+        Boolean acquired = stringRedisTemplate.opsForValue()
+                .setIfAbsent(SHOP_GEO_REBUILDING_KEY, token, SHOP_GEO_REBUILD_TTL, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(acquired)) {
+            throw new IllegalStateException("已有店铺地理位置重建任务在进行");
+        }
+        return new Rebuild(token);
+    }
+
+    private static void upsert(RedisConnection connection, String prefix, Long oldTypeId, long typeId,
+                               byte[] member, Point point) {
+        if (oldTypeId != null && oldTypeId != typeId) {
+            connection.zSetCommands().zRem(bytes(prefix + oldTypeId), member);
+        }
+        connection.geoCommands().geoAdd(bytes(prefix + typeId), point, member);
+    }
+
+    private static String rebuildKeyPrefix(String token) {
+        return SHOP_GEO_REBUILD_KEY + token + ":";
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 线上使用的key：shop:geo:后面是类型id，排除快照、重建等其它key
+     */
+    private List<String> liveKeys() {
+        List<String> keys = scan(SHOP_GEO_KEY + "*");
+        keys.removeIf(key -> !key.substring(SHOP_GEO_KEY.length()).matches("\\d+"));
+        return keys;
+    }
+
+    private List<String> scan(String pattern) {
+        List<String> keys = new ArrayList<>();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(ScanOptions.scanOptions().match(pattern).count(1000).build())) {
+            cursor.forEachRemaining(keys::add);
+        }
+        return keys;
+    }
+
+    /**
+     * 一次全量重建：add写入临时key，commit替换线上的key，失败时abort清理临时key
+     */
+    public class Rebuild {
+        private final String token;
+        private final String prefix;
+        private final Map<Long, List<RedisGeoCommands.GeoLocation<byte[]>>> pending = new HashMap<>();
+        private int pendingCount;
+        private long total;
+
+        private Rebuild(String token) {
+            this.token = token;
+            this.prefix = rebuildKeyPrefix(token);
+        }
+
+        public void add(long typeId, long id, double x, double y) {
+            pending.computeIfAbsent(typeId, k -> new ArrayList<>()).add(new RedisGeoCommands.GeoLocation<>(
+                    String.valueOf(id).getBytes(StandardCharsets.UTF_8), new Point(x, y)));
+            total++;
+            if (++pendingCount >= pipelineSize) {
+                flush();
+            }
+        }
+
+        /**
+         * 把临时key替换为线上的key，并删除已经没有店铺的类型
+         *
+         * @return 写入的店铺数量
+         */
+        public long commit() {
+            flush();
+            List<String> rebuilt = scan(prefix + "*");
+            List<String> live = new ArrayList<>(rebuilt.size());
+            for (String tempKey : rebuilt) {
+                String liveKey = SHOP_GEO_KEY + tempKey.substring(prefix.length());
+                // RENAME会带上临时key的过期时间，替换后去掉
+                stringRedisTemplate.rename(tempKey, liveKey);
+                stringRedisTemplate.persist(liveKey);
+                live.add(liveKey);
+            }
+            List<String> stale = liveKeys();
+            stale.removeAll(live);
+            if (!stale.isEmpty()) {
+                stringRedisTemplate.delete(stale);
+            }
+            bumpVersions(live);
+            bumpVersions(stale);
+            release();
+            log.info("店铺地理位置重建完成，店铺数量：{}，类型数量：{}", total, live.size());
+            return total;
+        }
+
+        public void abort() {
+            try {
+                List<String> rebuilt = scan(prefix + "*");
+                if (!rebuilt.isEmpty()) {
+                    stringRedisTemplate.delete(rebuilt);
+                }
+            } finally {
+                release();
+            }
+        }
+
+        private void bumpVersions(List<String> liveKeys) {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String liveKey : liveKeys) {
+                    connection.stringCommands().incr(bytes(SHOP_GEO_VERSION_KEY + liveKey.substring(SHOP_GEO_KEY.length())));
+                }
+                return null;
+            });
+        }
+
+        private void flush() {
+            if (pendingCount == 0) {
+                return;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Map.Entry<Long, List<RedisGeoCommands.GeoLocation<byte[]>>> entry : pending.entrySet()) {
+                    byte[] key = bytes(prefix + entry.getKey());
+                    connection.geoCommands().geoAdd(key, entry.getValue());
+                    connection.keyCommands().expire(key, SHOP_GEO_REBUILD_TTL);
+                }
+                return null;
+            });
+            pending.clear();
+            pendingCount = 0;
+        }
+
+        private void release() {
+            if (token.equals(stringRedisTemplate.opsForValue().get(SHOP_GEO_REBUILDING_KEY))) {
+                stringRedisTemplate.delete(SHOP_GEO_REBUILDING_KEY);
+            }
+        }
+    }
+}
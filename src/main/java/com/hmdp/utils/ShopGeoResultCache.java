@@ -0,0 +1,215 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 附近店铺查询结果的短期缓存，按(类型, geohash格子, 排序方式, 页码)缓存排好序的店铺id和坐标
+ * <p>
+ * 同一格子内的用户共用以格子中心查询的结果，距离由调用方按用户的实际坐标和缓存的坐标重新计算，
+ * 按距离排序时每一页再按重新计算的距离排序；页与页之间的顺序以格子中心为准，
+ * 误差不超过半个格子的对角线（精度7的格子约150米见方，误差约110米）。
+ * 每个类型在Redis中有一个版本号（shop:geo:version:{typeId}），店铺地理位置变化时递增，
+ * 缓存的值带有写入时的版本号，读取时与当前版本号一次MGET取回，版本号不一致视为未命中。
+ * 同一节点上同一个key的并发未命中只查询一次。
+ * </p>
+ */
+@Component
+public class ShopGeoResultCache {
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.geo.result-cache.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * geohash的位数，1到12
+     */
+    @Value("${hmdp.geo.result-cache.precision:7}")
+    private int precision;
+
+    @Value("${hmdp.geo.result-cache.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    private final Map<String, CompletableFuture<List<Hit>>> loading = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查询缓存，未命中时以格子中心的坐标调用loader查询并写入缓存
+     *
+     * @param loader 参数为格子中心的经度、纬度，返回排好序的一页店铺
+     * @return 排好序的店铺id和坐标
+     */
+    public List<Hit> get(long typeId, double x, double y, String sortBy, int page,
+                         BiFunction<Double, Double, List<Hit>> loader) {
+        String cell = geohash(x, y, precision);
+        String key = CACHE_SHOP_GEO_KEY + typeId + ":" + sortBy + ":" + cell + ":" + page;
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(Arrays.asList(SHOP_GEO_VERSION_KEY + typeId, key));
+        String version = values == null || values.get(0) == null ? "0" : values.get(0);
+        String cached = values == null ? null : values.get(1);
+        if (cached != null && cached.startsWith(version + "|")) {
+            return decode(cached.substring(version.length() + 1));
+        }
+
+        CompletableFuture<List<Hit>> future = new CompletableFuture<>();
+        CompletableFuture<List<Hit>> running = loading.putIfAbsent(key, future);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            double[] center = center(cell);
+            List<Hit> hits = loader.apply(center[0], center[1]);
+            // 写入查询前读到的版本号，查询期间有修改时这份结果在下次读取时就会失效
+            stringRedisTemplate.opsForValue().set(key, version + "|" + encode(hits), ttlSeconds, TimeUnit.SECONDS);
+            future.complete(hits);
+            return hits;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key);
+        }
+    }
+
+    private static String encode(List<Hit> hits) {
+        StringBuilder sb = new StringBuilder(hits.size() * 32);
+        for (Hit hit : hits) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(hit.id).append(',').append(hit.x).append(',').append(hit.y);
+        }
+        return sb.toString();
+    }
+
+    private static List<Hit> decode(String value) {
+        if (value.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> items = StrUtil.split(value, ';');
+        List<Hit> hits = new ArrayList<>(items.size());
+        for (String item : items) {
+            List<String> parts = StrUtil.split(item, ',');
+            hits.add(new Hit(Long.parseLong(parts.get(0)), Double.parseDouble(parts.get(1)), Double.parseDouble(parts.get(2))));
+        }
+        return hits;
+    }
+
+    /**
+     * 标准geohash编码，经度和纬度的二分位交替排列，每5位一个base32字符
+     */
+    public static String geohash(double x, double y, int precision) {
+        double minX = -180, maxX = 180, minY = -90, maxY = 90;
+        StringBuilder sb = new StringBuilder(precision);
+        boolean lon = true;
+        int bits = 0;
+        int ch = 0;
+        while (sb.length() < precision) {
+            if (lon) {
+                double mid = (minX + maxX) / 2;
+                if (x >= mid) {
+                    ch = (ch << 1) | 1;
+                    minX = mid;
+                } else {
+                    ch <<= 1;
+                    maxX = mid;
+                }
+            } else {
+                double mid = (minY + maxY) / 2;
+                if (y >= mid) {
+                    ch = (ch << 1) | 1;
+                    minY = mid;
+                } else {
+                    ch <<= 1;
+                    maxY = mid;
+                }
+            }
+            lon = !lon;
+            if (++bits == 5) {
+                sb.append(BASE32.charAt(ch));
+                bits = 0;
+                ch = 0;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * geohash格子中心的经度、纬度
+     */
+    public static double[] center(String geohash) {
+        double minX = -180, maxX = 180, minY = -90, maxY = 90;
+        boolean lon = true;
+        for (int i = 0; i < geohash.length(); i++) {
+            int ch = BASE32.indexOf(geohash.charAt(i));
+            for (int bit = 4; bit >= 0; bit--) {
+                boolean high = ((ch >> bit) & 1) == 1;
+                if (lon) {
+                    double mid = (minX + maxX) / 2;
+                    if (high) {
+                        minX = mid;
+                    } else {
+                        maxX = mid;
+                    }
+                } else {
+                    double mid = (minY + maxY) / 2;
+                    if (high) {
+                        minY = mid;
+                    } else {
+                        maxY = mid;
+                    }
+                }
+                lon = !lon;
+            }
+        }
+        return new double[]{(minX + maxX) / 2, (minY + maxY) / 2};
+    }
+
+    /**
+     * 缓存的一个店铺：id和坐标
+     */
+    public static class Hit {
+        private final long id;
+        private final double x;
+        private final double y;
+
+        public Hit(long id, double x, double y) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.hmdp.utils;
+
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 店铺列表的综合排序：距离衰减、评分、销量、评论数、人均价格的加权和
+ * <p>
+ * 候选店铺按列存放在{@link RankCandidates}中，打分是一次顺序遍历基本类型数组的循环，
+ * 只用大小为K的最小堆选出前K个，不对全部候选排序。
+ * 权重按店铺类型配置：hmdp.rank.types.{typeId}.xxx，未配置的项使用hmdp.rank.weights.xxx。
+ * </p>
+ */
+@Component
+public class ShopRanker {
+
+    private static final String TYPE_PREFIX = "hmdp.rank.types.";
+    private static final String DEFAULT_PREFIX = "hmdp.rank.weights.";
+
+    @Resource
+    private Environment environment;
+
+    private final Map<Long, Weights> weightsByType = new ConcurrentHashMap<>();
+
+    /**
+     * 店铺类型的排序权重，配置在启动后读取一次
+     */
+    public Weights weights(long typeId) {
+        return weightsByType.computeIfAbsent(typeId, this::loadWeights);
+    }
+
+    private Weights loadWeights(long typeId) {
+        Weights defaults = new Weights();
+        Weights w = new Weights();
+        w.distance = property(typeId, "distance", defaults.distance);
+        w.score = property(typeId, "score", defaults.score);
+        w.sold = property(typeId, "sold", defaults.sold);
+        w.comments = property(typeId, "comments", defaults.comments);
+        w.price = property(typeId, "price", defaults.price);
+        w.decayMeters = property(typeId, "decay-meters", defaults.decayMeters);
+        w.soldHalf = property(typeId, "sold-half", defaults.soldHalf);
+        w.commentsHalf = property(typeId, "comments-half", defaults.commentsHalf);
+        w.targetPrice = property(typeId, "target-price", defaults.targetPrice);
+        return w;
+    }
+
+    private double property(long typeId, String name, double defaultValue) {
+        Double value = environment.getProperty(TYPE_PREFIX + typeId + "." + name, Double.class);
+        if (value == null) {
+            value = environment.getProperty(DEFAULT_PREFIX + name, Double.class, defaultValue);
+        }
+        return value;
+    }
+
+    /**
+     * 选出综合得分最高的k个候选
+     *
+     * @param candidates 候选店铺
+     * @param w 排序权重
+     * @param k 最多返回的数量
+     * @return 候选的下标，按得分降序（相同时按id升序）排列
+     */
+    public int[] rank(RankCandidates candidates, Weights w, int k) {
+        int n = candidates.size;
+        k = Math.min(k, n);
+        if (k <= 0) {
+            return new int[0];
+        }
+        double[] distances = candidates.distances;
+        int[] scores = candidates.scores;
+        int[] solds = candidates.solds;
+        int[] comments = candidates.comments;
+        int[] prices = candidates.avgPrices;
+        long[] ids = candidates.ids;
+        double scoreWeight = w.score / 50;
+        double targetPrice = w.targetPrice;
+
+        // 最小堆，堆顶是目前前k个中得分最低的
+        double[] heapScores = new double[k];
+        int[] heap = new int[k];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            // 距离按decayMeters/(decayMeters + d)衰减，在decayMeters处减半，避免每个候选计算exp
+            double s = w.distance * w.decayMeters / (w.decayMeters + distances[i])
+                    + scoreWeight * scores[i]
+                    + w.sold * solds[i] / (solds[i] + w.soldHalf)
+                    + w.comments * comments[i] / (comments[i] + w.commentsHalf);
+            int p = prices[i];
+            if (targetPrice <= 0 || p <= 0) {
+                // 没有目标价或没有价格时给中间值
+                s += w.price * 0.5;
+            } else {
+                s += w.price * (p < targetPrice ? p / targetPrice : targetPrice / p);
+            }
+            if (size < k) {
+                heapScores[size] = s;
+                heap[size] = i;
+                siftUp(heapScores, heap, ids, size++);
+            } else if (better(s, ids[i], heapScores[0], ids[heap[0]])) {
+                heapScores[0] = s;
+                heap[0] = i;
+                siftDown(heapScores, heap, ids, 0, k);
+            }
+        }
+        // 堆排序，依次把最低分换到末尾，得到降序
+        for (int end = k - 1; end > 0; end--) {
+            swap(heapScores, heap, 0, end);
+            siftDown(heapScores, heap, ids, 0, end);
+        }
+        return heap;
+    }
+
+    private static void siftUp(double[] scores, int[] heap, long[] ids, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(scores[parent], ids[heap[parent]], scores[i], ids[heap[i]])) {
+                return;
+            }
+            swap(scores, heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(double[] scores, int[] heap, long[] ids, int i, int n) {
+        while (true) {
+            int worst = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < n && better(scores[worst], ids[heap[worst]], scores[left], ids[heap[left]])) {
+                worst = left;
+            }
+            if (right < n && better(scores[worst], ids[heap[worst]], scores[right], ids[heap[right]])) {
+                worst = right;
+            }
+            if (worst == i) {
+                return;
+            }
+            swap(scores, heap, i, worst);
+            i = worst;
+        }
+    }
+
+    private static void swap(double[] scores, int[] heap, int a, int b) {
+        double s = scores[a];
+        scores[a] = scores[b];
+        scores[b] = s;
+        int h = heap[a];
+        heap[a] = heap[b];
+        heap[b] = h;
+    }
+
+    /**
+     * 得分高的排在前面，相同时id小的排在前面
+     */
+    private static boolean better(double s1, long id1, double s2, long id2) {
+        return s1 > s2 || (s1 == s2 && id1 < id2);
+    }
+
+    /**
+     * 排序权重，各项得分都在0到1之间，乘以权重后相加
+     */
+    public static class Weights {
+        /**
+         * 距离的权重
+         */
+        public double distance = 3;
+        /**
+         * 评分的权重，评分按满分5分换算
+         */
+        public double score = 2;
+        /**
+         * 销量的权重
+         */
+        public double sold = 1;
+        /**
+         * 评论数的权重
+         */
+        public double comments = 0.5;
+        /**
+         * 人均价格接近目标价的权重
+         */
+        public double price = 0.5;
+        /**
+         * 距离得分减半的距离，米
+         */
+        public double decayMeters = 2000;
+        /**
+         * 销量得分为0.5时的销量
+         */
+        public double soldHalf = 1000;
+        /**
+         * 评论数得分为0.5时的评论数
+         */
+        public double commentsHalf = 500;
+        /**
+         * 目标人均价格，不大于0时不参与排序
+         */
+        public double targetPrice = 0;
+    }
+}
@@ -0,0 +1,502 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 进程内的店铺全文检索索引，索引店铺的名称、商圈和地址
+ * <p>
+ * 分词：汉字按单字和相邻两字（bigram）切分，字母数字按整词及其前缀切分，不依赖词典。
+ * 查询时多字的汉字片段只用bigram求交集，得到候选后再校验每个查询片段确实连续出现，排除bigram拼凑出的误匹配。
+ * 排序：名称中出现优先于只在商圈、地址中出现，名称以查询开头、与查询完全相同的进一步加分，分数相同按名称长度、id升序。
+ * 倒排表不可变，新增、修改、删除记录在覆盖层中，覆盖层超过阈值时合并重建。
+ * </p>
+ */
+@Component
+public class ShopSearchIndex {
+
+    /**
+     * 覆盖层超过这么多店铺时合并重建，每次查询都要遍历覆盖层，不宜过大
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    /**
+     * 字母数字词最多索引的前缀长度，更长的查询词截断后查倒排表，再由候选校验保证准确
+     */
+    private static final int MAX_PREFIX = 16;
+
+    /**
+     * 拼接名称、商圈、地址的分隔符，不是字母数字，分词时自然断开
+     */
+    private static final char FIELD_SEPARATOR = '\u0001';
+
+    private static final Comparator<Hit> WORST_FIRST = Comparator
+            .comparingDouble((Hit hit) -> hit.score)
+            .thenComparing(Comparator.comparingInt((Hit hit) -> hit.nameLength).reversed())
+            .thenComparing(Comparator.comparingLong((Hit hit) -> hit.id).reversed());
+
+    private volatile State state = new State(new Segment(new long[0], new String[0], new HashMap<>()));
+
+    private volatile boolean ready;
+
+    /**
+     * 全量重建期间的增量修改，重建完成后在新索引上重放
+     */
+    private List<Runnable> journal;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 全量重建：loader把所有店铺加入builder，构建完成后整体替换，期间的增量修改会重放到新索引上
+     */
+    public void rebuild(Consumer<Builder> loader) {
+        synchronized (this) {
+            journal = new ArrayList<>();
+        }
+        try {
+            Builder builder = new Builder();
+            loader.accept(builder);
+            Segment segment = builder.build();
+            synchronized (this) {
+                state = new State(segment);
+                for (Runnable change : journal) {
+                    change.run();
+                }
+                ready = true;
+            }
+        } finally {
+            synchronized (this) {
+                journal = null;
+            }
+        }
+    }
+
+    /**
+     * 新增或修改店铺
+     */
+    public synchronized void upsert(long id, String name, String area, String address) {
+        String text = text(name, area, address);
+        Runnable change = () -> {
+            State s = state;
+            s.upserts.put(id, text);
+            s.removed.remove(id);
+            compactIfNeeded();
+        };
+        change.run();
+        if (journal != null) {
+            journal.add(change);
+        }
+    }
+
+    /**
+     * 删除店铺
+     */
+    public synchronized void remove(long id) {
+        Runnable change = () -> {
+            State s = state;
+            s.upserts.remove(id);
+            if (s.segment.contains(id)) {
+                s.removed.add(id);
+            }
+            compactIfNeeded();
+        };
+        change.run();
+        if (journal != null) {
+            journal.add(change);
+        }
+    }
+
+    /**
+     * 搜索店铺
+     *
+     * @param query 关键字
+     * @param offset 跳过的数量
+     * @param limit 返回的数量
+     * @return 按相关度排序的一页店铺id及匹配的总数
+     */
+    public SearchHits search(String query, int offset, int limit) {
+        List<String> segments = segments(query);
+        if (segments.isEmpty() || limit <= 0) {
+            return new SearchHits(Collections.emptyList(), 0);
+        }
+        String normalized = String.join(" ", segments);
+        State s = state;
+        Segment segment = s.segment;
+        int k = offset + limit;
+        PriorityQueue<Hit> top = new PriorityQueue<>(Math.min(k, 64) + 1, WORST_FIRST);
+        int total = 0;
+
+        boolean overlay = !s.upserts.isEmpty() || !s.removed.isEmpty();
+        int[] candidates = segment.candidates(queryTokens(segments));
+        for (int doc : candidates) {
+            long id = segment.ids[doc];
+            if (overlay && (s.upserts.containsKey(id) || s.removed.contains(id))) {
+                continue;
+            }
+            if (offer(top, k, id, segment.texts[doc], segments, normalized)) {
+                total++;
+            }
+        }
+        for (Map.Entry<Long, String> entry : s.upserts.entrySet()) {
+            if (offer(top, k, entry.getKey(), entry.getValue(), segments, normalized)) {
+                total++;
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort(WORST_FIRST.reversed());
+        List<Long> ids = new ArrayList<>(Math.max(0, Math.min(limit, hits.size() - offset)));
+        for (int i = offset; i < hits.size(); i++) {
+            ids.add(hits.get(i).id);
+        }
+        return new SearchHits(ids, total);
+    }
+
+    public Map<String, Object> stats() {
+        State s = state;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("shops", s.segment.ids.length);
+        stats.put("tokens", s.segment.postings.size());
+        stats.put("overlayUpserts", s.upserts.size());
+        stats.put("overlayRemoved", s.removed.size());
+        return stats;
+    }
+
+    /**
+     * 校验并打分，匹配时放入有界的堆
+     *
+     * @return 是否匹配
+     */
+    private static boolean offer(PriorityQueue<Hit> top, int k, long id, String text,
+                                 List<String> segments, String normalized) {
+        int nameLength = text.indexOf(FIELD_SEPARATOR);
+        double score = 0;
+        for (String segment : segments) {
+            int at = indexOfToken(text, segment);
+            if (at < 0) {
+                return false;
+            }
+            if (at + segment.length() <= nameLength) {
+                score += at == 0 ? 5 : 3;
+            } else {
+                score += 1;
+            }
+        }
+        if (nameLength == normalized.length() && text.startsWith(normalized)) {
+            score += 10;
+        }
+        Hit hit = new Hit(id, score, nameLength);
+        if (top.size() < k) {
+            top.offer(hit);
+        } else if (WORST_FIRST.compare(hit, top.peek()) > 0) {
+            top.poll();
+            top.offer(hit);
+        }
+        return true;
+    }
+
+    /**
+     * 按与索引相同的规则查找片段：字母数字开头的片段只能从词首开始匹配（与只索引前缀一致），汉字开头的片段可以从任意位置匹配。
+     * 全量索引中的店铺和覆盖层中的店铺都用这个规则校验，合并重建前后的结果相同
+     *
+     * @return 第一个匹配的位置，不匹配时为-1
+     */
+    private static int indexOfToken(String text, String segment) {
+        boolean han = isHan(segment.charAt(0));
+        for (int at = text.indexOf(segment); at >= 0; at = text.indexOf(segment, at + 1)) {
+            if (han || at == 0) {
+                return at;
+            }
+            char prev = text.charAt(at - 1);
+            if (!Character.isLetterOrDigit(prev) || isHan(prev)) {
+                return at;
+            }
+        }
+        return -1;
+    }
+
+    private void compactIfNeeded() {
+        State s = state;
+        if (s.upserts.size() + s.removed.size() < COMPACT_THRESHOLD) {
+            return;
+        }
+        Builder builder = new Builder();
+        Segment segment = s.segment;
+        for (int doc = 0; doc < segment.ids.length; doc++) {
+            long id = segment.ids[doc];
+            if (!s.upserts.containsKey(id) && !s.removed.contains(id)) {
+                builder.addText(id, segment.texts[doc]);
+            }
+        }
+        s.upserts.forEach(builder::addText);
+        state = new State(builder.build());
+    }
+
+    private static String text(String name, String area, String address) {
+        return normalize(name) + FIELD_SEPARATOR + normalize(area) + FIELD_SEPARATOR + normalize(address);
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 把查询切成字母数字和汉字的连续片段，小写
+     */
+    public static List<String> segments(String query) {
+        List<String> segments = new ArrayList<>();
+        if (query == null) {
+            return segments;
+        }
+        String text = query.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                segments.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * 查询的词：多字的汉字只取bigram，单个汉字取单字，字母数字词按前缀长度截断
+     */
+    private static Set<String> queryTokens(List<String> segments) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String segment : segments) {
+            forEachRun(segment, (run, han) -> {
+                if (!han) {
+                    tokens.add(run.length() > MAX_PREFIX ? run.substring(0, MAX_PREFIX) : run);
+                } else if (run.length() == 1) {
+                    tokens.add(run);
+                } else {
+                    for (int i = 0; i + 1 < run.length(); i++) {
+                        tokens.add(run.substring(i, i + 2));
+                    }
+                }
+            });
+        }
+        return tokens;
+    }
+
+    /**
+     * 索引的词：汉字的单字和bigram，字母数字词的所有前缀
+     */
+    private static void indexTokens(String text, Consumer<String> consumer) {
+        for (String segment : segments(text)) {
+            forEachRun(segment, (run, han) -> {
+                if (han) {
+                    for (int i = 0; i < run.length(); i++) {
+                        consumer.accept(run.substring(i, i + 1));
+                        if (i + 1 < run.length()) {
+                            consumer.accept(run.substring(i, i + 2));
+                        }
+                    }
+                } else {
+                    for (int i = 1; i <= Math.min(MAX_PREFIX, run.length()); i++) {
+                        consumer.accept(run.substring(0, i));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 按是否是汉字把片段切成更小的连续段
+     */
+    private static void forEachRun(String segment, RunConsumer consumer) {
+        int start = 0;
+        boolean han = isHan(segment.charAt(0));
+        for (int i = 1; i <= segment.length(); i++) {
+            if (i == segment.length() || isHan(segment.charAt(i)) != han) {
+                consumer.accept(segment.substring(start, i), han);
+                if (i < segment.length()) {
+                    start = i;
+                    han = !han;
+                }
+            }
+        }
+    }
+
+    private static boolean isHan(char c) {
+        return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+
+    private interface RunConsumer {
+        void accept(String run, boolean han);
+    }
+
+    /**
+     * 全量构建时收集店铺
+     */
+    public static class Builder {
+        private final List<Long> ids = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+
+        public void add(long id, String name, String area, String address) {
+            addText(id, text(name, area, address));
+        }
+
+        private void addText(long id, String text) {
+            ids.add(id);
+            texts.add(text);
+        }
+
+        private Segment build() {
+            int n = ids.size();
+            long[] idArray = new long[n];
+            String[] textArray = texts.toArray(new String[0]);
+            Map<String, IntList> lists = new HashMap<>();
+            for (int doc = 0; doc < n; doc++) {
+                idArray[doc] = ids.get(doc);
+                int current = doc;
+                indexTokens(textArray[doc], token -> lists.computeIfAbsent(token, k -> new IntList()).addOnce(current));
+            }
+            Map<String, int[]> postings = new HashMap<>(lists.size() * 2);
+            lists.forEach((token, list) -> postings.put(token, list.toArray()));
+            return new Segment(idArray, textArray, postings);
+        }
+    }
+
+    /**
+     * 递增的文档编号列表，同一文档连续出现时只记一次
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void addOnce(int value) {
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * 不可变的倒排表：文档编号是ids、texts的下标，每个词对应升序的文档编号
+     */
+    private static class Segment {
+        final long[] ids;
+        final String[] texts;
+        final Map<String, int[]> postings;
+        final long[] sortedIds;
+
+        Segment(long[] ids, String[] texts, Map<String, int[]> postings) {
+            this.ids = ids;
+            this.texts = texts;
+            this.postings = postings;
+            this.sortedIds = ids.clone();
+            Arrays.sort(sortedIds);
+        }
+
+        boolean contains(long id) {
+            return Arrays.binarySearch(sortedIds, id) >= 0;
+        }
+
+        /**
+         * 所有词的倒排表求交集，从最短的开始，其余的二分查找
+         */
+        int[] candidates(Set<String> tokens) {
+            int[][] lists = new int[tokens.size()][];
+            int i = 0;
+            for (String token : tokens) {
+                int[] list = postings.get(token);
+                if (list == null) {
+                    return new int[0];
+                }
+                lists[i++] = list;
+            }
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+            int[] result = lists[0];
+            for (int j = 1; j < lists.length && result.length > 0; j++) {
+                int[] other = lists[j];
+                int[] next = new int[result.length];
+                int n = 0;
+                int from = 0;
+                for (int doc : result) {
+                    int at = Arrays.binarySearch(other, from, other.length, doc);
+                    if (at >= 0) {
+                        next[n++] = doc;
+                        from = at + 1;
+                    } else {
+                        from = -at - 1;
+                    }
+                }
+                result = Arrays.copyOf(next, n);
+            }
+            return result;
+        }
+    }
+
+    private static class State {
+        final Segment segment;
+        final Map<Long, String> upserts = new ConcurrentHashMap<>();
+        final Set<Long> removed = ConcurrentHashMap.newKeySet();
+
+        State(Segment segment) {
+            this.segment = segment;
+        }
+    }
+
+    private static class Hit {
+        final long id;
+        final double score;
+        final int nameLength;
+
+        Hit(long id, double score, int nameLength) {
+            this.id = id;
+            this.score = score;
+            this.nameLength = nameLength;
+        }
+    }
+
+    /**
+     * 一页搜索结果
+     */
+    public static class SearchHits {
+        private final List<Long> ids;
+        private final long total;
+
+        SearchHits(List<Long> ids, long total) {
+            this.ids = ids;
+            this.total = total;
+        }
+
+        public List<Long> getIds() {
+            return ids;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.hmdp.utils;
+
+import cn.hutool.extra.pinyin.PinyinUtil;
+import com.hmdp.dto.ShopSuggestion;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 进程内的店铺名称前缀联想索引
+ * <p>
+ * 每个店铺以名称、全拼、拼音首字母三种形式作为key，所有key排序后存放在数组中：
+ * 相同前缀的key在数组中是连续的一段，相当于把前缀树按字典序展开，二分查找即可定位前缀对应的子树。
+ * 在这一段上用线段树按权重（销量和评分）取前K个，查询耗时与店铺总数基本无关。
+ * 数组不可变，新增、修改、删除记录在覆盖层中，覆盖层超过阈值时合并重建。
+ * </p>
+ */
+@Component
+public class ShopSuggestIndex {
+
+    /**
+     * 覆盖层超过这么多店铺时合并重建，每次查询都要遍历覆盖层，不宜过大
+     */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private volatile State state = new State(new Builder().build());
+
+    private volatile boolean ready;
+
+    /**
+     * 全量重建期间的增量修改，重建完成后在新索引上重放
+     */
+    private List<Runnable> journal;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 全量重建：loader把所有店铺加入builder，构建完成后整体替换，期间的增量修改会重放到新索引上
+     */
+    public void rebuild(Consumer<Builder> loader) {
+        synchronized (this) {
+            journal = new ArrayList<>();
+        }
+        try {
+            Builder builder = new Builder();
+            loader.accept(builder);
+            Segment segment = builder.build();
+            synchronized (this) {
+                state = new State(segment);
+                for (Runnable change : journal) {
+                    change.run();
+                }
+                ready = true;
+            }
+        } finally {
+            synchronized (this) {
+                journal = null;
+            }
+        }
+    }
+
+    /**
+     * 新增或修改店铺
+     */
+    public synchronized void upsert(long id, String name, Integer sold, Integer score) {
+        Entry entry = Entry.of(id, name, sold, score);
+        Runnable change = () -> {
+            State s = state;
+            s.upserts.put(id, entry);
+            s.removed.remove(id);
+            compactIfNeeded();
+        };
+        change.run();
+        if (journal != null) {
+            journal.add(change);
+        }
+    }
+
+    /**
+     * 删除店铺
+     */
+    public synchronized void remove(long id) {
+        Runnable change = () -> {
+            State s = state;
+            s.upserts.remove(id);
+            if (s.segment.contains(id)) {
+                s.removed.add(id);
+            }
+            compactIfNeeded();
+        };
+        change.run();
+        if (journal != null) {
+            journal.add(change);
+        }
+    }
+
+    /**
+     * 按前缀联想店铺名称，前缀可以是名称、全拼或拼音首字母
+     *
+     * @param prefix 前缀
+     * @param limit 最多返回的数量
+     * @return 按权重降序排列的店铺
+     */
+    public List<ShopSuggestion> suggest(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        State s = state;
+        Segment segment = s.segment;
+        boolean overlay = !s.upserts.isEmpty() || !s.removed.isEmpty();
+
+        List<Entry> matched = new ArrayList<>(limit * 2);
+        Set<Long> seen = new HashSet<>();
+        int lo = lowerBound(segment.keys, key);
+        int hi = lowerBound(segment.keys, key + Character.MAX_VALUE);
+        if (lo < hi) {
+            // 每次取出一段中权重最大的key，再把这一段从该位置分成左右两段放回
+            PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> segment.compare(a[0], b[0]));
+            ranges.offer(new int[]{segment.argMax(lo, hi), lo, hi});
+            while (!ranges.isEmpty() && matched.size() < limit) {
+                int[] range = ranges.poll();
+                int pos = range[0];
+                Entry entry = segment.entries[segment.keyEntry[pos]];
+                if ((!overlay || !s.upserts.containsKey(entry.id) && !s.removed.contains(entry.id))
+                        && seen.add(entry.id)) {
+                    matched.add(entry);
+                }
+                if (range[1] < pos) {
+                    ranges.offer(new int[]{segment.argMax(range[1], pos), range[1], pos});
+                }
+                if (pos + 1 < range[2]) {
+                    ranges.offer(new int[]{segment.argMax(pos + 1, range[2]), pos + 1, range[2]});
+                }
+            }
+        }
+        for (Entry entry : s.upserts.values()) {
+            if (entry.matches(key)) {
+                matched.add(entry);
+            }
+        }
+        matched.sort(Entry.BY_WEIGHT);
+
+        List<ShopSuggestion> suggestions = new ArrayList<>(Math.min(limit, matched.size()));
+        for (int i = 0; i < matched.size() && suggestions.size() < limit; i++) {
+            Entry entry = matched.get(i);
+            suggestions.add(new ShopSuggestion(entry.id, entry.name));
+        }
+        return suggestions;
+    }
+
+    public Map<String, Object> stats() {
+        State s = state;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("shops", s.segment.entries.length);
+        stats.put("keys", s.segment.keys.length);
+        stats.put("overlayUpserts", s.upserts.size());
+        stats.put("overlayRemoved", s.removed.size());
+        return stats;
+    }
+
+    private void compactIfNeeded() {
+        State s = state;
+        if (s.upserts.size() + s.removed.size() < COMPACT_THRESHOLD) {
+            return;
+        }
+        Builder builder = new Builder();
+        for (Entry entry : s.segment.entries) {
+            if (!s.upserts.containsKey(entry.id) && !s.removed.contains(entry.id)) {
+                builder.entries.add(entry);
+            }
+        }
+        builder.entries.addAll(s.upserts.values());
+        state = new State(builder.build());
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static int lowerBound(String[] keys, String key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 全量构建时收集店铺
+     */
+    public static class Builder {
+        private final List<Entry> entries = new ArrayList<>();
+
+        public void add(long id, String name, Integer sold, Integer score) {
+            entries.add(Entry.of(id, name, sold, score));
+        }
+
+        private Segment build() {
+            Entry[] entryArray = entries.toArray(new Entry[0]);
+            List<KeyRef> refs = new ArrayList<>(entryArray.length * 3);
+            for (int e = 0; e < entryArray.length; e++) {
+                for (String key : entryArray[e].keys) {
+                    refs.add(new KeyRef(key, e));
+                }
+            }
+            refs.sort((a, b) -> a.key.compareTo(b.key));
+            String[] keys = new String[refs.size()];
+            int[] keyEntry = new int[refs.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = refs.get(i).key;
+                keyEntry[i] = refs.get(i).entry;
+            }
+            return new Segment(entryArray, keys, keyEntry);
+        }
+    }
+
+    private static class KeyRef {
+        final String key;
+        final int entry;
+
+        KeyRef(String key, int entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * 一个店铺：名称、权重和用于匹配的key（名称、全拼、拼音首字母，小写）
+     */
+    private static class Entry {
+        static final Comparator<Entry> BY_WEIGHT = (a, b) -> {
+            int c = Double.compare(b.weight, a.weight);
+            return c != 0 ? c : Long.compare(a.id, b.id);
+        };
+
+        final long id;
+        final String name;
+        final double weight;
+        final String[] keys;
+
+        Entry(long id, String name, double weight, String[] keys) {
+            this.id = id;
+            this.name = name;
+            this.weight = weight;
+            this.keys = keys;
+        }
+
+        /**
+         * 权重：评分（tb_shop.score为评分的10倍）乘以销量的对数，销量相差很大时评分仍然有影响
+         */
+        static Entry of(long id, String name, Integer sold, Integer score) {
+            String safeName = name == null ? "" : name;
+            double weight = (1 + (score == null ? 0 : score) / 10.0) * Math.log(2 + (sold == null ? 0 : sold));
+            Set<String> keys = new LinkedHashSet<>();
+            String lower = normalize(safeName);
+            if (!lower.isEmpty()) {
+                keys.add(lower);
+                keys.add(normalize(PinyinUtil.getPinyin(safeName, "")).replace(" ", ""));
+                keys.add(normalize(PinyinUtil.getFirstLetter(safeName, "")).replace(" ", ""));
+            }
+            keys.remove("");
+            return new Entry(id, safeName, weight, keys.toArray(new String[0]));
+        }
+
+        boolean matches(String prefix) {
+            for (String key : keys) {
+                if (key.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 不可变的有序key数组，tree是按权重取最大值位置的线段树
+     */
+    private static class Segment {
+        final Entry[] entries;
+        final String[] keys;
+        final int[] keyEntry;
+        final int[] tree;
+        final long[] sortedIds;
+
+        Segment(Entry[] entries, String[] keys, int[] keyEntry) {
+            this.entries = entries;
+            this.keys = keys;
+            this.keyEntry = keyEntry;
+            int n = keys.length;
+            this.tree = new int[2 * n];
+            for (int i = 0; i < n; i++) {
+                tree[n + i] = i;
+            }
+            for (int i = n - 1; i > 0; i--) {
+                tree[i] = better(tree[2 * i], tree[2 * i + 1]);
+            }
+            this.sortedIds = new long[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                sortedIds[i] = entries[i].id;
+            }
+            Arrays.sort(sortedIds);
+        }
+
+        boolean contains(long id) {
+            return Arrays.binarySearch(sortedIds, id) >= 0;
+        }
+
+        /**
+         * [from, to)中权重最大的key的位置
+         */
+        int argMax(int from, int to) {
+            int n = keys.length;
+            int best = -1;
+            for (int l = from + n, r = to + n; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    best = better(best, tree[l++]);
+                }
+                if ((r & 1) == 1) {
+                    best = better(best, tree[--r]);
+                }
+            }
+            return best;
+        }
+
+        /**
+         * 按权重降序比较两个key的位置
+         */
+        int compare(int a, int b) {
+            return Entry.BY_WEIGHT.compare(entries[keyEntry[a]], entries[keyEntry[b]]);
+        }
+
+        private int better(int a, int b) {
+            if (a < 0) {
+                return b;
+            }
+            if (b < 0) {
+                return a;
+            }
+            return compare(a, b) <= 0 ? a : b;
+        }
+    }
+
+    private static class State {
+        final Segment segment;
+        final Map<Long, Entry> upserts = new ConcurrentHashMap<>();
+        final Set<Long> removed = ConcurrentHashMap.newKeySet();
+
+        State(Segment segment) {
+            this.segment = segment;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.hmdp.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GeoCursorTest {
+
+    @Test
+    void blankCursorStartsFromTheFirstPage() {
+        ShopServiceImpl.GeoCursor first = ShopServiceImpl.GeoCursor.decode(null);
+        assertEquals(-1, first.distance);
+        assertEquals(Long.MIN_VALUE, first.id);
+        assertEquals(first, ShopServiceImpl.GeoCursor.decode(""));
+    }
+
+    @Test
+    void roundTripsDistanceAndId() {
+        String encoded = new ShopServiceImpl.GeoCursor(1234.5678901, 42L).encode();
+        // URL安全且不带填充，可以直接放在查询参数里
+        assertFalse(encoded.contains("=") || encoded.contains("+") || encoded.contains("/"));
+
+        ShopServiceImpl.GeoCursor decoded = ShopServiceImpl.GeoCursor.decode(encoded);
+        assertEquals(1234.5678901, decoded.distance);
+        assertEquals(42L, decoded.id);
+
+        ShopServiceImpl.GeoCursor zero = ShopServiceImpl.GeoCursor.decode(new ShopServiceImpl.GeoCursor(0.0, 7L).encode());
+        assertEquals(0.0, zero.distance);
+        assertEquals(7L, zero.id);
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        assertInvalid("not base64!");
+        assertInvalid(encode("1.0"));
+        assertInvalid(encode("abc,2"));
+        assertInvalid(encode("1.0,2,0123456789abcdef0123456789abcdef"));
+    }
+
+    private static void assertInvalid(String cursor) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> ShopServiceImpl.GeoCursor.decode(cursor));
+        assertEquals("无效的游标", e.getMessage());
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
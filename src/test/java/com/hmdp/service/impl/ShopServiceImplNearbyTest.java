@@ -0,0 +1,97 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoResultCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 缓存的附近店铺页按格子中心排序，返回前按用户的实际坐标重新计算距离并排序
+ */
+class ShopServiceImplNearbyTest {
+
+    private ShopServiceImpl shopService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        CacheClient cacheClient = mock(CacheClient.class);
+        when(cacheClient.queryBatchWithPassThrough(anyString(), anyList(), eq(Shop.class), any(), anyLong(),
+                any(TimeUnit.class))).thenAnswer(invocation -> {
+            List<Shop> shops = new ArrayList<>();
+            for (Object id : (List<Object>) invocation.getArgument(1)) {
+                Shop shop = new Shop();
+                shop.setId((Long) id);
+                shops.add(shop);
+            }
+            return shops;
+        });
+        shopService = new ShopServiceImpl();
+        ReflectionTestUtils.setField(shopService, "cacheClient", cacheClient);
+    }
+
+    @Test
+    void resortsTheCachedPageByTheUsersOwnDistance() {
+        // 按格子中心排序的一页：1号店离中心更近，但离用户更远
+        List<ShopGeoResultCache.Hit> hits = Arrays.asList(
+                new ShopGeoResultCache.Hit(1, 120.1490, 30.3160),
+                new ShopGeoResultCache.Hit(2, 120.1500, 30.3160));
+        double x = 120.1500;
+        double y = 30.3161;
+
+        List<Shop> shops = load(hits, x, y, true);
+
+        assertEquals(Arrays.asList(2L, 1L), Arrays.asList(shops.get(0).getId(), shops.get(1).getId()));
+        assertEquals(ShopGeoIndex.distance(x, y, 120.1500, 30.3160), shops.get(0).getDistance());
+        assertEquals(ShopGeoIndex.distance(x, y, 120.1490, 30.3160), shops.get(1).getDistance());
+    }
+
+    @Test
+    void keepsTheCachedOrderWhenNotSortingByDistance() {
+        List<ShopGeoResultCache.Hit> hits = Arrays.asList(
+                new ShopGeoResultCache.Hit(1, 120.1490, 30.3160),
+                new ShopGeoResultCache.Hit(2, 120.1500, 30.3160));
+
+        List<Shop> shops = load(hits, 120.1500, 30.3161, false);
+
+        assertEquals(Arrays.asList(1L, 2L), Arrays.asList(shops.get(0).getId(), shops.get(1).getId()));
+    }
+
+    @Test
+    void equalDistancesAreOrderedById() {
+        List<ShopGeoResultCache.Hit> hits = Arrays.asList(
+                new ShopGeoResultCache.Hit(5, 120.1500, 30.3160),
+                new ShopGeoResultCache.Hit(3, 120.1500, 30.3160));
+
+        List<Shop> shops = load(hits, 120.1500, 30.3161, true);
+
+        assertEquals(Arrays.asList(3L, 5L), Arrays.asList(shops.get(0).getId(), shops.get(1).getId()));
+    }
+
+    @Test
+    void emptyPageNeedsNoLookup() {
+        assertEquals(Collections.emptyList(), load(Collections.emptyList(), 120.15, 30.31, true));
+    }
+
+    private List<Shop> load(List<ShopGeoResultCache.Hit> hits, double x, double y, boolean sortByDistance) {
+        return ReflectionTestUtils.invokeMethod(shopService, "loadNearbyHits", hits, x, y, sortByDistance);
+    }
+}
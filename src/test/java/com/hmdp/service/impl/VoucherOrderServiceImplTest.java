@@ -0,0 +1,52 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VoucherOrderServiceImplTest {
+
+    @Test
+    void groupsBatchByVoucherAndKeepsFirstOrderPerUser() {
+        List<VoucherOrder> batch = Arrays.asList(
+                order(1, 100, 10),
+                order(2, 200, 10),
+                order(3, 100, 20),
+                // 同一用户同一优惠券的重复消息
+                order(4, 100, 10),
+                order(5, 300, 20));
+
+        Map<Long, Map<Long, VoucherOrder>> byVoucher = VoucherOrderServiceImpl.groupByVoucher(batch);
+
+        assertEquals(Arrays.asList(10L, 20L), new ArrayList<>(byVoucher.keySet()));
+        Map<Long, VoucherOrder> voucher10 = byVoucher.get(10L);
+        assertEquals(Arrays.asList(100L, 200L), new ArrayList<>(voucher10.keySet()));
+        assertEquals(1L, voucher10.get(100L).getId());
+        assertEquals(2L, voucher10.get(200L).getId());
+        // 不同优惠券之间互不影响
+        Map<Long, VoucherOrder> voucher20 = byVoucher.get(20L);
+        assertEquals(Arrays.asList(100L, 300L), new ArrayList<>(voucher20.keySet()));
+        assertEquals(3L, voucher20.get(100L).getId());
+    }
+
+    @Test
+    void emptyBatchHasNoGroups() {
+        assertTrue(VoucherOrderServiceImpl.groupByVoucher(Collections.emptyList()).isEmpty());
+    }
+
+    private static VoucherOrder order(long id, long userId, long voucherId) {
+        VoucherOrder order = new VoucherOrder();
+        order.setId(id);
+        order.setUserId(userId);
+        order.setVoucherId(voucherId);
+        return order;
+    }
+}
@@ -0,0 +1,61 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdminInterceptorTest {
+
+    @AfterEach
+    void clearUser() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void rejectsAnonymousRequests() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(interceptor(1L).preHandle(new MockHttpServletRequest(), response, null));
+        assertEquals(401, response.getStatus());
+    }
+
+    @Test
+    void rejectsUsersThatAreNotAdmins() throws Exception {
+        login(2L);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(interceptor(1L).preHandle(new MockHttpServletRequest(), response, null));
+        assertEquals(403, response.getStatus());
+    }
+
+    @Test
+    void rejectsEveryoneWhenNoAdminIsConfigured() throws Exception {
+        login(1L);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(interceptor().preHandle(new MockHttpServletRequest(), response, null));
+        assertEquals(403, response.getStatus());
+    }
+
+    @Test
+    void allowsConfiguredAdmins() throws Exception {
+        login(3L);
+        assertTrue(interceptor(1L, 3L).preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), null));
+    }
+
+    private static AdminInterceptor interceptor(Long... adminUserIds) {
+        AdminInterceptor interceptor = new AdminInterceptor();
+        ReflectionTestUtils.setField(interceptor, "adminUserIds", adminUserIds);
+        return interceptor;
+    }
+
+    private static void login(long id) {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        UserHolder.saveUser(user);
+    }
+}
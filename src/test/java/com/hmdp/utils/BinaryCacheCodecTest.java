@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+
+    @Test
+    void roundTripsRegisteredTypes() {
+        Shop shop = shop();
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+
+        ShopType type = new ShopType();
+        type.setId(3L);
+        type.setName("美食");
+        type.setSort(1);
+        assertEquals(type, codec.decode(codec.encode(type), ShopType.class));
+
+        UserDTO user = new UserDTO();
+        user.setId(7L);
+        user.setNickName("user_7");
+        assertEquals(user, codec.decode(codec.encode(user), UserDTO.class));
+    }
+
+    @Test
+    void keepsNullFieldsNull() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        Shop decoded = codec.decode(codec.encode(shop), Shop.class);
+        assertEquals(1L, decoded.getId());
+        assertNull(decoded.getName());
+        assertNull(decoded.getAvgPrice());
+    }
+
+    @Test
+    void isSmallerThanJson() {
+        Shop shop = shop();
+        assertTrue(codec.encode(shop).length < new JsonCacheCodec().encode(shop).length);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void fallsBackToJsonForOtherTypes() {
+        Map<String, Object> value = Collections.singletonMap("k", "v");
+        assertEquals(value, codec.decode(codec.encode(value), Map.class));
+    }
+
+    @Test
+    void readsExpireHeaderWithoutDecodingData() {
+        Shop shop = shop();
+        long expireMillis = 1_700_000_000_123L;
+        byte[] bytes = codec.encodeWithExpire(shop, expireMillis);
+
+        assertEquals(expireMillis, codec.readExpireMillis(bytes));
+        assertEquals(shop, codec.decodeWithExpire(bytes, Shop.class));
+    }
+
+    @Test
+    void decodesCacheWrittenByJsonCodec() {
+        JsonCacheCodec json = new JsonCacheCodec();
+        Shop shop = shop();
+        assertEquals(shop, codec.decode(json.encode(shop), Shop.class));
+
+        byte[] withExpire = json.encodeWithExpire(shop, 42L);
+        assertEquals(42L, codec.readExpireMillis(withExpire));
+        assertEquals(shop, codec.decodeWithExpire(withExpire, Shop.class));
+    }
+
+    @Test
+    void rejectsUnknownTypeTagsWithADescriptiveError() {
+        byte[] bytes = codec.encode(shop());
+        // 第3个字节是类型标签
+        bytes[2] = 7;
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> codec.decode(bytes, Shop.class));
+        assertTrue(e.getMessage().contains("7"));
+        bytes[2] = (byte) 200;
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void rejectsDataOfAnotherType() {
+        byte[] bytes = codec.encode(shop());
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(bytes, UserDTO.class));
+    }
+
+    static Shop shop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://example.com/1.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        // 时间按毫秒精度保存
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19, 123_000_000));
+        return shop;
+    }
+}
@@ -0,0 +1,45 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+
+    private static final int N = 10_000;
+    private static final double FPP = 0.01;
+
+    @Test
+    void neverRejectsInsertedValues() {
+        BloomFilter filter = new BloomFilter(N, FPP);
+        for (long id = 1; id <= N; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= N; id++) {
+            assertTrue(filter.mightContain(id), "false negative for " + id);
+        }
+    }
+
+    @Test
+    void falsePositiveRateStaysNearTarget() {
+        BloomFilter filter = new BloomFilter(N, FPP);
+        for (long id = 1; id <= N; id++) {
+            filter.put(id);
+        }
+        int probes = 100_000;
+        int falsePositives = 0;
+        for (long id = N + 1; id <= N + probes; id++) {
+            if (filter.mightContain(id)) {
+                // 模拟业务层回查数据库未命中
+                filter.recordFalsePositive();
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / probes;
+        // 允许一倍的统计波动
+        assertTrue(rate < FPP * 2, "observed fpp " + rate);
+        assertTrue(filter.expectedFpp() < FPP * 1.2, "expected fpp " + filter.expectedFpp());
+        assertEquals(rate, filter.observedFpp(), 1e-9);
+    }
+}
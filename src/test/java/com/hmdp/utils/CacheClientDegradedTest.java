@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Redis熔断期间的降级查询
+ */
+class CacheClientDegradedTest {
+
+    private static final String PREFIX = "cache:test:";
+
+    private RedisCircuitBreaker breaker;
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    void setUp() {
+        breaker = mock(RedisCircuitBreaker.class);
+        when(breaker.allowRequest()).thenReturn(false);
+        cacheClient = newCacheClient(breaker);
+    }
+
+    @Test
+    void servesFromDatabaseWithinPermitsAndCachesResult() {
+        when(breaker.tryAcquireDbPermit()).thenReturn(true, false);
+        AtomicInteger dbCalls = new AtomicInteger();
+        Function<Long, String> dbFallback = id -> {
+            dbCalls.incrementAndGet();
+            return id == 1L ? "shop-1" : null;
+        };
+
+        assertEquals("shop-1", cacheClient.queryWithMutex(PREFIX, 1L, String.class, dbFallback, 30L, TimeUnit.MINUTES));
+        // 第二次命中降级缓存，不再消耗许可
+        assertEquals("shop-1", cacheClient.queryWithMutex(PREFIX, 1L, String.class, dbFallback, 30L, TimeUnit.MINUTES));
+        assertEquals(1, dbCalls.get());
+    }
+
+    @Test
+    void cachesMissingRowsAsNull() {
+        when(breaker.tryAcquireDbPermit()).thenReturn(true, false);
+
+        assertNull(cacheClient.queryWithPassThrough(PREFIX, 2L, String.class, id -> null, 30L, TimeUnit.MINUTES));
+        assertNull(cacheClient.queryWithPassThrough(PREFIX, 2L, String.class, id -> null, 30L, TimeUnit.MINUTES));
+    }
+
+    @Test
+    void rejectedPermitIsNotReportedAsMissing() {
+        when(breaker.tryAcquireDbPermit()).thenReturn(false);
+
+        assertThrows(ServiceBusyException.class, () -> cacheClient.queryWithMutex(
+                PREFIX, 1L, String.class, id -> "shop-1", 30L, TimeUnit.MINUTES));
+        assertThrows(ServiceBusyException.class, () -> cacheClient.queryWithLogicalExpire(
+                PREFIX, 1L, String.class, id -> "shop-1", 30L, TimeUnit.MINUTES));
+        assertThrows(ServiceBusyException.class, () -> cacheClient.queryBatchWithPassThrough(
+                PREFIX, Arrays.asList(1L, 2L), String.class, CacheClientDegradedTest::loadAll, 30L, TimeUnit.MINUTES));
+    }
+
+    @Test
+    void batchWithEveryIdCachedNeedsNoPermit() {
+        when(breaker.tryAcquireDbPermit()).thenReturn(true, false);
+        assertEquals(Arrays.asList("shop-1", "shop-2"), cacheClient.queryBatchWithPassThrough(
+                PREFIX, Arrays.asList(1L, 2L), String.class, CacheClientDegradedTest::loadAll, 30L, TimeUnit.MINUTES));
+
+        assertEquals(Collections.singletonList("shop-2"), cacheClient.queryBatchWithPassThrough(
+                PREFIX, Collections.singletonList(2L), String.class, CacheClientDegradedTest::loadAll, 30L, TimeUnit.MINUTES));
+    }
+
+    private static Map<Long, String> loadAll(Collection<Long> ids) {
+        Map<Long, String> rows = new HashMap<>();
+        ids.forEach(id -> rows.put(id, "shop-" + id));
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    static CacheClient newCacheClient(RedisCircuitBreaker breaker) {
+        CacheClient cacheClient = new CacheClient(mock(StringRedisTemplate.class), mock(RedisTemplate.class),
+                mock(CacheCodec.class), mock(RedisMessageListenerContainer.class), mock(CacheRebuildExecutor.class),
+                mock(HotKeyDetector.class), mock(CacheMetrics.class), breaker);
+        ReflectionTestUtils.setField(cacheClient, "degradedCacheSize", 100);
+        ReflectionTestUtils.setField(cacheClient, "degradedTtlSeconds", 30L);
+        ReflectionTestUtils.invokeMethod(cacheClient, "init");
+        return cacheClient;
+    }
+}
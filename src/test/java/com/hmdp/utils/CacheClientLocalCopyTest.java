@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 本地缓存和降级缓存返回的是副本，调用方修改后不会影响其它请求
+ */
+class CacheClientLocalCopyTest {
+
+    private static final String PREFIX = "cache:shop:";
+
+    @Test
+    void localHitReturnsACopy() {
+        RedisCircuitBreaker breaker = mock(RedisCircuitBreaker.class);
+        when(breaker.allowRequest()).thenReturn(true);
+        CacheClient cacheClient = CacheClientDegradedTest.newCacheClient(breaker);
+        ReflectionTestUtils.setField(cacheClient, "localCacheEnabled", true);
+        ReflectionTestUtils.setField(cacheClient, "localCacheMaximumSize", 100);
+        ReflectionTestUtils.setField(cacheClient, "localCacheTtlSeconds", 60L);
+        ReflectionTestUtils.invokeMethod(cacheClient, "init");
+
+        Shop stored = shop();
+        ReflectionTestUtils.invokeMethod(cacheClient, "putLocal", PREFIX + 1L, stored);
+        // 写入后修改原对象，不影响本地缓存
+        stored.setName("changed");
+
+        Shop first = cacheClient.queryWithPassThrough(PREFIX, 1L, Shop.class, id -> null, 30L, TimeUnit.MINUTES);
+        assertEquals("shop-1", first.getName());
+        first.setDistance(100.0);
+
+        Shop second = cacheClient.queryWithMutex(PREFIX, 1L, Shop.class, id -> null, 30L, TimeUnit.MINUTES);
+        assertNotSame(first, second);
+        assertNull(second.getDistance());
+    }
+
+    @Test
+    void degradedHitReturnsACopy() {
+        RedisCircuitBreaker breaker = mock(RedisCircuitBreaker.class);
+        when(breaker.allowRequest()).thenReturn(false);
+        when(breaker.tryAcquireDbPermit()).thenReturn(true, false);
+        CacheClient cacheClient = CacheClientDegradedTest.newCacheClient(breaker);
+
+        Shop first = cacheClient.queryWithPassThrough(PREFIX, 1L, Shop.class, id -> shop(), 30L, TimeUnit.MINUTES);
+        first.setDistance(100.0);
+
+        Shop second = cacheClient.queryWithPassThrough(PREFIX, 1L, Shop.class, id -> shop(), 30L, TimeUnit.MINUTES);
+        assertEquals("shop-1", second.getName());
+        assertNull(second.getDistance());
+    }
+
+    private static Shop shop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("shop-1");
+        return shop;
+    }
+}
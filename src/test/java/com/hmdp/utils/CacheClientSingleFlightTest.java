@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 本节点的并发未命中应该合并为一次数据库查询
+ */
+class CacheClientSingleFlightTest {
+
+    private static final String PREFIX = "cache:test:";
+
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> stringOps = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(stringOps);
+        when(stringOps.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+
+        // Redis中始终没有缓存，每次重建都会走到数据库
+        RedisTemplate<String, byte[]> cacheRedisTemplate = mock(RedisTemplate.class);
+        ValueOperations<String, byte[]> cacheOps = mock(ValueOperations.class);
+        when(cacheRedisTemplate.opsForValue()).thenReturn(cacheOps);
+
+        CacheCodec codec = mock(CacheCodec.class);
+        when(codec.encode(any())).thenReturn(new byte[]{1});
+
+        RedisCircuitBreaker breaker = mock(RedisCircuitBreaker.class);
+        when(breaker.allowRequest()).thenReturn(true);
+
+        cacheClient = new CacheClient(stringRedisTemplate, cacheRedisTemplate, codec,
+                mock(RedisMessageListenerContainer.class), mock(CacheRebuildExecutor.class),
+                mock(HotKeyDetector.class), mock(CacheMetrics.class), breaker);
+    }
+
+    @Test
+    void concurrentMissesShareOneDatabaseQuery() throws Exception {
+        int threads = 8;
+        AtomicInteger dbCalls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Function<Long, String> dbFallback = id -> {
+            dbCalls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "shop-" + id;
+        };
+
+        List<String> results = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                String r = cacheClient.queryWithMutex(PREFIX, 1L, String.class, dbFallback, 30L, TimeUnit.MINUTES);
+                synchronized (results) {
+                    results.add(r);
+                }
+            });
+            workers.add(t);
+            t.start();
+        }
+        // 领头线程阻塞在数据库查询，其余线程都在等待它的结果
+        awaitAllBlocked(workers);
+        release.countDown();
+        for (Thread t : workers) {
+            t.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        assertEquals(1, dbCalls.get());
+        assertEquals(threads, results.size());
+        assertTrue(results.stream().allMatch("shop-1"::equals), results.toString());
+    }
+
+    @Test
+    void finishedFlightDoesNotServeLaterMisses() {
+        AtomicInteger dbCalls = new AtomicInteger();
+        Function<Long, String> dbFallback = id -> "shop-" + dbCalls.incrementAndGet();
+
+        assertEquals("shop-1", cacheClient.queryWithMutex(PREFIX, 1L, String.class, dbFallback, 30L, TimeUnit.MINUTES));
+        // 上一次加载已经结束，新的未命中重新查询
+        assertEquals("shop-2", cacheClient.queryWithMutex(PREFIX, 1L, String.class, dbFallback, 30L, TimeUnit.MINUTES));
+    }
+
+    private static void awaitAllBlocked(List<Thread> workers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            boolean blocked = workers.stream().allMatch(t -> t.getState() == Thread.State.WAITING
+                    || t.getState() == Thread.State.TIMED_WAITING);
+            if (blocked) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("worker threads did not block in time");
+    }
+}
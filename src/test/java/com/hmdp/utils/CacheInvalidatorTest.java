@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheInvalidatorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayOfMissingOutboxIsEmpty() throws IOException {
+        assertTrue(CacheInvalidator.replay(dir.resolve("missing.outbox")).isEmpty());
+    }
+
+    @Test
+    void replayCountsUnackedRecordsPerKey() throws IOException {
+        Path outbox = dir.resolve("cache.outbox");
+        Files.write(outbox, Arrays.asList(
+                "+cache:shop:1",
+                "+cache:shop:2",
+                "+cache:shop:1",
+                "-cache:shop:1",
+                "+cache:shop:3",
+                "-cache:shop:3",
+                // 没有对应新增记录的确认被忽略
+                "-cache:shop:4",
+                "",
+                // 写到一半的记录
+                "+"
+        ), StandardCharsets.UTF_8);
+
+        Map<String, Integer> pending = CacheInvalidator.replay(outbox);
+
+        assertEquals(2, pending.size());
+        assertEquals(1, pending.get("cache:shop:1"));
+        assertEquals(1, pending.get("cache:shop:2"));
+        // 保持首次出现的顺序
+        assertEquals(Arrays.asList("cache:shop:1", "cache:shop:2"), Arrays.asList(pending.keySet().toArray()));
+    }
+
+    @Test
+    void replayKeepsRepeatedInvalidationsOfTheSameKey() throws IOException {
+        Path outbox = dir.resolve("cache.outbox");
+        Files.write(outbox, Arrays.asList("+cache:user:7", "+cache:user:7", "+cache:user:7", "-cache:user:7"),
+                StandardCharsets.UTF_8);
+
+        assertEquals(2, CacheInvalidator.replay(outbox).get("cache:user:7"));
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 重建任务的去重、队列满时放弃、超时中断及释放动作
+ */
+class CacheRebuildExecutorTest {
+
+    private CacheRebuildExecutor executor;
+    private final CountDownLatch blocker = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        executor = new CacheRebuildExecutor();
+        ReflectionTestUtils.setField(executor, "threads", 1);
+        ReflectionTestUtils.setField(executor, "queueCapacity", 1);
+        ReflectionTestUtils.setField(executor, "timeoutMillis", 5000L);
+        ReflectionTestUtils.setField(executor, "cacheMetrics", mock(CacheMetrics.class));
+        ReflectionTestUtils.invokeMethod(executor, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        blocker.countDown();
+        ReflectionTestUtils.invokeMethod(executor, "destroy");
+    }
+
+    @Test
+    void deduplicatesTasksForTheSameKey() throws InterruptedException {
+        CountDownLatch released = new CountDownLatch(1);
+        AtomicInteger duplicateReleases = new AtomicInteger();
+        assertTrue(executor.submit("a", this::block, released::countDown));
+
+        assertFalse(executor.submit("a", () -> { }, duplicateReleases::incrementAndGet));
+        // 重复的任务不执行，释放动作立即执行
+        assertEquals(1, duplicateReleases.get());
+        assertEquals(1L, executor.stats().get("deduplicated"));
+
+        blocker.countDown();
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+        // 任务结束后同一个key可以再次提交
+        CountDownLatch again = new CountDownLatch(1);
+        assertTrue(executor.submit("a", () -> { }, again::countDown));
+        assertTrue(again.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void releasesImmediatelyWhenTheQueueIsFull() {
+        // 第一个任务占住唯一的线程，第二个任务占满队列
+        assertTrue(executor.submit("a", this::block, () -> { }));
+        assertTrue(executor.submit("b", () -> { }, () -> { }));
+
+        AtomicBoolean released = new AtomicBoolean();
+        assertFalse(executor.submit("c", () -> { }, () -> released.set(true)));
+        assertTrue(released.get());
+        assertEquals(1L, executor.stats().get("rejected"));
+    }
+
+    @Test
+    void interruptsSlowTasksAndReleasesWhenTheyEnd() throws InterruptedException {
+        ReflectionTestUtils.setField(executor, "timeoutMillis", 100L);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        executor.submit("a", () -> {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        }, released::countDown);
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+        assertEquals(1L, executor.stats().get("timedOut"));
+    }
+
+    @Test
+    void releaseRunsOnceEvenWhenTheTaskFails() throws InterruptedException {
+        AtomicInteger releases = new AtomicInteger();
+        CountDownLatch released = new CountDownLatch(1);
+        executor.submit("a", () -> {
+            throw new IllegalStateException("db down");
+        }, () -> {
+            releases.incrementAndGet();
+            released.countDown();
+        });
+
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+        assertEquals(1, releases.get());
+        assertEquals(1L, executor.stats().get("failed"));
+    }
+
+    private void block() {
+        try {
+            blocker.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressingCacheCodecTest {
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+
+    @Test
+    void compressesLargeValuesAndRoundTrips() {
+        CompressingCacheCodec codec = new CompressingCacheCodec(json, 64);
+        Shop shop = largeShop();
+
+        byte[] bytes = codec.encode(shop);
+        assertTrue(bytes.length < json.encode(shop).length);
+        assertEquals(shop, codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void keepsSmallValuesUncompressed() {
+        CompressingCacheCodec codec = new CompressingCacheCodec(json, 1024);
+        Shop shop = new Shop();
+        shop.setId(1L);
+
+        assertArrayEquals(json.encode(shop), codec.encode(shop));
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+    }
+
+    @Test
+    void readsExpireHeaderWithoutDecompressing() {
+        CompressingCacheCodec codec = new CompressingCacheCodec(json, 64);
+        Shop shop = largeShop();
+        long expireMillis = 1_700_000_000_123L;
+
+        byte[] bytes = codec.encodeWithExpire(shop, expireMillis);
+        assertTrue(bytes.length < json.encodeWithExpire(shop, expireMillis).length);
+        assertEquals(expireMillis, codec.readExpireMillis(bytes));
+        assertEquals(shop, codec.decodeWithExpire(bytes, Shop.class));
+    }
+
+    @Test
+    void wrapsBinaryCodec() {
+        BinaryCacheCodec binary = new BinaryCacheCodec();
+        CompressingCacheCodec codec = new CompressingCacheCodec(binary, 64);
+        Shop shop = largeShop();
+
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+        byte[] bytes = codec.encodeWithExpire(shop, 42L);
+        assertEquals(42L, codec.readExpireMillis(bytes));
+        assertEquals(shop, codec.decodeWithExpire(bytes, Shop.class));
+        // 开启压缩之前写入的缓存仍然可以读取
+        assertEquals(shop, codec.decode(binary.encode(shop), Shop.class));
+    }
+
+    private static Shop largeShop() {
+        Shop shop = BinaryCacheCodecTest.shop();
+        StringBuilder images = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            images.append(i == 0 ? "" : ",").append("https://example.com/images/shop/1/").append(i).append(".jpg");
+        }
+        shop.setImages(images.toString());
+        return shop;
+    }
+}
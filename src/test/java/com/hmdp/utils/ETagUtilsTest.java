@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ETagUtilsTest {
+
+    private static final byte[] BODY = "[{\"id\":1,\"name\":\"美食\"}]".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void etagDependsOnlyOnTheContent() {
+        assertEquals(ETagUtils.of(BODY), ETagUtils.of(BODY.clone()));
+        assertNotEquals(ETagUtils.of(BODY), ETagUtils.of("[]".getBytes(StandardCharsets.UTF_8)));
+        // 强ETag带引号
+        assertTrue(ETagUtils.of(BODY).startsWith("\""));
+    }
+
+    @Test
+    void matchesWeakListedAndWildcardValues() {
+        String etag = ETagUtils.of(BODY);
+        assertTrue(ETagUtils.matches(etag, etag));
+        assertTrue(ETagUtils.matches("W/" + etag, etag));
+        assertTrue(ETagUtils.matches("\"other\", " + etag, etag));
+        assertTrue(ETagUtils.matches("*", etag));
+        assertFalse(ETagUtils.matches(null, etag));
+        assertFalse(ETagUtils.matches("", etag));
+        assertFalse(ETagUtils.matches("\"other\"", etag));
+    }
+
+    @Test
+    void answersNotModifiedOnlyWhenTheETagMatches() {
+        String etag = ETagUtils.of(BODY);
+
+        ResponseEntity<byte[]> notModified = ETagUtils.response(BODY, etag, etag);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+        assertEquals(etag, notModified.getHeaders().getETag());
+
+        ResponseEntity<byte[]> ok = ETagUtils.response(BODY, etag, "\"stale\"");
+        assertEquals(HttpStatus.OK, ok.getStatusCode());
+        assertArrayEquals(BODY, ok.getBody());
+        assertEquals(etag, ok.getHeaders().getETag());
+        assertEquals("no-cache", ok.getHeaders().getCacheControl());
+    }
+}
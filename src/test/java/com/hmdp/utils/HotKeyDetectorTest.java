@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 热点key的排名、固定、衰减淘汰
+ */
+class HotKeyDetectorTest {
+
+    private RedisCircuitBreaker breaker;
+    private HotKeyDetector detector;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedisTemplate<String, byte[]> redis = mock(RedisTemplate.class);
+        ValueOperations<String, byte[]> ops = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(ops);
+        // 每个key的值就是key本身
+        when(ops.multiGet(anyList())).thenAnswer(invocation -> {
+            List<byte[]> values = new ArrayList<>();
+            for (Object key : (List<Object>) invocation.getArgument(0)) {
+                values.add(bytes((String) key));
+            }
+            return values;
+        });
+        breaker = mock(RedisCircuitBreaker.class);
+        when(breaker.allowRequest()).thenReturn(true);
+
+        detector = new HotKeyDetector();
+        ReflectionTestUtils.setField(detector, "cacheRedisTemplate", redis);
+        ReflectionTestUtils.setField(detector, "redisBreaker", breaker);
+        ReflectionTestUtils.setField(detector, "enabled", true);
+        ReflectionTestUtils.setField(detector, "sampleRate", 1.0);
+        ReflectionTestUtils.setField(detector, "topK", 2);
+        ReflectionTestUtils.setField(detector, "minCount", 10);
+        ReflectionTestUtils.setField(detector, "refreshMillis", 1000L);
+    }
+
+    @Test
+    void pinsOnlyTheTopKAboveTheThreshold() {
+        record("a", 30);
+        record("b", 20);
+        record("c", 15);
+        record("d", 3);
+        detector.refresh();
+
+        assertArrayEquals(bytes("a"), detector.getPinned("a"));
+        assertArrayEquals(bytes("b"), detector.getPinned("b"));
+        // 超过top-K
+        assertNull(detector.getPinned("c"));
+        // 低于阈值
+        assertNull(detector.getPinned("d"));
+    }
+
+    @Test
+    void coolingKeysAreUnpinnedAndDropped() {
+        record("a", 30);
+        detector.refresh();
+        assertNotNull(detector.getPinned("a"));
+
+        // 30 -> 15，仍然是热点
+        detector.refresh();
+        assertNotNull(detector.getPinned("a"));
+
+        // 15 -> 7，低于阈值，不再固定
+        detector.refresh();
+        assertNull(detector.getPinned("a"));
+        // 7 -> 3，过冷，从候选集中淘汰
+        assertTrue(detector.hotKeys().isEmpty());
+    }
+
+    @Test
+    void evictRemovesThePinnedCopy() {
+        record("a", 30);
+        detector.refresh();
+        detector.evict("a");
+        assertNull(detector.getPinned("a"));
+    }
+
+    @Test
+    void openBreakerClearsTheReplica() {
+        record("a", 30);
+        detector.refresh();
+        when(breaker.allowRequest()).thenReturn(false);
+        detector.refresh();
+        assertNull(detector.getPinned("a"));
+    }
+
+    private void record(String key, int times) {
+        for (int i = 0; i < times; i++) {
+            detector.record(key);
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.entity.Blog;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class KeysetPagerTest {
+
+    @Test
+    void firstPageFetchesOneExtraRowAndReturnsCursor() {
+        QueryChainWrapper<Blog> query = query(blog(9L, 0), blog(8L, 0), blog(7L, 0));
+
+        CursorResult result = KeysetPager.page(query, Blog::getId, null, 2);
+
+        assertEquals(ids(9L, 8L), ids(result));
+        assertEquals("8", decode(result.getCursor()));
+        verify(query, never()).lt(anyString(), any());
+        verify(query).last("LIMIT 3");
+    }
+
+    @Test
+    void nextPageSeeksPastCursorId() {
+        QueryChainWrapper<Blog> query = query(blog(7L, 0));
+
+        CursorResult result = KeysetPager.page(query, Blog::getId, encode("8"), 2);
+
+        verify(query).lt("id", 8L);
+        assertEquals(ids(7L), ids(result));
+        // 最后一页没有游标
+        assertNull(result.getCursor());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void sortColumnCursorSeeksPastSortValueAndId() {
+        QueryChainWrapper<Blog> query = query(blog(5L, 10), blog(3L, 10), blog(4L, 9));
+
+        CursorResult result = KeysetPager.page(query, "liked", Blog::getLiked, Blog::getId, encode("10,6"), 2);
+
+        assertEquals(ids(5L, 3L), ids(result));
+        assertEquals("10,3", decode(result.getCursor()));
+
+        ArgumentCaptor<Consumer<QueryWrapper<Blog>>> condition = ArgumentCaptor.forClass(Consumer.class);
+        verify(query).and(condition.capture());
+        QueryWrapper<Blog> wrapper = new QueryWrapper<>();
+        wrapper.and(condition.getValue());
+        String sql = wrapper.getSqlSegment();
+        for (Map.Entry<String, Object> param : wrapper.getParamNameValuePairs().entrySet()) {
+            sql = sql.replace("#{ew.paramNameValuePairs." + param.getKey() + "}", String.valueOf(param.getValue()));
+        }
+        assertEquals("((liked < 10 OR (liked = 10 AND id < 6)))", sql);
+
+        InOrder order = inOrder(query);
+        order.verify(query).orderByDesc("liked");
+        order.verify(query).orderByDesc("id");
+    }
+
+    @Test
+    void rejectsInvalidCursors() {
+        assertInvalid(() -> KeysetPager.page(query(), Blog::getId, "not base64!", 2));
+        assertInvalid(() -> KeysetPager.page(query(), Blog::getId, encode("abc"), 2));
+        // 按id分页的游标只有一个值，按排序列分页的游标有两个值
+        assertInvalid(() -> KeysetPager.page(query(), Blog::getId, encode("10,6"), 2));
+        assertInvalid(() -> KeysetPager.page(query(), "liked", Blog::getLiked, Blog::getId, encode("6"), 2));
+    }
+
+    private static void assertInvalid(Runnable page) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, page::run);
+        assertEquals("无效的游标", e.getMessage());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static QueryChainWrapper<Blog> query(Blog... rows) {
+        QueryChainWrapper<Blog> query = mock(QueryChainWrapper.class, RETURNS_SELF);
+        when(query.list()).thenReturn(new ArrayList<>(Arrays.asList(rows)));
+        return query;
+    }
+
+    private static Blog blog(long id, int liked) {
+        Blog blog = new Blog();
+        blog.setId(id);
+        blog.setLiked(liked);
+        return blog;
+    }
+
+    private static List<Long> ids(Long... ids) {
+        return Arrays.asList(ids);
+    }
+
+    private static List<Long> ids(CursorResult result) {
+        List<Long> ids = new ArrayList<>();
+        for (Object row : result.getList()) {
+            ids.add(((Blog) row).getId());
+        }
+        return ids;
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LocalCacheTest {
+
+    @Test
+    void evictsLeastRecentlyAccessedWhenFull() {
+        LocalCache cache = new LocalCache(2, 60_000);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        // 访问a后，b成为最久未访问的
+        assertEquals(1, cache.get("a"));
+        cache.put("c", 3);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.get("c"));
+    }
+
+    @Test
+    void expiresEntriesAfterTtl() throws InterruptedException {
+        LocalCache cache = new LocalCache(10, 20);
+        cache.put("a", 1);
+        assertEquals(1, cache.get("a"));
+
+        Thread.sleep(50);
+        assertNull(cache.get("a"));
+        // 过期的数据在读取时被清理
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void ignoresNullValuesAndSupportsInvalidation() {
+        LocalCache cache = new LocalCache(10, 60_000);
+        cache.put("a", null);
+        assertEquals(0, cache.size());
+
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals(2, cache.get("b"));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,120 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 熔断器的打开、探测、关闭，以及降级期间的数据库限流
+ */
+class RedisCircuitBreakerTest {
+
+    private StringRedisTemplate redis;
+    private RedisCircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        breaker = new RedisCircuitBreaker();
+        ReflectionTestUtils.setField(breaker, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(breaker, "enabled", true);
+        ReflectionTestUtils.setField(breaker, "failureThreshold", 3);
+        ReflectionTestUtils.setField(breaker, "degradedDbPermitsPerSecond", 2);
+    }
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        breaker.recordFailure(timeout());
+        breaker.recordFailure(timeout());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure(timeout());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        breaker.recordFailure(timeout());
+        breaker.recordFailure(timeout());
+        breaker.recordSuccess();
+        breaker.recordFailure(timeout());
+        breaker.recordFailure(timeout());
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void probeClosesOnlyAfterRedisAnswers() {
+        open();
+        when(redis.execute(any(RedisCallback.class)))
+                .thenThrow(new RedisConnectionFailureException("down"))
+                .thenReturn("PONG");
+
+        probe();
+        assertTrue(breaker.isOpen());
+
+        probe();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        // 关闭后重新从0计数
+        breaker.recordFailure(timeout());
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    void disabledBreakerNeverOpens() {
+        ReflectionTestUtils.setField(breaker, "enabled", false);
+        open();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    void limitsDatabasePermitsPerSecond() {
+        // 避免跨过秒的边界
+        while (System.currentTimeMillis() % 1000 > 900) {
+            Thread.yield();
+        }
+        assertTrue(breaker.tryAcquireDbPermit());
+        assertTrue(breaker.tryAcquireDbPermit());
+        assertFalse(breaker.tryAcquireDbPermit());
+    }
+
+    @Test
+    void permitsRefillInTheNextSecond() {
+        ReflectionTestUtils.setField(breaker, "degradedDbPermitsPerSecond", 0);
+        assertFalse(breaker.tryAcquireDbPermit());
+        ReflectionTestUtils.setField(breaker, "degradedDbPermitsPerSecond", 1);
+        // 模拟上一个窗口已经用完
+        long previous = System.currentTimeMillis() / 1000 - 1;
+        ((AtomicLong) ReflectionTestUtils.getField(breaker, "permitWindow")).set(previous);
+        assertTrue(breaker.tryAcquireDbPermit());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure(timeout());
+        }
+    }
+
+    private void probe() {
+        ReflectionTestUtils.invokeMethod(breaker, "probe");
+    }
+
+    private static QueryTimeoutException timeout() {
+        return new QueryTimeoutException("timeout");
+    }
+}
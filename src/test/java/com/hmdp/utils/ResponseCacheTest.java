@@ -0,0 +1,167 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisHashCommands;
+import org.springframework.data.redis.connection.RedisKeyCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 响应缓存的命中、ETag和304
+ */
+class ResponseCacheTest {
+
+    private static final String PREFIX = "cache:shop:";
+
+    /**
+     * 模拟的Redis Hash，key为 key + "#" + field
+     */
+    private final Map<String, byte[]> hashes = new HashMap<>();
+    private ResponseCache responseCache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedisHashCommands hashCommands = mock(RedisHashCommands.class);
+        when(hashCommands.hGet(any(), any())).thenAnswer(invocation ->
+                hashes.get(field(invocation.getArgument(0), invocation.getArgument(1))));
+        when(hashCommands.hSet(any(), any(), any())).thenAnswer(invocation -> {
+            hashes.put(field(invocation.getArgument(0), invocation.getArgument(1)), invocation.getArgument(2));
+            return true;
+        });
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.hashCommands()).thenReturn(hashCommands);
+        when(connection.keyCommands()).thenReturn(mock(RedisKeyCommands.class));
+        RedisTemplate<String, byte[]> redis = mock(RedisTemplate.class);
+        when(redis.execute(any(RedisCallback.class))).thenAnswer(invocation ->
+                ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+        when(redis.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+            return null;
+        });
+        RedisCircuitBreaker breaker = mock(RedisCircuitBreaker.class);
+        when(breaker.allowRequest()).thenReturn(true);
+
+        responseCache = new ResponseCache();
+        ReflectionTestUtils.setField(responseCache, "cacheRedisTemplate", redis);
+        ReflectionTestUtils.setField(responseCache, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(responseCache, "cacheMetrics", mock(CacheMetrics.class));
+        ReflectionTestUtils.setField(responseCache, "cacheClient", mock(CacheClient.class));
+        ReflectionTestUtils.setField(responseCache, "hotKeyDetector", mock(HotKeyDetector.class));
+        ReflectionTestUtils.setField(responseCache, "redisBreaker", breaker);
+        ReflectionTestUtils.setField(responseCache, "enabled", true);
+    }
+
+    @Test
+    void servesTheCachedBytesWithTheSameETag() {
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<Result> loader = () -> {
+            loads.incrementAndGet();
+            return Result.ok("shop-1");
+        };
+
+        ResponseEntity<byte[]> first = query(null, loader);
+        ResponseEntity<byte[]> second = query(null, loader);
+
+        assertEquals(1, loads.get());
+        assertEquals(HttpStatus.OK, second.getStatusCode());
+        assertArrayEquals(first.getBody(), second.getBody());
+        assertEquals(first.getHeaders().getETag(), second.getHeaders().getETag());
+        assertEquals(ETagUtils.of(first.getBody()), first.getHeaders().getETag());
+    }
+
+    @Test
+    void answersNotModifiedWhenTheETagMatches() {
+        String etag = query(null, () -> Result.ok("shop-1")).getHeaders().getETag();
+
+        ResponseEntity<byte[]> response = query(etag, () -> Result.ok("shop-1"));
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertNull(response.getBody());
+        assertEquals(etag, response.getHeaders().getETag());
+
+        // 弱ETag和多个值也能匹配
+        assertEquals(HttpStatus.NOT_MODIFIED, query("\"x\", W/" + etag, () -> Result.ok("shop-1")).getStatusCode());
+    }
+
+    @Test
+    void changedDataGetsANewETag() {
+        String etag = query(null, () -> Result.ok("shop-1")).getHeaders().getETag();
+        // 数据修改后删除响应缓存
+        hashes.clear();
+
+        ResponseEntity<byte[]> response = query(etag, () -> Result.ok("shop-1 changed"));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(ETagUtils.of(response.getBody()), response.getHeaders().getETag());
+    }
+
+    @Test
+    void failedResponsesAreNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<Result> loader = () -> {
+            loads.incrementAndGet();
+            return Result.fail("店铺不存在！");
+        };
+        query(null, loader);
+        query(null, loader);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void variantsAreCachedSeparately() {
+        responseCache.query(PREFIX, 1L, () -> "true", null, 30L, TimeUnit.MINUTES, () -> Result.ok("liked"));
+        responseCache.query(PREFIX, 1L, () -> "false", null, 30L, TimeUnit.MINUTES, () -> Result.ok("not liked"));
+
+        ResponseEntity<byte[]> liked = responseCache.query(PREFIX, 1L, () -> "true", null, 30L, TimeUnit.MINUTES,
+                () -> Result.ok("unused"));
+        assertTrue(body(liked).contains("\"data\":\"liked\""));
+        assertEquals(2, hashes.size());
+    }
+
+    @Test
+    void disabledCacheNeitherStoresNorComputesTheVariant() {
+        ReflectionTestUtils.setField(responseCache, "enabled", false);
+        AtomicInteger variants = new AtomicInteger();
+        ResponseEntity<byte[]> response = responseCache.query(PREFIX, 1L, () -> {
+            variants.incrementAndGet();
+            return "true";
+        }, null, 30L, TimeUnit.MINUTES, () -> Result.ok("shop-1"));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(0, variants.get());
+        assertEquals(0, hashes.size());
+    }
+
+    private ResponseEntity<byte[]> query(String ifNoneMatch, Supplier<Result> loader) {
+        return responseCache.query(PREFIX, 1L, ifNoneMatch, 30L, TimeUnit.MINUTES, loader);
+    }
+
+    private static String field(byte[] key, byte[] field) {
+        return new String(key, StandardCharsets.UTF_8) + "#" + new String(field, StandardCharsets.UTF_8);
+    }
+
+    private static String body(ResponseEntity<byte[]> response) {
+        return new String(response.getBody(), StandardCharsets.UTF_8);
+    }
+}
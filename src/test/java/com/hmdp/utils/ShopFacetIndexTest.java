@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopFacets;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopFacetIndexTest {
+
+    private ShopFacetIndex index;
+
+    @BeforeEach
+    void setUp() {
+        // 价格区间：[0, 50)、[50, 100)、[100, ∞)
+        index = new ShopFacetIndex(new long[]{50, 100});
+        index.rebuild(builder -> {
+            builder.add(1, 1, "A", 30L);
+            builder.add(2, 1, "A", 80L);
+            builder.add(3, 1, "B", 80L);
+            builder.add(4, 1, "B", null);
+            builder.add(5, 2, "A", 30L);
+        });
+    }
+
+    @Test
+    void countsAreasAndPriceBandsPerType() {
+        ShopFacets facets = index.facets(1, null, null);
+
+        assertEquals(4, facets.getTotal());
+        assertEquals(areas("A", 2, "B", 2), facets.getAreas());
+        // 没有人均价格的店铺不计入任何价格区间
+        assertEquals(Arrays.asList(1, 2, 0), bandCounts(facets));
+        ShopFacets.PriceBand middle = facets.getPriceBands().get(1);
+        assertEquals(50L, middle.getMin());
+        assertEquals(100L, middle.getMax());
+        assertNull(facets.getPriceBands().get(0).getMin());
+        assertNull(facets.getPriceBands().get(2).getMax());
+    }
+
+    @Test
+    void eachFacetIsCountedUnderTheOtherSelection() {
+        // 商圈数量受价格区间过滤，价格区间数量不受自身选择影响
+        ShopFacets byBand = index.facets(1, null, 1);
+        assertEquals(2, byBand.getTotal());
+        assertEquals(areas("A", 1, "B", 1), byBand.getAreas());
+        assertEquals(Arrays.asList(1, 2, 0), bandCounts(byBand));
+
+        ShopFacets byArea = index.facets(1, "A", null);
+        assertEquals(2, byArea.getTotal());
+        assertEquals(areas("A", 2, "B", 2), byArea.getAreas());
+        assertEquals(Arrays.asList(1, 1, 0), bandCounts(byArea));
+    }
+
+    @Test
+    void filterIntersectsTypeAreaAndBandBitmaps() {
+        ShopFacetIndex.Filter filter = index.filter(1, null, 1);
+        assertEquals(Arrays.asList(2L, 3L), filter.page(0, 10));
+        assertEquals(2, filter.size());
+        assertTrue(filter.contains(3));
+        assertFalse(filter.contains(1));
+
+        assertEquals(Arrays.asList(2L), index.filter(1, "A", 1).page(0, 10));
+        assertEquals(Arrays.asList(3L), index.filter(1, null, 1).page(1, 10));
+        assertEquals(0, index.filter(1, "C", null).size());
+        assertEquals(0, index.filter(1, null, 9).size());
+        assertEquals(0, index.filter(3, null, null).size());
+    }
+
+    @Test
+    void appliesUpsertsAndRemovals() {
+        index.upsert(3, 1, "A", 20L);
+        index.remove(2);
+
+        ShopFacets facets = index.facets(1, null, null);
+        assertEquals(3, facets.getTotal());
+        assertEquals(areas("A", 2, "B", 1), facets.getAreas());
+        assertEquals(Arrays.asList(2, 0, 0), bandCounts(facets));
+        assertEquals(Arrays.asList(1L, 3L), index.filter(1, "A", 0).page(0, 10));
+        // 其它类型不受影响
+        assertEquals(1, index.facets(2, null, null).getTotal());
+    }
+
+    @Test
+    void priceRangeOfBand() {
+        assertArrayEquals(new long[]{0, 50}, index.priceRange(0));
+        assertArrayEquals(new long[]{50, 100}, index.priceRange(1));
+        assertArrayEquals(new long[]{100, 0}, index.priceRange(2));
+        assertNull(index.priceRange(3));
+        assertNull(index.priceRange(-1));
+    }
+
+    private static Map<String, Integer> areas(String a, int countA, String b, int countB) {
+        Map<String, Integer> areas = new LinkedHashMap<>();
+        areas.put(a, countA);
+        areas.put(b, countB);
+        return areas;
+    }
+
+    private static List<Integer> bandCounts(ShopFacets facets) {
+        return facets.getPriceBands().stream().map(ShopFacets.PriceBand::getCount).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 附近店铺查询的基准测试：进程内网格索引 vs Redis GEOSEARCH
+ * <p>
+ * 在杭州市区范围内随机生成店铺，按类型平均分布，查询半径5公里内距离最近的一页店铺。
+ * Redis的测试需要本地Redis（localhost:6379），数据写入 bench:shop:geo: 前缀，测试结束后删除。
+ * 运行：执行main方法，或 mvn test-compile 后用JMH命令行运行。
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class ShopGeoIndexBenchmark {
+
+    private static final String KEY_PREFIX = "bench:shop:geo:";
+    private static final double MIN_X = 119.9;
+    private static final double MAX_X = 120.4;
+    private static final double MIN_Y = 30.1;
+    private static final double MAX_Y = 30.4;
+    private static final double RADIUS_METERS = 5000;
+    private static final int TYPES = 10;
+    private static final int LIMIT = 5;
+
+    @State(Scope.Benchmark)
+    public static class LocalIndex {
+        @Param({"1000000"})
+        public int shops;
+
+        ShopGeoIndex index;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            index = new ShopGeoIndex(0.01);
+            Random random = new Random(42);
+            index.rebuild(builder -> {
+                for (int id = 1; id <= shops; id++) {
+                    builder.add(id % TYPES + 1, id, randomX(random), randomY(random));
+                }
+            });
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RedisGeo {
+        @Param({"1000000"})
+        public int shops;
+
+        LettuceConnectionFactory connectionFactory;
+        StringRedisTemplate redisTemplate;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            RedisStandaloneConfiguration config = new RedisStandaloneConfiguration("localhost", 6379);
+            connectionFactory = new LettuceConnectionFactory(config);
+            connectionFactory.afterPropertiesSet();
+            redisTemplate = new StringRedisTemplate(connectionFactory);
+            deleteKeys();
+            // 与本地索引使用相同的随机种子，数据一致；每批管道写入1万个店铺
+            Random random = new Random(42);
+            int batch = 10000;
+            for (int begin = 1; begin <= shops; begin += batch) {
+                int from = begin;
+                int to = Math.min(shops, begin + batch - 1);
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (int id = from; id <= to; id++) {
+                        byte[] key = (KEY_PREFIX + (id % TYPES + 1)).getBytes(StandardCharsets.UTF_8);
+                        Point point = new Point(randomX(random), randomY(random));
+                        connection.geoCommands().geoAdd(key, point, String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+                    }
+                    return null;
+                });
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            deleteKeys();
+            connectionFactory.destroy();
+        }
+
+        private void deleteKeys() {
+            for (int type = 1; type <= TYPES; type++) {
+                redisTemplate.delete(KEY_PREFIX + type);
+            }
+        }
+    }
+
+    @Benchmark
+    public ShopGeoIndex.GeoHits localIndex(LocalIndex state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long typeId = random.nextInt(TYPES) + 1;
+        return state.index.search(typeId, randomX(random), randomY(random), RADIUS_METERS, LIMIT);
+    }
+
+    @Benchmark
+    public GeoResults<RedisGeoCommands.GeoLocation<String>> redisGeoSearch(RedisGeo state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = KEY_PREFIX + (random.nextInt(TYPES) + 1);
+        return state.redisTemplate.opsForGeo().search(key,
+                GeoReference.fromCoordinate(randomX(random), randomY(random)), new Distance(RADIUS_METERS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(LIMIT));
+    }
+
+    private static double randomX(Random random) {
+        return MIN_X + random.nextDouble() * (MAX_X - MIN_X);
+    }
+
+    private static double randomY(Random random) {
+        return MIN_Y + random.nextDouble() * (MAX_Y - MIN_Y);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ShopGeoIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopGeoIndexTest {
+
+    private static final int N = 20_000;
+    private static final double RADIUS = 5000;
+
+    private final Random random = new Random(1);
+    private final double[] xs = new double[N + 1];
+    private final double[] ys = new double[N + 1];
+    /**
+     * 店铺类型，-1表示已删除
+     */
+    private final long[] types = new long[N + 1];
+
+    private ShopGeoIndex index;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 1; i <= N; i++) {
+            xs[i] = 119.9 + random.nextDouble() * 0.5;
+            ys[i] = 30.1 + random.nextDouble() * 0.3;
+            types[i] = i % 3;
+        }
+        index = new ShopGeoIndex(0.01);
+        assertFalse(index.isReady());
+        index.rebuild(builder -> {
+            for (int i = 1; i <= N; i++) {
+                builder.add(types[i], i, xs[i], ys[i]);
+            }
+        });
+        assertTrue(index.isReady());
+        // 重建之后的增量修改：一半删除，一半移动并更换类型
+        for (int i = 1; i <= 600; i++) {
+            if (i % 2 == 0) {
+                index.remove(i);
+                types[i] = -1;
+            } else {
+                types[i] = (types[i] + 1) % 3;
+                xs[i] = 119.9 + random.nextDouble() * 0.5;
+                index.upsert(types[i], i, xs[i], ys[i]);
+            }
+        }
+    }
+
+    @Test
+    void ringScanMatchesBruteForce() {
+        for (int q = 0; q < 50; q++) {
+            double x = 119.9 + random.nextDouble() * 0.5;
+            double y = 30.1 + random.nextDouble() * 0.3;
+            long typeId = q % 3;
+
+            List<Long> expected = bruteForce(typeId, x, y, 20);
+            ShopGeoIndex.GeoHits hits = index.search(typeId, x, y, RADIUS, 20);
+
+            assertEquals(expected, ids(hits));
+            for (int i = 1; i < hits.size(); i++) {
+                assertTrue(hits.distance(i - 1) <= hits.distance(i));
+            }
+        }
+    }
+
+    @Test
+    void cursorPagesContinueWithoutGapsOrDuplicates() {
+        for (int q = 0; q < 10; q++) {
+            double x = 119.9 + random.nextDouble() * 0.5;
+            double y = 30.1 + random.nextDouble() * 0.3;
+
+            List<Long> paged = new ArrayList<>();
+            double afterDistance = -1;
+            long afterId = Long.MIN_VALUE;
+            while (true) {
+                ShopGeoIndex.GeoHits page = index.search(1, x, y, RADIUS, 50, afterDistance, afterId);
+                if (page.size() == 0) {
+                    break;
+                }
+                paged.addAll(ids(page));
+                afterDistance = page.distance(page.size() - 1);
+                afterId = page.id(page.size() - 1);
+            }
+
+            assertEquals(bruteForce(1, x, y, N), paged);
+        }
+    }
+
+    @Test
+    void unknownTypeReturnsNothing() {
+        assertEquals(0, index.search(99, 120.1, 30.2, RADIUS, 10).size());
+    }
+
+    private List<Long> bruteForce(long typeId, double x, double y, int limit) {
+        List<double[]> all = new ArrayList<>();
+        for (int i = 1; i <= N; i++) {
+            if (types[i] != typeId) {
+                continue;
+            }
+            double d = ShopGeoIndex.distance(x, y, xs[i], ys[i]);
+            if (d <= RADIUS) {
+                all.add(new double[]{d, i});
+            }
+        }
+        all.sort(Comparator.<double[]>comparingDouble(p -> p[0]).thenComparingDouble(p -> p[1]));
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, all.size()); i++) {
+            ids.add((long) all.get(i)[1]);
+        }
+        return ids;
+    }
+
+    private static List<Long> ids(ShopGeoIndex.GeoHits hits) {
+        List<Long> ids = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            ids.add(hits.id(i));
+        }
+        return ids;
+    }
+}
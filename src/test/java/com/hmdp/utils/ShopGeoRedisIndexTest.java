@@ -0,0 +1,210 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.RedisKeyCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 全量重建写入临时key，提交时RENAME替换线上key，重建期间的增量修改同时写入临时key
+ */
+class ShopGeoRedisIndexTest {
+
+    /**
+     * 模拟的Redis：GEO key -> 成员
+     */
+    private final Map<String, Set<String>> geo = new TreeMap<>();
+    private final Map<String, Long> versions = new HashMap<>();
+    private final Map<String, String> values = new HashMap<>();
+    private ShopGeoRedisIndex index;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedisGeoCommands geoCommands = mock(RedisGeoCommands.class);
+        when(geoCommands.geoAdd(any(byte[].class), any(Point.class), any(byte[].class))).thenAnswer(invocation -> {
+            members(invocation.getArgument(0)).add(string(invocation.getArgument(2)));
+            return 1L;
+        });
+        when(geoCommands.geoAdd(any(byte[].class), anyIterable())).thenAnswer(invocation -> {
+            Set<String> members = members(invocation.getArgument(0));
+            for (RedisGeoCommands.GeoLocation<byte[]> location
+                    : (Iterable<RedisGeoCommands.GeoLocation<byte[]>>) invocation.getArgument(1)) {
+                members.add(string(location.getName()));
+            }
+            return 1L;
+        });
+        RedisZSetCommands zSetCommands = mock(RedisZSetCommands.class);
+        when(zSetCommands.zRem(any(byte[].class), any(byte[].class))).thenAnswer(invocation -> {
+            Set<String> members = geo.get(string(invocation.getArgument(0)));
+            return members != null && members.remove(string(invocation.getArgument(1))) ? 1L : 0L;
+        });
+        RedisStringCommands stringCommands = mock(RedisStringCommands.class);
+        when(stringCommands.incr(any(byte[].class))).thenAnswer(invocation ->
+                versions.merge(string(invocation.getArgument(0)), 1L, Long::sum));
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.geoCommands()).thenReturn(geoCommands);
+        when(connection.zSetCommands()).thenReturn(zSetCommands);
+        when(connection.stringCommands()).thenReturn(stringCommands);
+        when(connection.keyCommands()).thenReturn(mock(RedisKeyCommands.class));
+
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(ops.get(anyString())).thenAnswer(invocation -> values.get(invocation.<String>getArgument(0)));
+        when(ops.setIfAbsent(anyString(), anyString(), anyLong(), eq(TimeUnit.SECONDS))).thenAnswer(invocation ->
+                values.putIfAbsent(invocation.getArgument(0), invocation.getArgument(1)) == null);
+
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        when(redis.opsForValue()).thenReturn(ops);
+        when(redis.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+            return null;
+        });
+        when(redis.scan(any(ScanOptions.class))).thenAnswer(invocation -> scan(invocation.getArgument(0)));
+        // RENAME直接移动模拟Redis中的数据
+        doAnswer(invocation -> {
+            geo.put(invocation.getArgument(1), geo.remove(invocation.<String>getArgument(0)));
+            return null;
+        }).when(redis).rename(anyString(), anyString());
+        when(redis.delete(anyString())).thenAnswer(invocation ->
+                values.remove(invocation.<String>getArgument(0)) != null);
+        when(redis.delete(any(Collection.class))).thenAnswer(invocation -> {
+            long deleted = 0;
+            for (Object key : (Collection<Object>) invocation.getArgument(0)) {
+                deleted += geo.remove((String) key) != null ? 1 : 0;
+            }
+            return deleted;
+        });
+        index = new ShopGeoRedisIndex();
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(index, "pipelineSize", 2);
+    }
+
+    @Test
+    void commitReplacesLiveKeysAndDropsEmptyTypes() {
+        index.upsert(null, 1, 100, 120.1, 30.1);
+        index.upsert(null, 3, 300, 120.3, 30.3);
+        versions.clear();
+
+        ShopGeoRedisIndex.Rebuild rebuild = index.beginRebuild();
+        rebuild.add(1, 1, 120.1, 30.1);
+        rebuild.add(1, 2, 120.2, 30.2);
+        rebuild.add(2, 3, 120.3, 30.3);
+        // 提交前查询仍然看到旧数据
+        assertEquals(set("100"), geo.get(SHOP_GEO_KEY + 1));
+        assertEquals(3, rebuild.commit());
+
+        assertEquals(set("1", "2"), geo.get(SHOP_GEO_KEY + 1));
+        assertEquals(set("3"), geo.get(SHOP_GEO_KEY + 2));
+        // 重建后没有店铺的类型被删除
+        assertFalse(geo.containsKey(SHOP_GEO_KEY + 3));
+        assertTrue(geo.keySet().stream().noneMatch(key -> key.startsWith(SHOP_GEO_REBUILD_KEY)));
+        // 三个类型的版本号都递增，缓存的附近店铺结果失效
+        assertEquals(set(SHOP_GEO_VERSION_KEY + 1, SHOP_GEO_VERSION_KEY + 2, SHOP_GEO_VERSION_KEY + 3),
+                versions.keySet());
+        assertNull(values.get(SHOP_GEO_REBUILDING_KEY));
+    }
+
+    @Test
+    void changesDuringRebuildSurviveTheRename() {
+        // 每个店铺立即写入临时key，之后的增量修改作用在已写入的数据上
+        ReflectionTestUtils.setField(index, "pipelineSize", 1);
+        ShopGeoRedisIndex.Rebuild rebuild = index.beginRebuild();
+        rebuild.add(1, 1, 120.1, 30.1);
+        // 重建期间新增店铺、店铺换类型
+        index.upsert(null, 1, 2, 120.2, 30.2);
+        index.upsert(1L, 2, 1, 120.1, 30.1);
+        rebuild.commit();
+
+        assertEquals(set("2"), geo.get(SHOP_GEO_KEY + 1));
+        assertEquals(set("1"), geo.get(SHOP_GEO_KEY + 2));
+    }
+
+    @Test
+    void onlyOneRebuildAtATime() {
+        ShopGeoRedisIndex.Rebuild rebuild = index.beginRebuild();
+        assertThrows(IllegalStateException.class, index::beginRebuild);
+        rebuild.abort();
+        index.beginRebuild().abort();
+    }
+
+    @Test
+    void abortKeepsLiveKeysAndDeletesTempKeys() {
+        index.upsert(null, 1, 100, 120.1, 30.1);
+        ShopGeoRedisIndex.Rebuild rebuild = index.beginRebuild();
+        rebuild.add(1, 1, 120.1, 30.1);
+        rebuild.add(1, 2, 120.2, 30.2);
+        rebuild.abort();
+
+        assertEquals(set("100"), geo.get(SHOP_GEO_KEY + 1));
+        assertEquals(new HashSet<>(Arrays.asList(SHOP_GEO_KEY + 1)), geo.keySet());
+        assertNull(values.get(SHOP_GEO_REBUILDING_KEY));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cursor<String> scan(ScanOptions options) {
+        String prefix = options.getPattern().substring(0, options.getPattern().length() - 1);
+        List<String> matched = new ArrayList<>();
+        for (String key : geo.keySet()) {
+            if (key.startsWith(prefix)) {
+                matched.add(key);
+            }
+        }
+        Iterator<String> iterator = matched.iterator();
+        Cursor<String> cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> iterator.next());
+        doCallRealMethod().when(cursor).forEachRemaining(any());
+        return cursor;
+    }
+
+    private Set<String> members(byte[] key) {
+        return geo.computeIfAbsent(string(key), k -> new HashSet<>());
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Set<String> set(String... members) {
+        return new HashSet<>(Arrays.asList(members));
+    }
+}
@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_VERSION_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 同一geohash格子共用查询结果，版本号变化后失效
+ */
+class ShopGeoResultCacheTest {
+
+    private final Map<String, String> redis = new HashMap<>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final List<double[]> loadCenters = new ArrayList<>();
+    private ShopGeoResultCache cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(ops.multiGet(any(Collection.class))).thenAnswer(invocation -> {
+            List<String> values = new ArrayList<>();
+            for (Object key : (Collection<Object>) invocation.getArgument(0)) {
+                values.add(redis.get((String) key));
+            }
+            return values;
+        });
+        doAnswer(invocation -> redis.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(ops).set(anyString(), anyString(), anyLong(), eq(TimeUnit.SECONDS));
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.opsForValue()).thenReturn(ops);
+
+        cache = new ShopGeoResultCache();
+        ReflectionTestUtils.setField(cache, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "precision", 7);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 30L);
+    }
+
+    @Test
+    void geohashMatchesTheStandardEncoding() {
+        assertEquals("ezs42", ShopGeoResultCache.geohash(-5.6, 42.6, 5));
+        assertEquals("wtmk", ShopGeoResultCache.geohash(120.149192, 30.316078, 4));
+        // 格子中心编码后还是同一个格子
+        String cell = ShopGeoResultCache.geohash(120.149192, 30.316078, 7);
+        double[] center = ShopGeoResultCache.center(cell);
+        assertEquals(cell, ShopGeoResultCache.geohash(center[0], center[1], 7));
+    }
+
+    @Test
+    void usersInTheSameCellShareOneQueryAtTheCellCenter() {
+        List<ShopGeoResultCache.Hit> first = get(120.149192, 30.316078);
+        // 几米之外，同一个格子
+        List<ShopGeoResultCache.Hit> second = get(120.149200, 30.316080);
+
+        assertEquals(1, loads.get());
+        assertEquals(ids(first), ids(second));
+        double[] center = ShopGeoResultCache.center(ShopGeoResultCache.geohash(120.149192, 30.316078, 7));
+        assertEquals(center[0], loadCenters.get(0)[0]);
+        assertEquals(center[1], loadCenters.get(0)[1]);
+        assertEquals(120.1, second.get(0).getX());
+    }
+
+    @Test
+    void versionBumpInvalidatesCachedPages() {
+        get(120.149192, 30.316078);
+        redis.put(SHOP_GEO_VERSION_KEY + 1, "1");
+        get(120.149192, 30.316078);
+        assertEquals(2, loads.get());
+        // 新版本的结果可以命中
+        get(120.149192, 30.316078);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void otherTypesCellsAndPagesAreSeparate() {
+        get(120.149192, 30.316078);
+        cache.get(2, 120.149192, 30.316078, "distance", 1, this::load);
+        cache.get(1, 120.149192, 30.316078, "distance", 2, this::load);
+        get(120.2, 30.4);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void emptyPagesAreCachedToo() {
+        BiFunction<Double, Double, List<ShopGeoResultCache.Hit>> empty = (x, y) -> {
+            loads.incrementAndGet();
+            return Collections.emptyList();
+        };
+        assertTrue(cache.get(1, 120.1, 30.3, "distance", 9, empty).isEmpty());
+        assertTrue(cache.get(1, 120.1, 30.3, "distance", 9, empty).isEmpty());
+        assertEquals(1, loads.get());
+    }
+
+    private List<ShopGeoResultCache.Hit> get(double x, double y) {
+        return cache.get(1, x, y, "distance", 1, this::load);
+    }
+
+    private List<ShopGeoResultCache.Hit> load(double x, double y) {
+        loads.incrementAndGet();
+        loadCenters.add(new double[]{x, y});
+        return Arrays.asList(new ShopGeoResultCache.Hit(1, 120.1, 30.3), new ShopGeoResultCache.Hit(2, 120.2, 30.4));
+    }
+
+    private static List<Long> ids(List<ShopGeoResultCache.Hit> hits) {
+        List<Long> ids = new ArrayList<>();
+        hits.forEach(hit -> ids.add(hit.getId()));
+        return ids;
+    }
+}
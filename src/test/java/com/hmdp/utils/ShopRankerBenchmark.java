@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 店铺综合排序的基准测试：一次请求对1万个候选店铺打分并取前k个
+ * <p>
+ * topK为{@link ShopRanker#rank}的有界堆选择，fullSort为同样打分后对全部候选排序的对照。
+ * k=5为第一页，k=50为第十页。
+ * 运行：执行main方法，或 mvn test-compile 后用JMH命令行运行。
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShopRankerBenchmark {
+
+    @Param({"10000"})
+    public int candidates;
+
+    @Param({"5", "50"})
+    public int k;
+
+    private ShopRanker ranker;
+    private ShopRanker.Weights weights;
+    private RankCandidates shops;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ranker = new ShopRanker();
+        weights = new ShopRanker.Weights();
+        weights.targetPrice = 80;
+        shops = new RankCandidates(candidates);
+        Random random = new Random(42);
+        for (int id = 1; id <= candidates; id++) {
+            shops.add(id, random.nextDouble() * 5000, 30 + random.nextInt(21), random.nextInt(10000),
+                    random.nextInt(3000), 20 + random.nextInt(300));
+        }
+    }
+
+    @Benchmark
+    public int[] topK() {
+        return ranker.rank(shops, weights, k);
+    }
+
+    @Benchmark
+    public Integer[] fullSort() {
+        int n = shops.size();
+        double[] scores = new double[n];
+        ShopRanker.Weights w = weights;
+        for (int i = 0; i < n; i++) {
+            int p = shops.avgPrices[i];
+            scores[i] = w.distance * w.decayMeters / (w.decayMeters + shops.distances[i])
+                    + w.score / 50 * shops.scores[i]
+                    + w.sold * shops.solds[i] / (shops.solds[i] + w.soldHalf)
+                    + w.comments * shops.comments[i] / (shops.comments[i] + w.commentsHalf)
+                    + w.price * (p < w.targetPrice ? p / w.targetPrice : w.targetPrice / p);
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Double.compare(scores[b], scores[a]);
+            return c != 0 ? c : Long.compare(shops.ids[a], shops.ids[b]);
+        });
+        return Arrays.copyOf(order, k);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ShopRankerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 综合排序的顺序：有界堆选出的前k个与全量排序一致，同分时按id升序
+ */
+class ShopRankerTest {
+
+    private final ShopRanker ranker = new ShopRanker();
+
+    @Test
+    void topKMatchesAFullSort() {
+        ShopRanker.Weights w = new ShopRanker.Weights();
+        w.targetPrice = 80;
+        RankCandidates shops = new RankCandidates(1000);
+        Random random = new Random(42);
+        int[] scores = new int[1000];
+        int[] solds = new int[1000];
+        int[] comments = new int[1000];
+        int[] prices = new int[1000];
+        for (int i = 0; i < 1000; i++) {
+            scores[i] = 30 + random.nextInt(21);
+            solds[i] = random.nextInt(10000);
+            comments[i] = random.nextInt(3000);
+            prices[i] = random.nextInt(300);
+            shops.add(i + 1, random.nextDouble() * 5000, scores[i], solds[i], comments[i], prices[i]);
+        }
+        double[] expectedScores = new double[1000];
+        for (int i = 0; i < 1000; i++) {
+            expectedScores[i] = score(w, shops.distance(i), scores[i], solds[i], comments[i], prices[i]);
+        }
+        int[] expected = IntStream.range(0, 1000).boxed()
+                .sorted(Comparator.<Integer>comparingDouble(i -> -expectedScores[i]).thenComparingLong(shops::id))
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        for (int k : new int[]{1, 5, 50, 1000}) {
+            assertArrayEquals(Arrays.copyOf(expected, k), ranker.rank(shops, w, k), "k=" + k);
+        }
+    }
+
+    @Test
+    void closerAndBetterRatedShopsComeFirst() {
+        RankCandidates shops = new RankCandidates(3);
+        shops.add(1, 3000, 40, 100, 100, 80);
+        shops.add(2, 100, 40, 100, 100, 80);
+        shops.add(3, 100, 50, 100, 100, 80);
+        assertArrayEquals(new int[]{2, 1, 0}, ranker.rank(shops, new ShopRanker.Weights(), 3));
+    }
+
+    @Test
+    void tiesAreBrokenBySmallerId() {
+        RankCandidates shops = new RankCandidates(4);
+        shops.add(9, 100, 40, 100, 100, 80);
+        shops.add(3, 100, 40, 100, 100, 80);
+        shops.add(7, 100, 40, 100, 100, 80);
+        shops.add(5, 100, 40, 100, 100, 80);
+        int[] top = ranker.rank(shops, new ShopRanker.Weights(), 3);
+        assertArrayEquals(new long[]{3, 5, 7}, Arrays.stream(top).mapToLong(shops::id).toArray());
+    }
+
+    @Test
+    void returnsNothingForAnEmptyCandidateList() {
+        assertEquals(0, ranker.rank(new RankCandidates(0), new ShopRanker.Weights(), 5).length);
+    }
+
+    @Test
+    void typeWeightsOverrideTheDefaults() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("hmdp.rank.weights.distance", "1")
+                .withProperty("hmdp.rank.weights.target-price", "50")
+                .withProperty("hmdp.rank.types.1.target-price", "80");
+        ReflectionTestUtils.setField(ranker, "environment", environment);
+
+        assertEquals(1, ranker.weights(1).distance);
+        assertEquals(80, ranker.weights(1).targetPrice);
+        assertEquals(50, ranker.weights(2).targetPrice);
+        // 未配置的项使用Weights的默认值
+        assertEquals(2, ranker.weights(2).score);
+    }
+
+    private static double score(ShopRanker.Weights w, double distance, int score, int sold, int comment, int price) {
+        double s = w.distance * w.decayMeters / (w.decayMeters + distance)
+                + w.score / 50 * score
+                + w.sold * sold / (sold + w.soldHalf)
+                + w.comments * comment / (comment + w.commentsHalf);
+        if (w.targetPrice <= 0 || price <= 0) {
+            return s + w.price * 0.5;
+        }
+        return s + w.price * (price < w.targetPrice ? price / w.targetPrice : w.targetPrice / price);
+    }
+}
@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShopSearchIndexTest {
+
+    private ShopSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopSearchIndex();
+        index.rebuild(builder -> {
+            builder.add(1, "茶颜悦色", "湖滨", "延安路1号");
+            builder.add(2, "老茶馆", "大关", "金华路2号");
+            builder.add(3, "茶", "大关", "金华路3号");
+            builder.add(4, "咖啡馆", "茶园", "金华路4号");
+            builder.add(5, "星巴克 Starbucks 西湖店", "西湖", "南山路5号");
+            builder.add(6, "Starbucks", "西湖", "北山路6号");
+            builder.add(7, "Starbucks", "湖滨", "延安路7号");
+        });
+    }
+
+    @Test
+    void ranksExactNameThenPrefixThenContainsThenOtherFields() {
+        ShopSearchIndex.SearchHits hits = index.search("茶", 0, 10);
+        assertEquals(Arrays.asList(3L, 1L, 2L, 4L), hits.getIds());
+        assertEquals(4, hits.getTotal());
+    }
+
+    @Test
+    void pagesWithOffsetAndKeepsTotal() {
+        ShopSearchIndex.SearchHits hits = index.search("茶", 1, 2);
+        assertEquals(Arrays.asList(1L, 2L), hits.getIds());
+        assertEquals(4, hits.getTotal());
+    }
+
+    @Test
+    void requiresEverySegmentAndIgnoresCase() {
+        ShopSearchIndex.SearchHits hits = index.search("STARBUCKS 西湖", 0, 10);
+        // 分数相同时名称短的在前
+        assertEquals(Arrays.asList(6L, 5L), hits.getIds());
+        assertEquals(2, hits.getTotal());
+    }
+
+    @Test
+    void appliesUpsertsAndRemovalsAfterRebuild() {
+        index.upsert(2, "咖啡", "大关", "金华路2号");
+        index.remove(3);
+        index.upsert(8, "茶", "湖滨", "延安路8号");
+
+        ShopSearchIndex.SearchHits hits = index.search("茶", 0, 10);
+        assertEquals(Arrays.asList(8L, 1L, 4L), hits.getIds());
+        assertEquals(3, hits.getTotal());
+    }
+
+    @Test
+    void overlayMatchesOnlyWordPrefixesLikeTheBuiltIndex() {
+        ShopSearchIndex built = new ShopSearchIndex();
+        built.rebuild(builder -> builder.add(1, "Starbucks coffee", "西湖", "南山路1号"));
+        built.upsert(2, "Luckin coffee", "西湖", "南山路2号");
+
+        // 字母数字只能从词首匹配，覆盖层中的店铺与全量索引中的规则相同
+        assertEquals(Collections.emptyList(), built.search("ffee", 0, 10).getIds());
+        assertEquals(Arrays.asList(1L, 2L), sorted(built.search("coff", 0, 10).getIds()));
+        // 汉字后面的字母数字也是词首
+        built.upsert(3, "星巴克starbucks", "西湖", "南山路3号");
+        assertEquals(Arrays.asList(1L, 3L), sorted(built.search("star", 0, 10).getIds()));
+
+        // 合并重建后结果不变
+        ShopSearchIndex rebuilt = new ShopSearchIndex();
+        rebuilt.rebuild(builder -> {
+            builder.add(1, "Starbucks coffee", "西湖", "南山路1号");
+            builder.add(2, "Luckin coffee", "西湖", "南山路2号");
+            builder.add(3, "星巴克starbucks", "西湖", "南山路3号");
+        });
+        for (String query : Arrays.asList("ffee", "coff", "star", "bucks", "巴克", "南山")) {
+            assertEquals(sorted(rebuilt.search(query, 0, 10).getIds()), sorted(built.search(query, 0, 10).getIds()), query);
+        }
+    }
+
+    @Test
+    void emptyQueryMatchesNothing() {
+        ShopSearchIndex.SearchHits hits = index.search(" ,. ", 0, 10);
+        assertEquals(Collections.emptyList(), hits.getIds());
+        assertEquals(0, hits.getTotal());
+    }
+
+    private static List<Long> sorted(List<Long> ids) {
+        List<Long> copy = new ArrayList<>(ids);
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopSuggestion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopSuggestIndexTest {
+
+    private ShopSuggestIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopSuggestIndex();
+        index.rebuild(builder -> {
+            builder.add(1, "星巴克西湖店", 1000, 47);
+            builder.add(2, "星巴克湖滨店", 50, 40);
+            builder.add(3, "新白鹿餐厅", 5000, 45);
+            builder.add(4, "Starbucks Reserve", 10, 49);
+            builder.add(5, "小笼包", 1, 30);
+        });
+    }
+
+    @Test
+    void matchesNamePinyinAndInitials() {
+        assertEquals(Arrays.asList(1L, 2L), ids("星巴克", 10));
+        assertEquals(Arrays.asList(1L, 2L), ids("xingba", 10));
+        assertEquals(Arrays.asList(1L, 2L), ids("XBK", 10));
+        assertEquals(Arrays.asList(3L), ids("新白", 10));
+        assertEquals(Arrays.asList(4L), ids("star", 10));
+    }
+
+    @Test
+    void ranksByWeightAndReturnsEachShopOnce() {
+        // 全拼和首字母都以x开头的店铺只返回一次
+        assertEquals(Arrays.asList(3L, 1L, 2L, 5L), ids("x", 10));
+        assertEquals(Arrays.asList(3L, 1L), ids("x", 2));
+    }
+
+    @Test
+    void appliesUpsertsAndRemovalsAfterRebuild() {
+        index.upsert(6, "星星咖啡", 99999, 50);
+        index.remove(1);
+        index.upsert(2, "湖滨咖啡", 50, 40);
+
+        assertEquals(Arrays.asList(6L), ids("xing", 10));
+        assertEquals(Arrays.asList(2L), ids("hubin", 10));
+        List<ShopSuggestion> suggestions = index.suggest("xx", 10);
+        assertEquals(1, suggestions.size());
+        assertEquals("星星咖啡", suggestions.get(0).getName());
+    }
+
+    @Test
+    void blankPrefixMatchesNothing() {
+        assertTrue(index.suggest("  ", 10).isEmpty());
+        assertTrue(index.suggest("不存在", 10).isEmpty());
+    }
+
+    private List<Long> ids(String prefix, int limit) {
+        return index.suggest(prefix, limit).stream().map(ShopSuggestion::getId).collect(Collectors.toList());
+    }
+}